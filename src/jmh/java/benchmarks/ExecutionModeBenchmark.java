@@ -0,0 +1,96 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The two orders-config.execution.mode settings under the same load: a burst of
+ * {@code requests} concurrent requests, each making one blocking call of {@code latencyMs}
+ * (a DynamoDB round trip) followed by a little CPU work (rendering).
+ *
+ * <p>{@code platform} runs the blocking call on the request thread, so the burst is served
+ * {@link #REQUEST_THREADS} at a time, as with the bulkhead of 100. {@code virtual} hands the
+ * call to a virtual thread and frees the request thread right away, like BlockingIoExecutor
+ * does. The virtual mode needs a JDK 21+ runtime and fails its setup on older JDKs.
+ *
+ * <p>Run with {@code mvn -Pjmh compile exec:exec -Djmh.args="ExecutionModeBenchmark"}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExecutionModeBenchmark {
+
+    private static final int REQUEST_THREADS = 100;
+
+    @Param({"platform", "virtual"})
+    public String mode;
+
+    @Param({"100", "1000", "5000"})
+    public int requests;
+
+    @Param({"5"})
+    public int latencyMs;
+
+    private ExecutorService requestThreads;
+    private ExecutorService virtualThreads;
+
+    @Setup
+    public void setUp() {
+        requestThreads = Executors.newFixedThreadPool(REQUEST_THREADS);
+        if (mode.equals("virtual")) {
+            try {
+                virtualThreads = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Virtual threads need a JDK 21+ runtime", e);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        requestThreads.shutdownNow();
+        if (virtualThreads != null) {
+            virtualThreads.shutdownNow();
+        }
+    }
+
+    @Benchmark
+    public void burst(Blackhole blackhole) {
+        CompletableFuture<?>[] responses = new CompletableFuture<?>[requests];
+        for (int i = 0; i < requests; i++) {
+            int request = i;
+            responses[i] = virtualThreads == null
+                    ? CompletableFuture.supplyAsync(() -> render(blockingCall(request)), requestThreads)
+                    : CompletableFuture.supplyAsync(() -> request, requestThreads)
+                    .thenComposeAsync(r -> CompletableFuture.supplyAsync(() -> blockingCall(r), virtualThreads), requestThreads)
+                    .thenApply(ExecutionModeBenchmark::render);
+        }
+        CompletableFuture.allOf(responses).join();
+        blackhole.consume(responses);
+    }
+
+    private int blockingCall(int request) {
+        try {
+            Thread.sleep(latencyMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return request;
+    }
+
+    private static int render(int request) {
+        int hash = request;
+        for (int i = 0; i < 1000; i++) {
+            hash = 31 * hash + i;
+        }
+        return hash;
+    }
+}
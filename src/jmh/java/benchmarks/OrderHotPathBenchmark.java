@@ -0,0 +1,204 @@
+package benchmarks;
+
+import com.google.gson.Gson;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.ByteArrayOutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-request hot paths of the orders service, measured against 1, 50 and 1000 order rows.
+ * The service classes live in the default package, which JMH cannot generate code for, so
+ * they are reached through method handles resolved once per fork.
+ *
+ * <p>{@code getOrdersPage} is the old map/Gson rendering and {@code streamOrdersPage*} the
+ * streaming writer getOrders uses now, so the two can be compared directly.
+ *
+ * <p>Run with {@code mvn -Pjmh compile exec:exec}; the gc profiler is on by default and
+ * reports the allocation rate ({@code gc.alloc.rate.norm}) next to throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrderHotPathBenchmark {
+
+    private static final MethodHandle TRANSFORM_ORDER_ITEM =
+            staticHandle("ResponseTransformer", "transformOrderItem", MethodType.methodType(Map.class, Map.class));
+    private static final MethodHandle FORMAT_ORDER_TIMESTAMP =
+            staticHandle("ResponseTransformer", "formatOrderTimestamp", MethodType.methodType(void.class, Map.class));
+    private static final MethodHandle HASH_KEY =
+            staticHandle("OrdersService", "hashKey", MethodType.methodType(String.class, String.class));
+    private static final MethodHandle LISTING_WRITER = constructorHandle("OrderListingWriter",
+            MethodType.methodType(void.class, List.class, Integer.class, String.class, boolean.class));
+
+    @Param({"1", "50", "1000"})
+    public int itemCount;
+
+    private List<Map<String, AttributeValue>> items;
+    private List<Map<String, AttributeValue>> nativeItems;
+    private List<Map<String, AttributeValue>> summaryItems;
+    private List<String> isoTimestamps;
+    private List<Map<String, String>> timestampScratch;
+    private List<String> hashKeyInputs;
+    private Map<String, Object> responseBody;
+    private ByteArrayOutputStream responseStream;
+
+    @Setup
+    public void setUp() throws Throwable {
+        items = OrderPayloads.orders(itemCount);
+        nativeItems = OrderPayloads.ordersWithNativeOrderList(itemCount);
+        summaryItems = new ArrayList<>(itemCount);
+        for (Map<String, AttributeValue> item : items) {
+            Map<String, AttributeValue> summary = new HashMap<>();
+            for (String field : new String[]{"TimeStamp", "TotalPrice", "OrderStatus"}) {
+                summary.put(field, item.get(field));
+            }
+            summaryItems.add(summary);
+        }
+
+        isoTimestamps = new ArrayList<>(itemCount);
+        timestampScratch = new ArrayList<>(itemCount);
+        hashKeyInputs = new ArrayList<>(itemCount);
+        List<Map<String, String>> orders = new ArrayList<>(itemCount);
+        for (Map<String, AttributeValue> item : items) {
+            String timeStamp = item.get("TimeStamp").s();
+            isoTimestamps.add(timeStamp);
+            timestampScratch.add(new HashMap<>());
+            hashKeyInputs.add(OrderPayloads.USER_ID + item.get("OrderList").s() + timeStamp);
+
+            Map<String, String> order = transform(item);
+            FORMAT_ORDER_TIMESTAMP.invokeExact(order);
+            orders.add(order);
+        }
+        responseBody = new HashMap<>();
+        responseBody.put("orders", orders);
+        responseBody.put("totalPages", 1);
+        responseStream = new ByteArrayOutputStream();
+    }
+
+    @Benchmark
+    public void transformOrderItems(Blackhole blackhole) throws Throwable {
+        for (Map<String, AttributeValue> item : items) {
+            blackhole.consume(transform(item));
+        }
+    }
+
+    /**
+     * Includes one HashMap put per order to restore the ISO timestamp the formatter overwrites.
+     */
+    @Benchmark
+    public void formatTimestamps(Blackhole blackhole) throws Throwable {
+        for (int i = 0; i < itemCount; i++) {
+            Map<String, String> order = timestampScratch.get(i);
+            order.put("TimeStamp", isoTimestamps.get(i));
+            FORMAT_ORDER_TIMESTAMP.invokeExact(order);
+            blackhole.consume(order);
+        }
+    }
+
+    @Benchmark
+    public void checkoutHashKeys(Blackhole blackhole) throws Throwable {
+        for (String input : hashKeyInputs) {
+            blackhole.consume((String) HASH_KEY.invokeExact(input));
+        }
+    }
+
+    @Benchmark
+    public String serializeResponse() {
+        return new Gson().toJson(responseBody);
+    }
+
+    /**
+     * Everything getOrders does to a fetched page: transform, reformat timestamps, serialize.
+     */
+    @Benchmark
+    public String getOrdersPage() throws Throwable {
+        List<Map<String, String>> orders = new ArrayList<>(itemCount);
+        for (Map<String, AttributeValue> item : items) {
+            Map<String, String> order = transform(item);
+            FORMAT_ORDER_TIMESTAMP.invokeExact(order);
+            orders.add(order);
+        }
+        Map<String, Object> body = new HashMap<>();
+        body.put("orders", orders);
+        body.put("totalPages", 1);
+        return new Gson().toJson(body);
+    }
+
+    /**
+     * The same page rendered by OrderListingWriter, as the old string-wrapped OrderList shape.
+     */
+    @Benchmark
+    public int streamOrdersPage() throws Throwable {
+        return stream(true);
+    }
+
+    /**
+     * The same page rendered by OrderListingWriter, with OrderList as a real JSON array.
+     */
+    @Benchmark
+    public int streamOrdersPageNativeOrderList() throws Throwable {
+        return stream(false);
+    }
+
+    /**
+     * Rows whose OrderList is stored as a native list, so no JSON is parsed on the read path.
+     */
+    @Benchmark
+    public int streamOrdersPageStoredNative() throws Throwable {
+        return stream(nativeItems, false);
+    }
+
+    /**
+     * Rows read with {@code fields=TimeStamp,TotalPrice,OrderStatus}, the list view's projection.
+     */
+    @Benchmark
+    public int streamOrdersPageSummaryFields() throws Throwable {
+        return stream(summaryItems, false);
+    }
+
+    private int stream(boolean orderListAsString) throws Throwable {
+        return stream(items, orderListAsString);
+    }
+
+    private int stream(List<Map<String, AttributeValue>> rows, boolean orderListAsString) throws Throwable {
+        StreamingOutput writer = (StreamingOutput) LISTING_WRITER.invoke(rows, (Integer) 1, (String) null, orderListAsString);
+        responseStream.reset();
+        writer.write(responseStream);
+        return responseStream.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, String> transform(Map<String, AttributeValue> item) throws Throwable {
+        return (Map<String, String>) (Map<?, ?>) TRANSFORM_ORDER_ITEM.invokeExact((Map<?, ?>) item);
+    }
+
+    private static MethodHandle constructorHandle(String className, MethodType type) {
+        try {
+            return MethodHandles.publicLookup().findConstructor(Class.forName(className), type);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static MethodHandle staticHandle(String className, String methodName, MethodType type) {
+        try {
+            return MethodHandles.publicLookup().findStatic(Class.forName(className), methodName, type);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+}
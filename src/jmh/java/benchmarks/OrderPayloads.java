@@ -0,0 +1,99 @@
+package benchmarks;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Deterministic order rows shaped like the ones the orders table returns for a Query with
+ * the getOrders projection. OrderList sizes are skewed towards small carts with a long tail,
+ * which is what production histories look like.
+ */
+public final class OrderPayloads {
+
+    public static final String USER_ID = "0b7c2a2e-5d1f-4b8e-9a43-1f0c7e6d9a21";
+
+    private static final String[] PRODUCTS = {
+            "Wireless Mouse", "Mechanical Keyboard", "USB-C Hub", "27\" Monitor", "Laptop Stand",
+            "Noise Cancelling Headphones", "Webcam 1080p", "Desk Lamp", "Ergonomic Chair", "HDMI Cable 2m"
+    };
+
+    private OrderPayloads() {
+    }
+
+    public static List<Map<String, AttributeValue>> orders(int count) {
+        Random random = new Random(42);
+        Instant base = Instant.parse("2023-06-01T10:15:30.123Z");
+        List<Map<String, AttributeValue>> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Map<String, AttributeValue> item = new HashMap<>();
+            item.put("Name", s("Name" + i));
+            item.put("Surname", s("Surname" + i));
+            item.put("TimeStamp", s(base.minus(i * 7L, ChronoUnit.HOURS).toString()));
+            item.put("TotalPrice", AttributeValue.builder().n(String.format("%d.%02d", 5 + random.nextInt(2000), random.nextInt(100))).build());
+            item.put("OrderStatus", s("COMPLETED"));
+            item.put("OrderList", s(orderList(random, orderListSize(random))));
+            item.put("Email", s("user" + i + "@example.com"));
+            item.put("Address", s(i + " Main St, Springfield, State"));
+            item.put("TelNumber", s(String.valueOf(600000000 + random.nextInt(99999999))));
+            items.add(item);
+        }
+        return items;
+    }
+
+    /**
+     * The same rows with OrderList stored as a native list of {productName, quantity} maps.
+     */
+    public static List<Map<String, AttributeValue>> ordersWithNativeOrderList(int count) {
+        List<Map<String, AttributeValue>> items = orders(count);
+        for (Map<String, AttributeValue> item : items) {
+            JsonArray lines = JsonParser.parseString(item.get("OrderList").s()).getAsJsonArray();
+            List<AttributeValue> list = new ArrayList<>(lines.size());
+            for (JsonElement line : lines) {
+                Map<String, AttributeValue> map = new HashMap<>();
+                map.put("productName", s(line.getAsJsonObject().get("productName").getAsString()));
+                map.put("quantity", AttributeValue.builder().n(line.getAsJsonObject().get("quantity").getAsString()).build());
+                list.add(AttributeValue.builder().m(map).build());
+            }
+            item.put("OrderList", AttributeValue.builder().l(list).build());
+        }
+        return items;
+    }
+
+    private static int orderListSize(Random random) {
+        int roll = random.nextInt(100);
+        if (roll < 60) {
+            return 1 + random.nextInt(3);
+        }
+        if (roll < 90) {
+            return 4 + random.nextInt(7);
+        }
+        return 11 + random.nextInt(40);
+    }
+
+    private static String orderList(Random random, int lines) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < lines; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"quantity\":\"").append(1 + random.nextInt(5))
+                    .append("\",\"productName\":\"").append(PRODUCTS[random.nextInt(PRODUCTS.length)].replace("\"", "\\\""))
+                    .append("\"}");
+        }
+        return json.append(']').toString();
+    }
+
+    private static AttributeValue s(String value) {
+        return AttributeValue.builder().s(value).build();
+    }
+}
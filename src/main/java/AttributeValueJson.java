@@ -0,0 +1,158 @@
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+import software.amazon.awssdk.core.SdkBytes;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lossless JSON form of DynamoDB items, using the same type descriptors as the DynamoDB wire
+ * format ({@code {"S": "..."}}, {@code {"N": "..."}}, {@code {"M": {...}}}, ...).
+ */
+public class AttributeValueJson {
+
+    public static String toJson(Map<String, AttributeValue> item) {
+        return toJsonObject(item).toString();
+    }
+
+    public static Map<String, AttributeValue> fromJson(String json) {
+        return fromJsonObject(JsonParser.parseString(json).getAsJsonObject());
+    }
+
+    public static JsonObject toJsonObject(Map<String, AttributeValue> item) {
+        JsonObject json = new JsonObject();
+        for (Map.Entry<String, AttributeValue> entry : item.entrySet()) {
+            json.add(entry.getKey(), toJsonElement(entry.getValue()));
+        }
+        return json;
+    }
+
+    public static Map<String, AttributeValue> fromJsonObject(JsonObject json) {
+        Map<String, AttributeValue> item = new HashMap<>();
+        for (Map.Entry<String, JsonElement> entry : json.entrySet()) {
+            item.put(entry.getKey(), fromJsonElement(entry.getValue().getAsJsonObject()));
+        }
+        return item;
+    }
+
+    /**
+     * Writes an item as plain JSON, without type descriptors: numbers as JSON numbers, binary
+     * values base64 encoded and sets as arrays.
+     */
+    public static void writePlain(JsonWriter json, Map<String, AttributeValue> item) throws IOException {
+        json.beginObject();
+        for (Map.Entry<String, AttributeValue> entry : item.entrySet()) {
+            json.name(entry.getKey());
+            writePlain(json, entry.getValue());
+        }
+        json.endObject();
+    }
+
+    private static void writePlain(JsonWriter json, AttributeValue value) throws IOException {
+        if (value.s() != null) {
+            json.value(value.s());
+        } else if (value.n() != null) {
+            json.value(new BigDecimal(value.n()));
+        } else if (value.bool() != null) {
+            json.value(value.bool());
+        } else if (value.b() != null) {
+            json.value(Base64.getEncoder().encodeToString(value.b().asByteArray()));
+        } else if (value.hasM()) {
+            writePlain(json, value.m());
+        } else if (value.hasL()) {
+            json.beginArray();
+            for (AttributeValue element : value.l()) {
+                writePlain(json, element);
+            }
+            json.endArray();
+        } else if (value.hasSs()) {
+            json.beginArray();
+            for (String element : value.ss()) {
+                json.value(element);
+            }
+            json.endArray();
+        } else if (value.hasNs()) {
+            json.beginArray();
+            for (String element : value.ns()) {
+                json.value(new BigDecimal(element));
+            }
+            json.endArray();
+        } else {
+            json.nullValue();
+        }
+    }
+
+    private static JsonObject toJsonElement(AttributeValue value) {
+        JsonObject json = new JsonObject();
+        if (value.s() != null) {
+            json.addProperty("S", value.s());
+        } else if (value.n() != null) {
+            json.addProperty("N", value.n());
+        } else if (value.bool() != null) {
+            json.addProperty("BOOL", value.bool());
+        } else if (value.b() != null) {
+            json.addProperty("B", Base64.getEncoder().encodeToString(value.b().asByteArray()));
+        } else if (Boolean.TRUE.equals(value.nul())) {
+            json.addProperty("NULL", true);
+        } else if (value.hasM()) {
+            json.add("M", toJsonObject(value.m()));
+        } else if (value.hasL()) {
+            JsonArray list = new JsonArray();
+            for (AttributeValue element : value.l()) {
+                list.add(toJsonElement(element));
+            }
+            json.add("L", list);
+        } else if (value.hasSs()) {
+            JsonArray set = new JsonArray();
+            value.ss().forEach(set::add);
+            json.add("SS", set);
+        } else if (value.hasNs()) {
+            JsonArray set = new JsonArray();
+            value.ns().forEach(set::add);
+            json.add("NS", set);
+        } else {
+            throw new IllegalArgumentException("Unsupported attribute value: " + value);
+        }
+        return json;
+    }
+
+    private static AttributeValue fromJsonElement(JsonObject json) {
+        if (json.has("S")) {
+            return AttributeValue.builder().s(json.get("S").getAsString()).build();
+        } else if (json.has("N")) {
+            return AttributeValue.builder().n(json.get("N").getAsString()).build();
+        } else if (json.has("BOOL")) {
+            return AttributeValue.builder().bool(json.get("BOOL").getAsBoolean()).build();
+        } else if (json.has("B")) {
+            return AttributeValue.builder().b(SdkBytes.fromByteArray(Base64.getDecoder().decode(json.get("B").getAsString()))).build();
+        } else if (json.has("NULL")) {
+            return AttributeValue.builder().nul(true).build();
+        } else if (json.has("M")) {
+            return AttributeValue.builder().m(fromJsonObject(json.getAsJsonObject("M"))).build();
+        } else if (json.has("L")) {
+            List<AttributeValue> list = new ArrayList<>();
+            for (JsonElement element : json.getAsJsonArray("L")) {
+                list.add(fromJsonElement(element.getAsJsonObject()));
+            }
+            return AttributeValue.builder().l(list).build();
+        } else if (json.has("SS")) {
+            List<String> set = new ArrayList<>();
+            json.getAsJsonArray("SS").forEach(element -> set.add(element.getAsString()));
+            return AttributeValue.builder().ss(set).build();
+        } else if (json.has("NS")) {
+            List<String> set = new ArrayList<>();
+            json.getAsJsonArray("NS").forEach(element -> set.add(element.getAsString()));
+            return AttributeValue.builder().ns(set).build();
+        }
+        throw new IllegalArgumentException("Unsupported attribute value: " + json);
+    }
+}
@@ -0,0 +1,147 @@
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Where blocking calls (the synchronous DynamoDB client, the cart-service REST client) run,
+ * selected by {@code orders-config.execution.mode}:
+ *
+ * <ul>
+ *     <li>{@code platform} (default): inline on the calling request or fault tolerance thread,
+ *     so concurrency is bounded by those pools and {@link ConcurrencyLimiter}.</li>
+ *     <li>{@code virtual}: on a new virtual thread per call. The request and fault tolerance
+ *     threads only compose the returned stages and are released while the call blocks.
+ *     Needs a JDK 21+ runtime; on older runtimes the mode falls back to {@code platform}.</li>
+ * </ul>
+ *
+ * <p>The code base targets Java 8, so virtual threads and JFR streaming are reached through
+ * reflection. In virtual mode a JFR stream reports {@code jdk.VirtualThreadPinned} events
+ * longer than {@code execution.pinned-threshold-ms} with their stack traces, so a
+ * {@code synchronized} method or block that pins the carrier thread shows up wherever it is.
+ */
+@ApplicationScoped
+public class BlockingIoExecutor {
+
+    private static final Logger LOGGER = Logger.getLogger(BlockingIoExecutor.class.getName());
+
+    static final String MODE_PLATFORM = "platform";
+    static final String MODE_VIRTUAL = "virtual";
+
+    @Inject
+    private OrdersConfigProperties ordersConfig;
+
+    private final AtomicLong pinnedEvents = new AtomicLong();
+    private ExecutorService virtualThreads;
+    private AutoCloseable pinningRecording;
+
+    private void onStart(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        LOGGER.info("Blocking calls run on " + (virtualThreads != null ? "virtual threads" : "the calling threads"));
+    }
+
+    @PostConstruct
+    private void init() {
+        if (!MODE_VIRTUAL.equals(ordersConfig.getExecutionMode())) {
+            return;
+        }
+        virtualThreads = newVirtualThreadPerTaskExecutor();
+        if (virtualThreads == null) {
+            LOGGER.warning("execution.mode is virtual but this JVM (" + System.getProperty("java.version")
+                    + ") has no virtual threads, running blocking calls on the calling threads");
+            return;
+        }
+        pinningRecording = startPinningRecording(Duration.ofMillis(ordersConfig.getExecutionPinnedThresholdMs()));
+    }
+
+    public boolean isVirtual() {
+        return virtualThreads != null;
+    }
+
+    /**
+     * Runs a blocking call according to the execution mode. In {@code platform} mode the
+     * returned stage is already completed.
+     */
+    public <T> CompletionStage<T> supply(Supplier<T> blockingCall) {
+        if (virtualThreads != null) {
+            return CompletableFuture.supplyAsync(blockingCall, virtualThreads);
+        }
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            future.complete(blockingCall.get());
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    private AutoCloseable startPinningRecording(Duration threshold) {
+        try {
+            Class<?> streamClass = Class.forName("jdk.jfr.consumer.RecordingStream");
+            Object stream = streamClass.getConstructor().newInstance();
+            Class<?> settingsClass = Class.forName("jdk.jfr.EventSettings");
+            Object settings = streamClass.getMethod("enable", String.class).invoke(stream, "jdk.VirtualThreadPinned");
+            settingsClass.getMethod("withThreshold", Duration.class).invoke(settings, threshold);
+            settingsClass.getMethod("withStackTrace").invoke(settings);
+            Consumer<Object> onPinned = event -> {
+                pinnedEvents.incrementAndGet();
+                LOGGER.warning("Virtual thread pinned longer than " + threshold.toMillis() + " ms: " + event);
+            };
+            streamClass.getMethod("onEvent", String.class, Consumer.class).invoke(stream, "jdk.VirtualThreadPinned", onPinned);
+            streamClass.getMethod("startAsync").invoke(stream);
+            return (AutoCloseable) stream;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Unable to start the JFR stream for virtual thread pinning", e);
+            return null;
+        }
+    }
+
+    @Gauge(name = "virtualThreadPinnedEvents", unit = MetricUnits.NONE, description = "Virtual threads pinned to their carrier longer than the threshold")
+    public long getPinnedEvents() {
+        return pinnedEvents.get();
+    }
+
+    @PreDestroy
+    private void close() {
+        if (pinningRecording != null) {
+            try {
+                pinningRecording.close();
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Unable to close the JFR stream", e);
+            }
+        }
+        if (virtualThreads != null) {
+            virtualThreads.shutdown();
+            try {
+                virtualThreads.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/**
+ * Token bucket of DynamoDB capacity units, shared by the workers of a background job.
+ * Requests report what they consumed afterwards, so the bucket may go into debt; the next
+ * request waits until the debt is paid off.
+ */
+class CapacityBudget {
+
+    private double available;
+    private long refilledAt = System.nanoTime();
+
+    void consume(double units, int unitsPerSecond) {
+        synchronized (this) {
+            refill(unitsPerSecond);
+            available -= units;
+        }
+    }
+
+    /**
+     * Waits until the bucket is out of debt; a rate of zero or less means unlimited.
+     */
+    void awaitCredit(int unitsPerSecond) throws InterruptedException {
+        if (unitsPerSecond <= 0) {
+            return;
+        }
+        while (true) {
+            long waitMs;
+            synchronized (this) {
+                refill(unitsPerSecond);
+                if (available >= 0) {
+                    return;
+                }
+                waitMs = (long) Math.ceil(-available * 1000 / unitsPerSecond);
+            }
+            Thread.sleep(Math.max(1, waitMs));
+        }
+    }
+
+    private void refill(int unitsPerSecond) {
+        long now = System.nanoTime();
+        if (unitsPerSecond > 0) {
+            available = Math.min(unitsPerSecond, available + (now - refilledAt) / 1e9 * unitsPerSecond);
+        }
+        refilledAt = now;
+    }
+}
@@ -0,0 +1,374 @@
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.exceptions.JWTDecodeException;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.Timer;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+import org.eclipse.microprofile.metrics.annotation.Metric;
+import org.eclipse.microprofile.rest.client.RestClientBuilder;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Outbox for clearing the user's cart after checkout, so the checkout response does not wait
+ * for cart-service and a slow cart-service cannot fail checkouts whose orders are stored.
+ *
+ * <p>The intent is journaled ({@link OrderJournal}) before the order is put, released to the
+ * dispatcher once the put succeeded and discarded when it failed. Intents left in the journal
+ * by a crash are replayed on startup and sent only if their order exists in the table.
+ *
+ * <p>The cart is cleared with the same call as an inline clear, with the user's
+ * {@code Authorization} header. The header is journaled with the intent, together with the
+ * token's expiry, so replayed intents can still use it; an intent whose token expired, or
+ * was rejected, is dropped with a warning and counted in {@code cartOutboxDropped}.
+ *
+ * <p>The dispatcher runs at most {@code concurrency} calls at a time on cached client proxies,
+ * retries failures with exponential backoff and full jitter, and keeps a circuit breaker per
+ * cart-service URL: after {@code breaker-failure-threshold} consecutive failures the
+ * destination is skipped for {@code breaker-open-ms} and its intents are rescheduled.
+ */
+@ApplicationScoped
+public class CartClearOutbox {
+
+    private static final Logger LOGGER = Logger.getLogger(CartClearOutbox.class.getName());
+
+    @Inject
+    private OrdersConfigProperties ordersConfig;
+
+    @Inject
+    private OrderRepository orderRepository;
+
+    @Inject
+    @Metric(name = "cartOutboxDispatchLag", description = "Time from checkout until the cart was cleared")
+    private Timer dispatchLag;
+
+    private final Map<Long, Intent> intents = new ConcurrentHashMap<>();
+    private final Map<String, CartServiceApi> clients = new ConcurrentHashMap<>();
+    private final Map<String, DestinationBreaker> breakers = new ConcurrentHashMap<>();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private OrderJournal journal;
+    private ScheduledThreadPoolExecutor dispatchers;
+    private volatile boolean running;
+
+    /**
+     * Creates the bean at startup, so intents of a previous run are replayed without waiting
+     * for the first checkout.
+     */
+    private void onStart(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        LOGGER.fine("Cart clear outbox " + (running ? "started" : "disabled"));
+    }
+
+    @PostConstruct
+    private void init() {
+        if (!ordersConfig.getCartOutboxEnabled()) {
+            return;
+        }
+        try {
+            journal = new OrderJournal(ordersConfig.getCartOutboxJournalPath(),
+                    ordersConfig.getCartOutboxJournalSizeMb() * 1024 * 1024, false);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Unable to open the cart outbox journal, clearing carts inline", e);
+            return;
+        }
+        dispatchers = new ScheduledThreadPoolExecutor(ordersConfig.getCartOutboxConcurrency(), runnable -> {
+            Thread thread = new Thread(runnable, "cart-outbox");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dispatchers.setRemoveOnCancelPolicy(true);
+        running = true;
+
+        Map<Long, String> uncommitted = journal.uncommitted();
+        for (Map.Entry<Long, String> entry : uncommitted.entrySet()) {
+            Intent intent = Intent.fromJson(entry.getKey(), entry.getValue());
+            intent.replayed = true;
+            intents.put(intent.seq, intent);
+            dispatchers.execute(() -> dispatch(intent));
+        }
+        if (!uncommitted.isEmpty()) {
+            LOGGER.warning("Replaying " + uncommitted.size() + " cart clear intents from the previous run");
+        }
+    }
+
+    public boolean isEnabled() {
+        return running;
+    }
+
+    /**
+     * Journals the intent to clear the cart of the order {@code hashKey}. It is only sent after
+     * {@link #release(long)}.
+     *
+     * @return the intent's sequence number
+     */
+    public long record(String userId, String hashKey, String authHeader, URL cartServiceUrl) throws IOException {
+        Intent intent = new Intent(userId, hashKey, cartServiceUrl.toString(), System.currentTimeMillis());
+        intent.authHeader = authHeader;
+        intent.authExpiresAt = expiresAt(authHeader);
+        intent.seq = journal.append(intent.toJson());
+        intents.put(intent.seq, intent);
+        return intent.seq;
+    }
+
+    /**
+     * The order was stored; hands the intent to the dispatcher.
+     */
+    public void release(long seq) {
+        Intent intent = intents.get(seq);
+        if (intent != null && !intent.released) {
+            intent.released = true;
+            dispatchers.execute(() -> dispatch(intent));
+        }
+    }
+
+    /**
+     * The order was not stored; drops the intent unless it was already released.
+     */
+    public void discard(long seq) {
+        Intent intent = intents.get(seq);
+        if (intent != null && !intent.released) {
+            done(intent);
+        }
+    }
+
+    private void dispatch(Intent intent) {
+        if (!running) {
+            return;
+        }
+        if (intent.replayed) {
+            try {
+                if (!orderRepository.orderExists(intent.userId, intent.hashKey).toCompletableFuture().join()) {
+                    LOGGER.info("Order " + intent.hashKey + " was never stored, dropping its cart clear intent");
+                    done(intent);
+                    return;
+                }
+                intent.replayed = false;
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Unable to look up order " + intent.hashKey + ", retrying later", e);
+                retry(intent);
+                return;
+            }
+        }
+
+        DestinationBreaker breaker = breakers.computeIfAbsent(intent.destination, destination -> new DestinationBreaker());
+        long openForMs = breaker.openForMs();
+        if (openForMs > 0) {
+            schedule(intent, openForMs + ThreadLocalRandom.current().nextLong(openForMs / 4 + 1));
+            return;
+        }
+
+        if (intent.authHeader == null || System.currentTimeMillis() >= intent.authExpiresAt) {
+            LOGGER.warning("User token of order " + intent.hashKey + " expired before its cart was cleared, dropping the intent");
+            dropped.incrementAndGet();
+            done(intent);
+            return;
+        }
+
+        int status;
+        try {
+            Response response = client(intent.destination).deleteCart(intent.authHeader);
+            status = response.getStatus();
+            response.close();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.FINE, "Cart clear for order " + intent.hashKey + " failed", e);
+            status = -1;
+        }
+
+        if (status >= 200 && status < 300) {
+            breaker.succeeded();
+            delivered.incrementAndGet();
+            dispatchLag.update(System.currentTimeMillis() - intent.createdAt, TimeUnit.MILLISECONDS);
+            done(intent);
+        } else if (status >= 400 && status < 500 && status != 408 && status != 429) {
+            LOGGER.warning("Cart service rejected cart clear for order " + intent.hashKey + " with HTTP " + status);
+            dropped.incrementAndGet();
+            done(intent);
+        } else {
+            breaker.failed(ordersConfig.getCartOutboxBreakerFailureThreshold(), ordersConfig.getCartOutboxBreakerOpenMs());
+            retry(intent);
+        }
+    }
+
+    private void retry(Intent intent) {
+        int attempt = ++intent.attempts;
+        if (attempt >= ordersConfig.getCartOutboxMaxAttempts()) {
+            LOGGER.warning("Giving up on cart clear for order " + intent.hashKey + " after " + attempt + " attempts");
+            dropped.incrementAndGet();
+            done(intent);
+            return;
+        }
+        long backoff = Math.min(ordersConfig.getCartOutboxBackoffMaxMs(),
+                (long) ordersConfig.getCartOutboxBackoffBaseMs() << Math.min(attempt - 1, 20));
+        schedule(intent, ThreadLocalRandom.current().nextLong(backoff + 1));
+    }
+
+    private void schedule(Intent intent, long delayMs) {
+        if (running) {
+            dispatchers.schedule(() -> dispatch(intent), delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void done(Intent intent) {
+        intents.remove(intent.seq);
+        try {
+            journal.commit(intent.seq);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to commit cart outbox record " + intent.seq, e);
+        }
+    }
+
+    /**
+     * @return when the bearer token of {@code authHeader} expires, or 0 if it can't be told
+     */
+    private static long expiresAt(String authHeader) {
+        if (authHeader == null || !authHeader.startsWith("Bearer ")) {
+            return 0;
+        }
+        try {
+            Date expiresAt = JWT.decode(authHeader.substring("Bearer ".length())).getExpiresAt();
+            return expiresAt != null ? expiresAt.getTime() : 0;
+        } catch (JWTDecodeException e) {
+            return 0;
+        }
+    }
+
+    private CartServiceApi client(String destination) {
+        return clients.computeIfAbsent(destination, url -> {
+            try {
+                return RestClientBuilder.newBuilder()
+                        .baseUrl(new URL(url))
+                        .build(CartServiceApi.class);
+            } catch (MalformedURLException e) {
+                throw new IllegalArgumentException("Invalid cart service URL " + url, e);
+            }
+        });
+    }
+
+    @Gauge(name = "cartOutboxQueueDepth", unit = MetricUnits.NONE, description = "Cart clear intents waiting to be delivered")
+    public long getQueueDepth() {
+        return intents.size();
+    }
+
+    @Gauge(name = "cartOutboxOldestAge", unit = MetricUnits.MILLISECONDS, description = "Age of the oldest undelivered cart clear intent")
+    public long getOldestAge() {
+        long oldest = Long.MAX_VALUE;
+        for (Intent intent : intents.values()) {
+            oldest = Math.min(oldest, intent.createdAt);
+        }
+        return oldest == Long.MAX_VALUE ? 0 : System.currentTimeMillis() - oldest;
+    }
+
+    @Gauge(name = "cartOutboxDelivered", unit = MetricUnits.NONE, description = "Carts cleared by the outbox")
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    @Gauge(name = "cartOutboxDropped", unit = MetricUnits.NONE, description = "Cart clear intents given up on")
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    @PreDestroy
+    private void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        dispatchers.shutdownNow();
+        try {
+            dispatchers.awaitTermination(5, TimeUnit.SECONDS);
+            journal.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to close the cart outbox journal", e);
+        }
+    }
+
+    private static class Intent {
+        private final String userId;
+        private final String hashKey;
+        private final String destination;
+        private final long createdAt;
+        private String authHeader;
+        private long authExpiresAt;
+        private long seq;
+        private volatile boolean released;
+        private volatile boolean replayed;
+        private int attempts;
+
+        private Intent(String userId, String hashKey, String destination, long createdAt) {
+            this.userId = userId;
+            this.hashKey = hashKey;
+            this.destination = destination;
+            this.createdAt = createdAt;
+        }
+
+        private String toJson() {
+            JsonObject json = new JsonObject();
+            json.addProperty("userId", userId);
+            json.addProperty("hashKey", hashKey);
+            json.addProperty("destination", destination);
+            json.addProperty("createdAt", createdAt);
+            json.addProperty("authHeader", authHeader);
+            json.addProperty("authExpiresAt", authExpiresAt);
+            return json.toString();
+        }
+
+        private static Intent fromJson(long seq, String payload) {
+            JsonObject json = JsonParser.parseString(payload).getAsJsonObject();
+            Intent intent = new Intent(json.get("userId").getAsString(), json.get("hashKey").getAsString(),
+                    json.get("destination").getAsString(), json.get("createdAt").getAsLong());
+            intent.seq = seq;
+            if (json.has("authHeader")) {
+                intent.authHeader = json.get("authHeader").getAsString();
+                intent.authExpiresAt = json.get("authExpiresAt").getAsLong();
+            }
+            intent.released = true;
+            return intent;
+        }
+    }
+
+    /**
+     * Consecutive-failure circuit breaker for one cart-service URL.
+     */
+    private static class DestinationBreaker {
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+        private volatile long openUntil;
+
+        private long openForMs() {
+            return Math.max(0, openUntil - System.currentTimeMillis());
+        }
+
+        private void succeeded() {
+            consecutiveFailures.set(0);
+        }
+
+        private void failed(int threshold, long openMs) {
+            if (consecutiveFailures.incrementAndGet() >= threshold) {
+                openUntil = System.currentTimeMillis() + openMs;
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+import org.eclipse.microprofile.rest.client.inject.RegisterRestClient;
+import javax.ws.rs.*;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.concurrent.CompletionStage;
+
+@Path("/cart")
+@RegisterRestClient
+public interface CartServiceAsyncApi {
+
+    @DELETE
+    @Produces(MediaType.APPLICATION_JSON)
+    CompletionStage<Response> deleteCart(@HeaderParam("Authorization") String authHeader);
+}
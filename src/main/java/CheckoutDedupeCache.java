@@ -0,0 +1,93 @@
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded LRU of recently completed checkouts, keyed by user and order {@code HashKey}. A retry
+ * or a double-click that carries the same idempotency key is answered from here without
+ * another write or cart-service call; entries expire after the configured TTL, after which
+ * the conditional put in {@link OrderRepository#putOrder} still catches the duplicate.
+ */
+@ApplicationScoped
+public class CheckoutDedupeCache {
+
+    @Inject
+    private OrdersConfigProperties ordersConfig;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Long> completed = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong rejectedWrites = new AtomicLong();
+
+    public boolean isCompleted(String userId, String hashKey) {
+        String key = key(userId, hashKey);
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            Long expiresAt = completed.get(key);
+            if (expiresAt == null) {
+                return false;
+            }
+            if (expiresAt - now <= 0) {
+                completed.remove(key);
+                return false;
+            }
+            hits.incrementAndGet();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void markCompleted(String userId, String hashKey) {
+        long expiresAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(ordersConfig.getIdempotencyCacheTtlSeconds());
+        int maxKeys = ordersConfig.getIdempotencyCacheMaxKeys();
+        lock.lock();
+        try {
+            completed.put(key(userId, hashKey), expiresAt);
+            while (completed.size() > maxKeys) {
+                completed.remove(completed.keySet().iterator().next());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records a duplicate that got past the cache and was rejected by the conditional put.
+     */
+    public void recordRejectedWrite() {
+        rejectedWrites.incrementAndGet();
+    }
+
+    private static String key(String userId, String hashKey) {
+        return userId + '\0' + hashKey;
+    }
+
+    @Gauge(name = "checkoutDedupeHits", unit = MetricUnits.NONE, description = "Checkouts answered from the idempotency cache")
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Gauge(name = "checkoutDuplicateWrites", unit = MetricUnits.NONE, description = "Duplicate checkouts rejected by the conditional put")
+    public long getRejectedWrites() {
+        return rejectedWrites.get();
+    }
+
+    @Gauge(name = "checkoutDedupeKeys", unit = MetricUnits.NONE, description = "Completed checkouts held in the idempotency cache")
+    public long getKeys() {
+        lock.lock();
+        try {
+            return completed.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,235 @@
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Adaptive admission control for the order reads and checkouts, replacing the fixed
+ * {@code @Bulkhead(100)}. Each class of request has its own concurrency limit:
+ *
+ * <ul>
+ *     <li>The limit follows the DynamoDB call latency like a gradient limiter: while the recent
+ *     latency stays at the long-term baseline it grows by about {@code sqrt(limit)}, and it
+ *     shrinks in proportion when latency rises above the baseline.</li>
+ *     <li>Every throttled DynamoDB attempt cuts the limit multiplicatively by
+ *     {@code limiter.backoff-ratio} (AIMD).</li>
+ * </ul>
+ *
+ * <p>Checkouts have priority. Reads back off on their own throttles and on checkout throttles,
+ * while checkouts back off more gently. Reads are also shed while checkouts are at their limit.
+ * Requests above the limit are rejected at once so the caller can answer 503 with
+ * {@code Retry-After}, rather than wait in a queue until the 50 second timeout.
+ *
+ * <p>The samples come from the SDK metrics of the DynamoDB calls made on the registry's request
+ * clients, collected by {@link DynamoDbClientRegistry}. Admin and background calls go through
+ * its background clients and are not sampled. Query, Scan and GetItem calls drive the read
+ * limit, and writes drive the checkout limit.
+ */
+@ApplicationScoped
+public class ConcurrencyLimiter {
+
+    private static final Logger LOGGER = Logger.getLogger(ConcurrencyLimiter.class.getName());
+
+    public enum Kind {
+        READ, CHECKOUT
+    }
+
+    @Inject
+    private OrdersConfigProperties ordersConfig;
+
+    private Limit reads;
+    private Limit checkouts;
+
+    @PostConstruct
+    private void init() {
+        reads = new Limit("read", ordersConfig.getLimiterReadInitialLimit());
+        checkouts = new Limit("checkout", ordersConfig.getLimiterCheckoutInitialLimit());
+    }
+
+    /**
+     * Admits a request if its class is below its limit.
+     *
+     * @return the permit to release when the request completes, or {@code null} if the request
+     * has to be shed
+     */
+    public Permit tryAcquire(Kind kind) {
+        if (kind == Kind.READ) {
+            if (checkouts.inFlight.get() >= checkouts.currentLimit()) {
+                reads.shed.incrementAndGet();
+                return null;
+            }
+            return reads.tryAcquire();
+        }
+        return checkouts.tryAcquire();
+    }
+
+    public int retryAfterSeconds() {
+        return ordersConfig.getLimiterRetryAfterSeconds();
+    }
+
+    /**
+     * Latency of one DynamoDB API call, SDK retries included.
+     */
+    public void onCall(String operation, Duration duration) {
+        limitFor(operation).sample(duration.toNanos());
+    }
+
+    /**
+     * One DynamoDB attempt rejected with a throttling error.
+     */
+    public void onThrottle(String operation) {
+        double backoffRatio = ordersConfig.getLimiterBackoffRatio();
+        if (limitFor(operation) == reads) {
+            reads.backOff(backoffRatio);
+        } else {
+            checkouts.backOff(Math.sqrt(backoffRatio));
+            reads.backOff(backoffRatio);
+        }
+    }
+
+    private Limit limitFor(String operation) {
+        switch (operation) {
+            case "Query":
+            case "Scan":
+            case "GetItem":
+            case "BatchGetItem":
+                return reads;
+            default:
+                return checkouts;
+        }
+    }
+
+    @Gauge(name = "concurrencyLimitRead", unit = MetricUnits.NONE, description = "Current concurrency limit for order reads")
+    public int getReadLimit() {
+        return reads.currentLimit();
+    }
+
+    @Gauge(name = "concurrencyLimitCheckout", unit = MetricUnits.NONE, description = "Current concurrency limit for checkouts")
+    public int getCheckoutLimit() {
+        return checkouts.currentLimit();
+    }
+
+    @Gauge(name = "concurrencyInFlightRead", unit = MetricUnits.NONE, description = "Order reads currently admitted")
+    public int getReadInFlight() {
+        return reads.inFlight.get();
+    }
+
+    @Gauge(name = "concurrencyInFlightCheckout", unit = MetricUnits.NONE, description = "Checkouts currently admitted")
+    public int getCheckoutInFlight() {
+        return checkouts.inFlight.get();
+    }
+
+    @Gauge(name = "concurrencyShedRead", unit = MetricUnits.NONE, description = "Order reads rejected by the concurrency limiter")
+    public long getReadShed() {
+        return reads.shed.get();
+    }
+
+    @Gauge(name = "concurrencyShedCheckout", unit = MetricUnits.NONE, description = "Checkouts rejected by the concurrency limiter")
+    public long getCheckoutShed() {
+        return checkouts.shed.get();
+    }
+
+    public static final class Permit {
+        private final Limit limit;
+        private boolean released;
+
+        private Permit(Limit limit) {
+            this.limit = limit;
+        }
+
+        public void release() {
+            if (!released) {
+                released = true;
+                limit.inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    private final class Limit {
+        // Samples weighted into the long-term latency baseline
+        private static final double LONG_WINDOW = 600;
+        private static final double SHORT_ALPHA = 0.1;
+
+        private final String name;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicLong shed = new AtomicLong();
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private volatile double limit;
+        private double longRttNanos;
+        private double shortRttNanos;
+
+        private Limit(String name, int initialLimit) {
+            this.name = name;
+            this.limit = initialLimit;
+        }
+
+        private int currentLimit() {
+            return (int) limit;
+        }
+
+        private Permit tryAcquire() {
+            while (true) {
+                int current = inFlight.get();
+                if (current >= currentLimit()) {
+                    shed.incrementAndGet();
+                    return null;
+                }
+                if (inFlight.compareAndSet(current, current + 1)) {
+                    return new Permit(this);
+                }
+            }
+        }
+
+        private void sample(long rttNanos) {
+            lock.lock();
+            try {
+                if (longRttNanos == 0) {
+                    longRttNanos = rttNanos;
+                    shortRttNanos = rttNanos;
+                    return;
+                }
+                shortRttNanos += (rttNanos - shortRttNanos) * SHORT_ALPHA;
+                longRttNanos += (shortRttNanos - longRttNanos) / LONG_WINDOW;
+                if (longRttNanos / shortRttNanos > 2) {
+                    // Latency dropped a lot, let the baseline follow instead of growing unbounded
+                    longRttNanos *= 0.95;
+                }
+                if (inFlight.get() < limit / 2) {
+                    // Not enough load to tell whether a higher limit would be served as fast
+                    return;
+                }
+                double gradient = Math.max(0.5, Math.min(1.0, longRttNanos / shortRttNanos));
+                double target = limit * gradient + Math.sqrt(limit);
+                double smoothing = ordersConfig.getLimiterSmoothing();
+                update(limit * (1 - smoothing) + target * smoothing);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void backOff(double ratio) {
+            lock.lock();
+            try {
+                update(limit * ratio);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void update(double newLimit) {
+            int previous = currentLimit();
+            limit = Math.max(ordersConfig.getLimiterMinLimit(), Math.min(ordersConfig.getLimiterMaxLimit(), newLimit));
+            if (currentLimit() != previous) {
+                LOGGER.fine("Concurrency limit for " + name + " requests changed from " + previous + " to " + currentLimit());
+            }
+        }
+    }
+}
@@ -10,12 +10,43 @@ public class ConfigProperties {
     @ConfigValue(value = "dynamo-region", watch = true)
     private String dynamoRegion;
 
+    // e.g. http://localhost:8000 for DynamoDB Local; empty for AWS
+    @ConfigValue(value = "dynamo-endpoint", watch = true)
+    private String dynamoEndpoint = "";
+
     @ConfigValue(value = "table-name", watch = true)
     private String tableName;
 
     @ConfigValue(value = "cognito-issuer", watch = true)
     private String cognitoIssuer;
 
+    @ConfigValue(value = "read-replicas", watch = true)
+    private String readReplicas = "";
+
+    @ConfigValue(value = "http-client.max-connections")
+    private Integer maxConnections = 200;
+
+    @ConfigValue(value = "http-client.connection-timeout-ms")
+    private Integer connectionTimeoutMs = 2000;
+
+    @ConfigValue(value = "http-client.socket-timeout-ms")
+    private Integer socketTimeoutMs = 5000;
+
+    @ConfigValue(value = "http-client.connection-acquisition-timeout-ms")
+    private Integer connectionAcquisitionTimeoutMs = 1000;
+
+    @ConfigValue(value = "http-client.connection-max-idle-ms")
+    private Integer connectionMaxIdleMs = 60000;
+
+    @ConfigValue(value = "http-client.connection-ttl-ms")
+    private Integer connectionTtlMs = 300000;
+
+    @ConfigValue(value = "http-client.tcp-keep-alive")
+    private Boolean tcpKeepAlive = true;
+
+    @ConfigValue(value = "http-client.drain-seconds")
+    private Integer drainSeconds = 30;
+
     // getter and setter methods
 
     public String getDynamoRegion() {
@@ -26,6 +57,14 @@ public class ConfigProperties {
         this.dynamoRegion = dynamoRegion;
     }
 
+    public String getDynamoEndpoint() {
+        return dynamoEndpoint;
+    }
+
+    public void setDynamoEndpoint(String dynamoEndpoint) {
+        this.dynamoEndpoint = dynamoEndpoint;
+    }
+
     public String getTableName() {
         return tableName;
     }
@@ -41,4 +80,76 @@ public class ConfigProperties {
     public void setCognitoIssuer(String cognitoIssuer) {
         this.cognitoIssuer = cognitoIssuer;
     }
+
+    public String getReadReplicas() {
+        return readReplicas;
+    }
+
+    public void setReadReplicas(String readReplicas) {
+        this.readReplicas = readReplicas;
+    }
+
+    public Integer getMaxConnections() {
+        return maxConnections;
+    }
+
+    public void setMaxConnections(Integer maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    public Integer getConnectionTimeoutMs() {
+        return connectionTimeoutMs;
+    }
+
+    public void setConnectionTimeoutMs(Integer connectionTimeoutMs) {
+        this.connectionTimeoutMs = connectionTimeoutMs;
+    }
+
+    public Integer getSocketTimeoutMs() {
+        return socketTimeoutMs;
+    }
+
+    public void setSocketTimeoutMs(Integer socketTimeoutMs) {
+        this.socketTimeoutMs = socketTimeoutMs;
+    }
+
+    public Integer getConnectionAcquisitionTimeoutMs() {
+        return connectionAcquisitionTimeoutMs;
+    }
+
+    public void setConnectionAcquisitionTimeoutMs(Integer connectionAcquisitionTimeoutMs) {
+        this.connectionAcquisitionTimeoutMs = connectionAcquisitionTimeoutMs;
+    }
+
+    public Integer getConnectionMaxIdleMs() {
+        return connectionMaxIdleMs;
+    }
+
+    public void setConnectionMaxIdleMs(Integer connectionMaxIdleMs) {
+        this.connectionMaxIdleMs = connectionMaxIdleMs;
+    }
+
+    public Integer getConnectionTtlMs() {
+        return connectionTtlMs;
+    }
+
+    public void setConnectionTtlMs(Integer connectionTtlMs) {
+        this.connectionTtlMs = connectionTtlMs;
+    }
+
+    public Boolean getTcpKeepAlive() {
+        return tcpKeepAlive;
+    }
+
+    public void setTcpKeepAlive(Boolean tcpKeepAlive) {
+        this.tcpKeepAlive = tcpKeepAlive;
+    }
+
+    public Integer getDrainSeconds() {
+        return drainSeconds;
+    }
+
+    public void setDrainSeconds(Integer drainSeconds) {
+        this.drainSeconds = drainSeconds;
+    }
 }
@@ -0,0 +1,499 @@
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.metrics.CoreMetric;
+import software.amazon.awssdk.http.HttpMetric;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.metrics.MetricCollection;
+import software.amazon.awssdk.metrics.MetricPublisher;
+import software.amazon.awssdk.metrics.MetricRecord;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClientBuilder;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClientBuilder;
+import software.amazon.awssdk.services.dynamodb.streams.DynamoDbStreamsClient;
+import software.amazon.awssdk.services.dynamodb.streams.DynamoDbStreamsClientBuilder;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Owns the DynamoDB clients shared by every request and health probe. A client (and its
+ * pooled HTTP connections) is only rebuilt when the watched region or endpoint changes; the
+ * previous client keeps serving in-flight calls until the drain period is over and is closed
+ * afterwards.
+ * The async client is created lazily, so it costs nothing while orders-config.async-io is off.
+ *
+ * <p>The read replicas of {@code aws-config.read-replicas} get async clients of their own,
+ * rebuilt and drained the same way whenever the list or the region changes.
+ *
+ * <p>Admin and background work (exports, backfills, bulk updates, migrations, stream
+ * checkpoints, statistics and version bookkeeping, table probes) uses the background clients.
+ * They have pools of their own, and their call latencies are not sampled by the
+ * {@link ConcurrencyLimiter}, so a long Scan neither takes connections from the requests
+ * nor lowers the limits the requests are admitted by.
+ *
+ * <p>The {@code dynamoHttp*} gauges show the pool of the request client in use, the async one
+ * when orders-config.async-io is on.
+ */
+@ApplicationScoped
+public class DynamoDbClientRegistry {
+
+    private static final Logger LOGGER = Logger.getLogger(DynamoDbClientRegistry.class.getName());
+    private static final PoolMetricPublisher NO_POOL = new PoolMetricPublisher((operation, duration) -> {
+    }, operation -> {
+    });
+
+    @Inject
+    private ConfigProperties configProperties;
+
+    @Inject
+    private RequestMetrics requestMetrics;
+
+    @Inject
+    private ConcurrencyLimiter concurrencyLimiter;
+
+    @Inject
+    private OrdersConfigProperties ordersConfig;
+
+    private final ScheduledExecutorService drainExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "dynamodb-client-drain");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final AtomicLong clientRebuilds = new AtomicLong();
+    // Not a monitor, so a rebuild does not pin virtual threads waiting for it
+    private final ReentrantLock rebuildLock = new ReentrantLock();
+
+    private final RebuildableClient<DynamoDbClient> dynamoDB = new RebuildableClient<>("DynamoDB client",
+            this::requestPoolMetrics, metrics -> buildClient(configProperties.getDynamoRegion(), endpoint(), metrics));
+    private final RebuildableClient<DynamoDbAsyncClient> dynamoDBAsync = new RebuildableClient<>("DynamoDB async client",
+            this::requestPoolMetrics, metrics -> buildAsyncClient(configProperties.getDynamoRegion(), endpoint(), metrics));
+    private final RebuildableClient<DynamoDbClient> backgroundDynamoDB = new RebuildableClient<>("DynamoDB background client",
+            this::backgroundPoolMetrics, metrics -> buildClient(configProperties.getDynamoRegion(), endpoint(), metrics));
+    private final RebuildableClient<DynamoDbAsyncClient> backgroundDynamoDBAsync = new RebuildableClient<>("DynamoDB background async client",
+            this::backgroundPoolMetrics, metrics -> buildAsyncClient(configProperties.getDynamoRegion(), endpoint(), metrics));
+    private final RebuildableClient<DynamoDbStreamsClient> streams = new RebuildableClient<>("DynamoDB Streams client",
+            this::backgroundPoolMetrics, this::buildStreamsClient);
+
+    private volatile List<ReadReplica> readReplicas = Collections.emptyList();
+    private volatile String currentReplicaSpec;
+
+    public DynamoDbClient client() {
+        return dynamoDB.get();
+    }
+
+    public DynamoDbAsyncClient asyncClient() {
+        return dynamoDBAsync.get();
+    }
+
+    /**
+     * Client for admin and background calls, kept out of the concurrency limiter's samples.
+     */
+    public DynamoDbClient backgroundClient() {
+        return backgroundDynamoDB.get();
+    }
+
+    /**
+     * Async counterpart of {@link #backgroundClient()}.
+     */
+    public DynamoDbAsyncClient backgroundAsyncClient() {
+        return backgroundDynamoDBAsync.get();
+    }
+
+    /**
+     * Client of the orders table's stream, only used by {@link OrderStreamConsumer}.
+     */
+    public DynamoDbStreamsClient streamsClient() {
+        return streams.get();
+    }
+
+    private PoolMetricPublisher requestPoolMetrics() {
+        return new PoolMetricPublisher(
+                (operation, duration) -> concurrencyLimiter.onCall(operation, duration),
+                operation -> {
+                    requestMetrics.recordThrottle(operation);
+                    concurrencyLimiter.onThrottle(operation);
+                });
+    }
+
+    /**
+     * Throttles still count in the metrics, but background calls never move the request limits.
+     */
+    private PoolMetricPublisher backgroundPoolMetrics() {
+        return new PoolMetricPublisher(
+                (operation, duration) -> {
+                },
+                operation -> requestMetrics.recordThrottle(operation));
+    }
+
+    /**
+     * The region, plus the endpoint when {@code aws-config.dynamo-endpoint} points the clients
+     * at a local stand-in such as DynamoDB Local.
+     */
+    private String target() {
+        URI endpoint = endpoint();
+        return endpoint == null ? configProperties.getDynamoRegion() : configProperties.getDynamoRegion() + "=" + endpoint;
+    }
+
+    private URI endpoint() {
+        String endpoint = configProperties.getDynamoEndpoint();
+        return endpoint == null || endpoint.trim().isEmpty() ? null : URI.create(endpoint.trim());
+    }
+
+    /**
+     * Clients for the replicas listed in {@code aws-config.read-replicas}, comma separated
+     * {@code region} or {@code region=endpoint} entries (an endpoint points a replica at a local
+     * DynamoDB stand-in). The home region, {@code aws-config.dynamo-region}, is always part of
+     * the list. Empty when no replicas are configured.
+     */
+    public List<ReadReplica> readReplicas() {
+        String spec = configProperties.getReadReplicas();
+        String region = configProperties.getDynamoRegion();
+        String key = spec == null || spec.trim().isEmpty() ? "" : target() + "|" + spec;
+        if (key.equals(currentReplicaSpec)) {
+            return readReplicas;
+        }
+        rebuildLock.lock();
+        try {
+            if (!key.equals(currentReplicaSpec)) {
+                List<ReadReplica> previous = readReplicas;
+                readReplicas = key.isEmpty() ? Collections.<ReadReplica>emptyList() : buildReplicas(spec, region);
+                currentReplicaSpec = key;
+                clientRebuilds.incrementAndGet();
+                LOGGER.info("DynamoDB read replicas: " + readReplicas);
+                for (ReadReplica replica : previous) {
+                    drain(replica.client);
+                }
+            }
+            return readReplicas;
+        } finally {
+            rebuildLock.unlock();
+        }
+    }
+
+    private List<ReadReplica> buildReplicas(String spec, String homeRegion) {
+        List<ReadReplica> replicas = new ArrayList<>();
+        boolean home = false;
+        for (String entry : spec.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int separator = entry.indexOf('=');
+            String region = separator < 0 ? entry : entry.substring(0, separator).trim();
+            URI endpoint = separator < 0 ? null : URI.create(entry.substring(separator + 1).trim());
+            home |= region.equals(homeRegion);
+            replicas.add(new ReadReplica(entry, region, buildAsyncClient(region, endpoint, requestPoolMetrics())));
+        }
+        if (!home) {
+            replicas.add(0, new ReadReplica(homeRegion, homeRegion, buildAsyncClient(homeRegion, endpoint(), requestPoolMetrics())));
+        }
+        return Collections.unmodifiableList(replicas);
+    }
+
+    public String tableName() {
+        return configProperties.getTableName();
+    }
+
+    private DynamoDbClient buildClient(String region, URI endpoint, MetricPublisher metrics) {
+        DynamoDbClientBuilder client = DynamoDbClient.builder()
+                .region(Region.of(region))
+                .httpClientBuilder(pooledHttpClient())
+                .overrideConfiguration(ClientOverrideConfiguration.builder()
+                        .addMetricPublisher(metrics)
+                        .build());
+        if (endpoint != null) {
+            client.endpointOverride(endpoint);
+        }
+        return client.build();
+    }
+
+    private DynamoDbStreamsClient buildStreamsClient(MetricPublisher metrics) {
+        DynamoDbStreamsClientBuilder client = DynamoDbStreamsClient.builder()
+                .region(Region.of(configProperties.getDynamoRegion()))
+                .httpClientBuilder(pooledHttpClient())
+                .overrideConfiguration(ClientOverrideConfiguration.builder()
+                        .addMetricPublisher(metrics)
+                        .build());
+        if (endpoint() != null) {
+            client.endpointOverride(endpoint());
+        }
+        return client.build();
+    }
+
+    private ApacheHttpClient.Builder pooledHttpClient() {
+        return ApacheHttpClient.builder()
+                .maxConnections(configProperties.getMaxConnections())
+                .connectionTimeout(Duration.ofMillis(configProperties.getConnectionTimeoutMs()))
+                .socketTimeout(Duration.ofMillis(configProperties.getSocketTimeoutMs()))
+                .connectionAcquisitionTimeout(Duration.ofMillis(configProperties.getConnectionAcquisitionTimeoutMs()))
+                .connectionMaxIdleTime(Duration.ofMillis(configProperties.getConnectionMaxIdleMs()))
+                .connectionTimeToLive(Duration.ofMillis(configProperties.getConnectionTtlMs()))
+                .tcpKeepAlive(configProperties.getTcpKeepAlive())
+                .useIdleConnectionReaper(true);
+    }
+
+    private DynamoDbAsyncClient buildAsyncClient(String region, URI endpoint, MetricPublisher metrics) {
+        NettyNioAsyncHttpClient.Builder httpClient = NettyNioAsyncHttpClient.builder()
+                .maxConcurrency(configProperties.getMaxConnections())
+                .connectionTimeout(Duration.ofMillis(configProperties.getConnectionTimeoutMs()))
+                .readTimeout(Duration.ofMillis(configProperties.getSocketTimeoutMs()))
+                .writeTimeout(Duration.ofMillis(configProperties.getSocketTimeoutMs()))
+                .connectionAcquisitionTimeout(Duration.ofMillis(configProperties.getConnectionAcquisitionTimeoutMs()))
+                .connectionMaxIdleTime(Duration.ofMillis(configProperties.getConnectionMaxIdleMs()))
+                .connectionTimeToLive(Duration.ofMillis(configProperties.getConnectionTtlMs()))
+                .tcpKeepAlive(configProperties.getTcpKeepAlive())
+                .useIdleConnectionReaper(true);
+
+        DynamoDbAsyncClientBuilder client = DynamoDbAsyncClient.builder()
+                .region(Region.of(region))
+                .httpClientBuilder(httpClient)
+                .overrideConfiguration(ClientOverrideConfiguration.builder()
+                        .addMetricPublisher(metrics)
+                        .build());
+        if (endpoint != null) {
+            client.endpointOverride(endpoint);
+        }
+        return client.build();
+    }
+
+    private void drain(AutoCloseable previous) {
+        drainExecutor.schedule(() -> {
+            try {
+                previous.close();
+                LOGGER.info("Previous DynamoDB client closed after drain period");
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to close previous DynamoDB client", e);
+            }
+        }, configProperties.getDrainSeconds(), TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    private void close() {
+        drainExecutor.shutdownNow();
+        dynamoDB.close();
+        dynamoDBAsync.close();
+        backgroundDynamoDB.close();
+        backgroundDynamoDBAsync.close();
+        streams.close();
+        for (ReadReplica replica : readReplicas) {
+            replica.client.close();
+        }
+    }
+
+    /**
+     * Pool snapshot of the client the requests currently use, per {@code orders-config.async-io}.
+     */
+    private PoolMetricPublisher requestPool() {
+        PoolMetricPublisher metrics = (ordersConfig.getAsyncIo() ? dynamoDBAsync : dynamoDB).metrics();
+        return metrics != null ? metrics : NO_POOL;
+    }
+
+    @Gauge(name = "dynamoHttpMaxConnections", unit = MetricUnits.NONE, description = "Maximum connections of the DynamoDB HTTP pool")
+    public long getMaxConnections() {
+        return requestPool().maxConcurrency.get();
+    }
+
+    @Gauge(name = "dynamoHttpLeasedConnections", unit = MetricUnits.NONE, description = "Connections currently leased from the DynamoDB HTTP pool")
+    public long getLeasedConnections() {
+        return requestPool().leasedConcurrency.get();
+    }
+
+    @Gauge(name = "dynamoHttpAvailableConnections", unit = MetricUnits.NONE, description = "Idle connections available in the DynamoDB HTTP pool")
+    public long getAvailableConnections() {
+        return requestPool().availableConcurrency.get();
+    }
+
+    @Gauge(name = "dynamoHttpPendingAcquires", unit = MetricUnits.NONE, description = "Requests waiting for a DynamoDB HTTP connection")
+    public long getPendingAcquires() {
+        return requestPool().pendingAcquires.get();
+    }
+
+    @Gauge(name = "dynamoClientRebuilds", unit = MetricUnits.NONE, description = "Number of times the DynamoDB client was (re)built")
+    public long getClientRebuilds() {
+        return clientRebuilds.get();
+    }
+
+    /**
+     * One client of the registry, built on first use and rebuilt when the region or endpoint
+     * changes. Every build gets a metric publisher of its own, so a drained client does not
+     * overwrite the pool snapshot of its successor.
+     */
+    private final class RebuildableClient<C extends AutoCloseable> {
+        private final String description;
+        private final Supplier<PoolMetricPublisher> newMetrics;
+        private final Function<PoolMetricPublisher, C> build;
+        private volatile Built<C> built;
+
+        private RebuildableClient(String description, Supplier<PoolMetricPublisher> newMetrics,
+                                  Function<PoolMetricPublisher, C> build) {
+            this.description = description;
+            this.newMetrics = newMetrics;
+            this.build = build;
+        }
+
+        private C get() {
+            String target = target();
+            Built<C> current = built;
+            if (current != null && target.equals(current.target)) {
+                return current.client;
+            }
+            rebuildLock.lock();
+            try {
+                current = built;
+                if (current == null || !target.equals(current.target)) {
+                    PoolMetricPublisher metrics = newMetrics.get();
+                    built = new Built<>(build.apply(metrics), target, metrics);
+                    clientRebuilds.incrementAndGet();
+                    LOGGER.info(description + " created for " + target);
+                    if (current != null) {
+                        drain(current.client);
+                    }
+                }
+                return built.client;
+            } finally {
+                rebuildLock.unlock();
+            }
+        }
+
+        private PoolMetricPublisher metrics() {
+            Built<C> current = built;
+            return current == null ? null : current.metrics;
+        }
+
+        private void close() {
+            Built<C> current = built;
+            if (current != null) {
+                try {
+                    current.client.close();
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "Failed to close " + description, e);
+                }
+            }
+        }
+    }
+
+    private static class Built<C> {
+        private final C client;
+        private final String target;
+        private final PoolMetricPublisher metrics;
+
+        Built(C client, String target, PoolMetricPublisher metrics) {
+            this.client = client;
+            this.target = target;
+            this.metrics = metrics;
+        }
+    }
+
+    public static class ReadReplica {
+        private final String name;
+        private final String region;
+        private final DynamoDbAsyncClient client;
+
+        ReadReplica(String name, String region, DynamoDbAsyncClient client) {
+            this.name = name;
+            this.region = region;
+            this.client = client;
+        }
+
+        /**
+         * The entry as configured, unique within the list.
+         */
+        public String getName() {
+            return name;
+        }
+
+        public String getRegion() {
+            return region;
+        }
+
+        public DynamoDbAsyncClient getClient() {
+            return client;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * Keeps the most recent connection pool snapshot reported by the SDK with each API call,
+     * and reports the duration of every API call and every attempt DynamoDB throttled, by
+     * operation.
+     */
+    private static class PoolMetricPublisher implements MetricPublisher {
+
+        // Value of CoreMetric.ERROR_TYPE for throttled attempts (SdkErrorType is SDK internal)
+        private static final String THROTTLING = "Throttling";
+
+        private final AtomicLong maxConcurrency = new AtomicLong();
+        private final AtomicLong leasedConcurrency = new AtomicLong();
+        private final AtomicLong availableConcurrency = new AtomicLong();
+        private final AtomicLong pendingAcquires = new AtomicLong();
+        private final BiConsumer<String, Duration> onCall;
+        private final Consumer<String> onThrottle;
+
+        PoolMetricPublisher(BiConsumer<String, Duration> onCall, Consumer<String> onThrottle) {
+            this.onCall = onCall;
+            this.onThrottle = onThrottle;
+        }
+
+        @Override
+        public void publish(MetricCollection metricCollection) {
+            publish(metricCollection, "unknown");
+        }
+
+        private void publish(MetricCollection metricCollection, String operation) {
+            Duration callDuration = null;
+            for (MetricRecord<?> record : metricCollection) {
+                if (record.metric() == HttpMetric.MAX_CONCURRENCY) {
+                    maxConcurrency.set(((Number) record.value()).longValue());
+                } else if (record.metric() == HttpMetric.LEASED_CONCURRENCY) {
+                    leasedConcurrency.set(((Number) record.value()).longValue());
+                } else if (record.metric() == HttpMetric.AVAILABLE_CONCURRENCY) {
+                    availableConcurrency.set(((Number) record.value()).longValue());
+                } else if (record.metric() == HttpMetric.PENDING_CONCURRENCY_ACQUIRES) {
+                    pendingAcquires.set(((Number) record.value()).longValue());
+                } else if (record.metric() == CoreMetric.OPERATION_NAME) {
+                    operation = (String) record.value();
+                } else if (record.metric() == CoreMetric.API_CALL_DURATION) {
+                    callDuration = (Duration) record.value();
+                } else if (record.metric() == CoreMetric.ERROR_TYPE && THROTTLING.equals(record.value())) {
+                    onThrottle.accept(operation);
+                }
+            }
+            if (callDuration != null) {
+                onCall.accept(operation, callDuration);
+            }
+            for (MetricCollection child : metricCollection.children()) {
+                publish(child, operation);
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -1,55 +1,91 @@
 import org.eclipse.microprofile.health.*;
-import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
-import software.amazon.awssdk.services.dynamodb.model.DescribeTableRequest;
-import software.amazon.awssdk.services.dynamodb.model.DescribeTableResponse;
-import software.amazon.awssdk.services.dynamodb.model.DynamoDbException;
+import software.amazon.awssdk.services.dynamodb.model.BillingMode;
 import software.amazon.awssdk.services.dynamodb.model.ProvisionedThroughputDescription;
+import software.amazon.awssdk.services.dynamodb.model.TableDescription;
+import software.amazon.awssdk.services.dynamodb.model.TableStatus;
 
 import javax.enterprise.context.ApplicationScoped;
 import javax.inject.Inject;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Readiness of the orders table, served from the status {@link TableHealthMonitor} refreshes
+ * in the background. The pod is not ready while the table status is unknown or older than
+ * {@code health.max-staleness-seconds}, while the table is not ACTIVE or UPDATING, or while the
+ * data-plane probe fails or is slower than {@code health.max-probe-latency-ms}.
+ * On-demand (PAY_PER_REQUEST) tables report 0 RCU/WCU, so the capacity check only applies to
+ * provisioned tables.
+ */
 @ApplicationScoped
-@Liveness
 @Readiness
 public class DynamoDbHealthCheck implements HealthCheck {
 
-    private DynamoDbClient dynamoDB;
-    private String REQUIRED_TABLE;
+    @Inject
+    private TableHealthMonitor tableHealthMonitor;
+
+    @Inject
+    private DynamoDbClientRegistry clientRegistry;
 
     @Inject
-    private ConfigProperties configProperties;
+    private OrdersConfigProperties ordersConfig;
 
     @Override
     public HealthCheckResponse call() {
-        this.dynamoDB = DynamoDbClient.builder()
-                .region(Region.of(configProperties.getDynamoRegion()))
-                .build();
-        this.REQUIRED_TABLE = configProperties.getTableName();
-        HealthCheckResponseBuilder responseBuilder = HealthCheckResponse.named("DynamoDB health check");
-        try {
-            DescribeTableResponse describeTableResponse = dynamoDB.describeTable(DescribeTableRequest.builder().tableName(REQUIRED_TABLE).build());
-            ProvisionedThroughputDescription throughput = describeTableResponse.table().provisionedThroughput();
+        String tableName = clientRegistry.tableName();
+        HealthCheckResponseBuilder responseBuilder = HealthCheckResponse.named("DynamoDB health check")
+                .withData("tableName", tableName);
+        long now = System.currentTimeMillis();
+        long maxStalenessMillis = TimeUnit.SECONDS.toMillis(ordersConfig.getHealthMaxStalenessSeconds());
+
+        TableDescription table = tableHealthMonitor.getTable();
+        if (table == null) {
+            return down(responseBuilder, "Status of table " + tableName + " not known yet");
+        }
+        long ageMillis = now - tableHealthMonitor.getDescribedAtMillis();
+        responseBuilder.withData("tableStatusAgeMs", ageMillis);
+        if (tableHealthMonitor.getDescribeError() != null) {
+            responseBuilder.withData("describeError", tableHealthMonitor.getDescribeError());
+        }
+        if (ageMillis > maxStalenessMillis) {
+            return down(responseBuilder, "Status of table " + tableName + " is stale");
+        }
 
+        TableStatus status = table.tableStatus();
+        responseBuilder.withData("tableStatus", String.valueOf(status));
+        if (status != TableStatus.ACTIVE && status != TableStatus.UPDATING) {
+            return down(responseBuilder, "Table " + tableName + " is not active");
+        }
+
+        boolean onDemand = table.billingModeSummary() != null
+                && table.billingModeSummary().billingMode() == BillingMode.PAY_PER_REQUEST;
+        responseBuilder.withData("billingMode", onDemand ? "PAY_PER_REQUEST" : "PROVISIONED");
+        if (!onDemand) {
+            ProvisionedThroughputDescription throughput = table.provisionedThroughput();
+            responseBuilder.withData("readCapacityUnits", throughput.readCapacityUnits())
+                    .withData("writeCapacityUnits", throughput.writeCapacityUnits());
             if (throughput.readCapacityUnits() < 1 || throughput.writeCapacityUnits() < 1) {
-                return responseBuilder.down()
-                        .withData("error", "Table " + REQUIRED_TABLE + " has insufficient read/write capacity")
-                        .withData("tableName", REQUIRED_TABLE)
-                        .withData("readCapacityUnits", throughput.readCapacityUnits())
-                        .withData("writeCapacityUnits", throughput.writeCapacityUnits())
-                        .build();
+                return down(responseBuilder, "Table " + tableName + " has insufficient read/write capacity");
             }
+        }
 
-            return responseBuilder.up()
-                    .withData("tableName", REQUIRED_TABLE)
-                    .withData("readCapacityUnits", throughput.readCapacityUnits())
-                    .withData("writeCapacityUnits", throughput.writeCapacityUnits())
-                    .build();
-        } catch (DynamoDbException e) {
-            return responseBuilder.down()
-                    .withData("error", "Table " + REQUIRED_TABLE + " does not exist or another error occurred")
-                    .withData("tableName", REQUIRED_TABLE)
-                    .build();
+        if (now - tableHealthMonitor.getProbedAtMillis() > maxStalenessMillis) {
+            return down(responseBuilder, "Data-plane probe of table " + tableName + " is stale");
+        }
+        if (tableHealthMonitor.getProbeError() != null) {
+            return down(responseBuilder, "Data-plane probe of table " + tableName + " failed: "
+                    + tableHealthMonitor.getProbeError());
         }
+        long latencyMillis = tableHealthMonitor.getProbeLatencyMillis();
+        responseBuilder.withData("probeLatencyMs", latencyMillis);
+        if (latencyMillis > ordersConfig.getHealthMaxProbeLatencyMs()) {
+            return down(responseBuilder, "Table " + tableName + " answers too slowly");
+        }
+        return responseBuilder.up().build();
+    }
+
+    private static HealthCheckResponse down(HealthCheckResponseBuilder responseBuilder, String error) {
+        return responseBuilder.down()
+                .withData("error", error)
+                .build();
     }
 }
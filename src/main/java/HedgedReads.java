@@ -0,0 +1,337 @@
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.Tag;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Order listing reads spread over the global table replicas of {@code aws-config.read-replicas}.
+ *
+ * <ul>
+ *     <li>Each read goes to the replica with the lowest latency EWMA. A replica without
+ *     samples counts as the fastest, so new replicas are tried.</li>
+ *     <li>When the read has not answered within {@code hedge.percentile} of recent first
+ *     attempts, a duplicate goes to the next best replica, or to the same one over a second
+ *     connection when only one is configured. The first answer wins and the other call is
+ *     cancelled.</li>
+ *     <li>Hedges are paid from a budget that every read tops up by
+ *     {@code hedge.budget-percent}, so hedging adds at most that share of load even when a
+ *     whole region is slow.</li>
+ * </ul>
+ *
+ * <p>Replicas are eventually consistent. For {@code hedge.sticky-after-write-ms} after a
+ * checkout or status change, the user's reads on the pod that took the write stay in the home
+ * region, so that pod never lists the user's orders without it. The writes are only known to
+ * that pod: a read on another pod may still go to a replica that has not caught up, and return
+ * a listing without the new order under the new ETag until the user's next write.
+ */
+@ApplicationScoped
+public class HedgedReads {
+
+    private static final int SAMPLES = 1024;
+    private static final int MIN_SAMPLES = 100;
+    private static final long MILLI_TOKENS = 1000;
+
+    @Inject
+    private DynamoDbClientRegistry clientRegistry;
+
+    @Inject
+    private ConfigProperties configProperties;
+
+    @Inject
+    private OrdersConfigProperties ordersConfig;
+
+    @Inject
+    private MetricRegistry registry;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "hedged-reads-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ConcurrentHashMap<String, ReplicaLatency> latencies = new ConcurrentHashMap<>();
+    private final AtomicLongArray samples = new AtomicLongArray(SAMPLES);
+    private final AtomicLong sampleCursor = new AtomicLong();
+    private volatile long hedgeDelayNanos = -1;
+    private final AtomicLong budget = new AtomicLong();
+
+    private final ReentrantLock writersLock = new ReentrantLock();
+    private final LinkedHashMap<String, Long> recentWriters = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LongAdder hedgesSent = new LongAdder();
+    private final LongAdder hedgesWon = new LongAdder();
+    private final LongAdder hedgesDenied = new LongAdder();
+
+    @PostConstruct
+    private void init() {
+        timer.scheduleWithFixedDelay(this::updateHedgeDelay, 1, 1, TimeUnit.SECONDS);
+    }
+
+    public boolean isEnabled() {
+        return ordersConfig.getHedgeEnabled() && !clientRegistry.readReplicas().isEmpty();
+    }
+
+    /**
+     * Keeps the user's reads in the home region until the replicas have caught up.
+     */
+    public void onWrite(String userId) {
+        if (!ordersConfig.getHedgeEnabled()) {
+            return;
+        }
+        long now = System.nanoTime();
+        int maxUsers = ordersConfig.getHedgeStickyMaxUsers();
+        writersLock.lock();
+        try {
+            recentWriters.put(userId, now);
+            while (recentWriters.size() > maxUsers) {
+                recentWriters.remove(recentWriters.keySet().iterator().next());
+            }
+        } finally {
+            writersLock.unlock();
+        }
+    }
+
+    private boolean wroteRecently(String userId) {
+        long stickyNanos = TimeUnit.MILLISECONDS.toNanos(ordersConfig.getHedgeStickyAfterWriteMs());
+        writersLock.lock();
+        try {
+            Long writtenAt = recentWriters.get(userId);
+            if (writtenAt == null) {
+                return false;
+            }
+            if (System.nanoTime() - writtenAt < stickyNanos) {
+                return true;
+            }
+            recentWriters.remove(userId);
+            return false;
+        } finally {
+            writersLock.unlock();
+        }
+    }
+
+    /**
+     * Runs {@code call} against the best replica for {@code userId}, hedged as described above.
+     */
+    public <T> CompletionStage<T> read(String userId, Function<DynamoDbAsyncClient, CompletableFuture<T>> call) {
+        List<DynamoDbClientRegistry.ReadReplica> replicas = clientRegistry.readReplicas();
+        DynamoDbClientRegistry.ReadReplica first = null;
+        DynamoDbClientRegistry.ReadReplica second = null;
+        if (wroteRecently(userId)) {
+            for (DynamoDbClientRegistry.ReadReplica replica : replicas) {
+                if (replica.getRegion().equals(configProperties.getDynamoRegion())) {
+                    first = replica;
+                    second = replica;
+                }
+            }
+        } else {
+            double firstLatency = Double.MAX_VALUE;
+            double secondLatency = Double.MAX_VALUE;
+            for (DynamoDbClientRegistry.ReadReplica replica : replicas) {
+                double latency = latency(replica).ewmaNanos();
+                if (latency < firstLatency) {
+                    second = first;
+                    secondLatency = firstLatency;
+                    first = replica;
+                    firstLatency = latency;
+                } else if (latency < secondLatency) {
+                    second = replica;
+                    secondLatency = latency;
+                }
+            }
+            if (second == null) {
+                second = first;
+            }
+        }
+
+        long budgetCap = (long) (ordersConfig.getHedgeBudgetBurst() * MILLI_TOKENS);
+        long deposit = (long) (ordersConfig.getHedgeBudgetPercent() / 100 * MILLI_TOKENS);
+        budget.accumulateAndGet(deposit, (current, added) -> Math.min(budgetCap, current + added));
+
+        Hedge<T> hedge = new Hedge<>();
+        hedge.attempt(first, call, true);
+        long delay = hedgeDelayNanos >= 0 ? hedgeDelayNanos : TimeUnit.MILLISECONDS.toNanos(ordersConfig.getHedgeMaxDelayMs());
+        DynamoDbClientRegistry.ReadReplica hedgeReplica = second;
+        ScheduledFuture<?> hedgeTimer = timer.schedule(() -> {
+            if (hedge.result.isDone()) {
+                return;
+            }
+            if (!withdraw()) {
+                hedgesDenied.increment();
+                return;
+            }
+            hedgesSent.increment();
+            hedge.attempt(hedgeReplica, call, false);
+        }, delay, TimeUnit.NANOSECONDS);
+        hedge.result.whenComplete((response, e) -> hedgeTimer.cancel(false));
+        return hedge.result;
+    }
+
+    private boolean withdraw() {
+        while (true) {
+            long current = budget.get();
+            if (current < MILLI_TOKENS) {
+                return false;
+            }
+            if (budget.compareAndSet(current, current - MILLI_TOKENS)) {
+                return true;
+            }
+        }
+    }
+
+    private ReplicaLatency latency(DynamoDbClientRegistry.ReadReplica replica) {
+        return latencies.computeIfAbsent(replica.getName(), name -> {
+            ReplicaLatency latency = new ReplicaLatency();
+            registerLatencyGauge(name, () -> latency.ewmaNanos() / 1_000_000);
+            return latency;
+        });
+    }
+
+    void registerLatencyGauge(String replica, org.eclipse.microprofile.metrics.Gauge<Double> latencyMs) {
+        registry.register(Metadata.builder()
+                .withName("dynamoReplicaLatencyEwma")
+                .withDescription("Latency EWMA of order reads per DynamoDB read replica")
+                .withType(MetricType.GAUGE)
+                .withUnit(MetricUnits.MILLISECONDS)
+                .build(), latencyMs, new Tag("replica", replica));
+    }
+
+    private void updateHedgeDelay() {
+        long count = Math.min(sampleCursor.get(), SAMPLES);
+        if (count < MIN_SAMPLES) {
+            return;
+        }
+        long[] recent = new long[(int) count];
+        for (int i = 0; i < recent.length; i++) {
+            recent[i] = samples.get(i);
+        }
+        Arrays.sort(recent);
+        int index = (int) Math.min(recent.length - 1, Math.ceil(ordersConfig.getHedgePercentile() / 100 * recent.length) - 1);
+        long min = TimeUnit.MILLISECONDS.toNanos(ordersConfig.getHedgeMinDelayMs());
+        long max = TimeUnit.MILLISECONDS.toNanos(ordersConfig.getHedgeMaxDelayMs());
+        hedgeDelayNanos = Math.max(min, Math.min(max, recent[Math.max(0, index)]));
+    }
+
+    @PreDestroy
+    private void close() {
+        timer.shutdownNow();
+    }
+
+    @Gauge(name = "hedgedReadsSent", unit = MetricUnits.NONE, description = "Duplicate order reads sent because the first attempt was slow")
+    public long getHedgesSent() {
+        return hedgesSent.sum();
+    }
+
+    @Gauge(name = "hedgedReadsWon", unit = MetricUnits.NONE, description = "Duplicate order reads that answered before the first attempt")
+    public long getHedgesWon() {
+        return hedgesWon.sum();
+    }
+
+    @Gauge(name = "hedgedReadsDenied", unit = MetricUnits.NONE, description = "Duplicate order reads skipped because the hedge budget was spent")
+    public long getHedgesDenied() {
+        return hedgesDenied.sum();
+    }
+
+    @Gauge(name = "hedgeDelay", unit = MetricUnits.MILLISECONDS, description = "Current delay before a slow order read is hedged")
+    public long getHedgeDelay() {
+        long delay = hedgeDelayNanos;
+        return delay >= 0 ? TimeUnit.NANOSECONDS.toMillis(delay) : ordersConfig.getHedgeMaxDelayMs();
+    }
+
+    /**
+     * One read and its hedge. The first successful attempt completes the result; it only fails
+     * once every attempt started so far has failed.
+     */
+    private class Hedge<T> {
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final AtomicInteger pending = new AtomicInteger();
+
+        private void attempt(DynamoDbClientRegistry.ReadReplica replica, Function<DynamoDbAsyncClient, CompletableFuture<T>> call,
+                             boolean first) {
+            pending.incrementAndGet();
+            long start = System.nanoTime();
+            CompletableFuture<T> response;
+            try {
+                response = call.apply(replica.getClient());
+            } catch (RuntimeException e) {
+                response = new CompletableFuture<>();
+                response.completeExceptionally(e);
+            }
+            response.whenComplete((value, e) -> {
+                long elapsed = System.nanoTime() - start;
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                if (first) {
+                    samples.set((int) (sampleCursor.getAndIncrement() % SAMPLES), elapsed);
+                }
+                if (cause instanceof CancellationException) {
+                    // Lost to the other attempt: at least this slow
+                    latency(replica).update(elapsed, ordersConfig.getHedgeEwmaAlpha());
+                    return;
+                }
+                latency(replica).update(cause == null ? elapsed : errorPenaltyNanos(elapsed), ordersConfig.getHedgeEwmaAlpha());
+                if (cause == null) {
+                    if (result.complete(value) && !first) {
+                        hedgesWon.increment();
+                    }
+                } else if (pending.decrementAndGet() == 0) {
+                    result.completeExceptionally(cause);
+                }
+            });
+            CompletableFuture<T> attempt = response;
+            result.whenComplete((value, e) -> attempt.cancel(true));
+        }
+    }
+
+    /**
+     * A failed call ranks like one that ran into the socket timeout.
+     */
+    private long errorPenaltyNanos(long elapsed) {
+        return Math.max(elapsed, TimeUnit.MILLISECONDS.toNanos(configProperties.getSocketTimeoutMs()));
+    }
+
+    private static class ReplicaLatency {
+        private final AtomicLong ewmaBits = new AtomicLong(Double.doubleToLongBits(0));
+        private volatile boolean sampled;
+
+        private double ewmaNanos() {
+            return Double.longBitsToDouble(ewmaBits.get());
+        }
+
+        private void update(long nanos, double alpha) {
+            while (true) {
+                long current = ewmaBits.get();
+                double ewma = Double.longBitsToDouble(current);
+                double next = sampled ? ewma + alpha * (nanos - ewma) : nanos;
+                if (ewmaBits.compareAndSet(current, Double.doubleToLongBits(next))) {
+                    sampled = true;
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+import com.auth0.jwk.Jwk;
+import com.auth0.jwk.JwkException;
+import com.auth0.jwk.SigningKeyNotFoundException;
+import com.auth0.jwk.UrlJwkProvider;
+
+import java.net.URL;
+import java.security.PublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Signing keys of one issuer's JWKS document, shared by all verifications.
+ *
+ * <p>Keys are refreshed ahead of time: once they are older than {@link #REFRESH_AFTER_MS} a
+ * background refresh is started while the current keys keep being served, and only after
+ * {@link #EXPIRE_AFTER_MS} does a caller wait for the fetch (stale keys are still used if that
+ * fetch fails). An unknown {@code kid} usually means the issuer rotated its keys and triggers
+ * an immediate refetch.
+ *
+ * <p>Every kind of fetch, ahead of time, on expiry or for an unknown {@code kid}, starts at
+ * most once per {@link #MIN_REFETCH_INTERVAL_MS}, so tokens with made up key ids cannot be
+ * used to hammer the issuer. After a failed fetch that interval doubles with every further
+ * failure, up to {@link #MAX_BACKOFF_MS}.
+ */
+public class JwksKeyCache {
+
+    private static final Logger LOGGER = Logger.getLogger(JwksKeyCache.class.getName());
+
+    static final long REFRESH_AFTER_MS = TimeUnit.MINUTES.toMillis(10);
+    static final long EXPIRE_AFTER_MS = TimeUnit.HOURS.toMillis(1);
+    static final long MIN_REFETCH_INTERVAL_MS = TimeUnit.SECONDS.toMillis(30);
+    static final long MAX_BACKOFF_MS = TimeUnit.MINUTES.toMillis(10);
+
+    private static final int CONNECT_TIMEOUT_MS = 2000;
+    private static final int READ_TIMEOUT_MS = 2000;
+
+    private static final ExecutorService REFRESHER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "jwks-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final UrlJwkProvider provider;
+    private final ReentrantLock fetchLock = new ReentrantLock();
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    private volatile Map<String, RSAPublicKey> keys = Collections.emptyMap();
+    private volatile long loadedAt;
+    private volatile long nextFetchAt;
+    private int failures;
+
+    /**
+     * Loads the keys from {@code jwksUrl}; a {@code file:} URL serves a local JWKS document,
+     * e.g. to run without access to the issuer.
+     */
+    public JwksKeyCache(URL jwksUrl) {
+        this(new UrlJwkProvider(jwksUrl, CONNECT_TIMEOUT_MS, READ_TIMEOUT_MS));
+    }
+
+    /**
+     * Loads the keys through {@code provider}, e.g. a subclass that serves a fixed key set.
+     */
+    public JwksKeyCache(UrlJwkProvider provider) {
+        this.provider = provider;
+    }
+
+    public RSAPublicKey get(String keyId) throws JwkException {
+        long now = System.currentTimeMillis();
+        if (now - loadedAt > EXPIRE_AFTER_MS && now >= nextFetchAt) {
+            fetch(loadedAt, true);
+        } else if (now - loadedAt > REFRESH_AFTER_MS && now >= nextFetchAt) {
+            refreshAhead();
+        }
+
+        RSAPublicKey key = keys.get(keyId);
+        if (key == null && System.currentTimeMillis() >= nextFetchAt) {
+            LOGGER.info("Unknown key id " + keyId + ", refetching JWKS");
+            fetch(loadedAt, false);
+            key = keys.get(keyId);
+        }
+        if (key == null) {
+            throw new SigningKeyNotFoundException("No key found for kid " + keyId, null);
+        }
+        return key;
+    }
+
+    /**
+     * Loads the keys unless they already are, e.g. before the first token arrives.
+     *
+     * @throws JwkException if there are no keys and the fetch failed
+     */
+    public void prefetch() throws JwkException {
+        if (keys.isEmpty()) {
+            fetch(loadedAt, true);
+        }
+    }
+
+    private void refreshAhead() {
+        if (refreshing.compareAndSet(false, true)) {
+            long seenLoadedAt = loadedAt;
+            REFRESHER.execute(() -> {
+                try {
+                    fetch(seenLoadedAt, false);
+                } catch (JwkException e) {
+                    LOGGER.log(Level.WARNING, "Background JWKS refresh failed, keeping current keys", e);
+                } finally {
+                    refreshing.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Fetches the key set unless another thread already replaced the keys seen by the caller.
+     */
+    private void fetch(long seenLoadedAt, boolean failWithoutKeys) throws JwkException {
+        fetchLock.lock();
+        try {
+            if (loadedAt != seenLoadedAt || System.currentTimeMillis() < nextFetchAt) {
+                return;
+            }
+            nextFetchAt = System.currentTimeMillis() + MIN_REFETCH_INTERVAL_MS;
+            Map<String, RSAPublicKey> fetched = new HashMap<>();
+            List<Jwk> jwks = provider.getAll();
+            for (Jwk jwk : jwks) {
+                PublicKey publicKey = jwk.getPublicKey();
+                if (jwk.getId() != null && publicKey instanceof RSAPublicKey) {
+                    fetched.put(jwk.getId(), (RSAPublicKey) publicKey);
+                }
+            }
+            keys = Collections.unmodifiableMap(fetched);
+            loadedAt = System.currentTimeMillis();
+            failures = 0;
+        } catch (JwkException | RuntimeException e) {
+            failures++;
+            nextFetchAt = System.currentTimeMillis()
+                    + Math.min(MAX_BACKOFF_MS, MIN_REFETCH_INTERVAL_MS << Math.min(failures - 1, 20));
+            if (failWithoutKeys && keys.isEmpty()) {
+                throw e;
+            }
+            LOGGER.log(Level.WARNING, "JWKS fetch failed, serving previously loaded keys", e);
+        } finally {
+            fetchLock.unlock();
+        }
+    }
+}
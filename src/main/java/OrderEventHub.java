@@ -0,0 +1,245 @@
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.sse.OutboundSseEvent;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Fans order events out to the users' server-sent event streams on this pod.
+ *
+ * <p>Every subscriber has a queue of {@code events.queue-capacity} events, drained by a small
+ * sender pool. Publishing never waits: a subscriber whose queue is full is evicted and its
+ * stream closed, so one slow client cannot hold back the others or pile up memory. The client
+ * reconnects and fetches the listing again. Heartbeat comments keep idle streams open through
+ * proxies and also evict clients that stopped reading.
+ */
+@ApplicationScoped
+public class OrderEventHub {
+
+    private static final Logger LOGGER = Logger.getLogger(OrderEventHub.class.getName());
+
+    @Inject
+    private OrdersConfigProperties ordersConfig;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, List<Subscriber>> subscribers = new HashMap<>();
+    private int subscriberCount;
+
+    private ExecutorService senders;
+    private final ScheduledExecutorService heartbeats = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "order-events-heartbeat");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    @PostConstruct
+    private void init() {
+        senders = Executors.newFixedThreadPool(ordersConfig.getEventsSenderThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "order-events-sender");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long heartbeat = ordersConfig.getEventsHeartbeatSeconds();
+        heartbeats.scheduleWithFixedDelay(this::heartbeat, heartbeat, heartbeat, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Registers a stream of {@code userId}. A user's oldest stream is closed once the user has
+     * more than {@code events.max-streams-per-user}.
+     */
+    public void subscribe(String userId, SseEventSink sink, Sse sse) {
+        Subscriber subscriber = new Subscriber(userId, sink, sse, ordersConfig.getEventsQueueCapacity());
+        Subscriber oldest = null;
+        lock.lock();
+        try {
+            List<Subscriber> streams = subscribers.computeIfAbsent(userId, id -> new ArrayList<>());
+            if (streams.size() >= ordersConfig.getEventsMaxStreamsPerUser()) {
+                oldest = streams.remove(0);
+                subscriberCount--;
+            }
+            streams.add(subscriber);
+            subscriberCount++;
+        } finally {
+            lock.unlock();
+        }
+        if (oldest != null) {
+            close(oldest);
+        }
+        // Sends the response headers right away, so the client knows it is subscribed
+        offer(subscriber, sse.newEventBuilder().comment("subscribed").build());
+    }
+
+    /**
+     * Queues an event for every stream of {@code userId} on this pod.
+     */
+    public void publish(String userId, String name, String id, String json) {
+        List<Subscriber> targets;
+        lock.lock();
+        try {
+            List<Subscriber> streams = subscribers.get(userId);
+            if (streams == null) {
+                return;
+            }
+            targets = new ArrayList<>(streams);
+        } finally {
+            lock.unlock();
+        }
+        for (Subscriber subscriber : targets) {
+            offer(subscriber, subscriber.sse.newEventBuilder()
+                    .name(name)
+                    .id(id)
+                    .mediaType(MediaType.APPLICATION_JSON_TYPE)
+                    .data(String.class, json)
+                    .build());
+        }
+    }
+
+    private void heartbeat() {
+        List<Subscriber> all = new ArrayList<>();
+        lock.lock();
+        try {
+            for (List<Subscriber> streams : subscribers.values()) {
+                all.addAll(streams);
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (Subscriber subscriber : all) {
+            if (subscriber.sink.isClosed()) {
+                remove(subscriber);
+            } else {
+                offer(subscriber, subscriber.sse.newEventBuilder().comment("").build());
+            }
+        }
+    }
+
+    private void offer(Subscriber subscriber, OutboundSseEvent event) {
+        if (!subscriber.queue.offer(event)) {
+            LOGGER.fine("Evicting a slow order event stream");
+            evicted.increment();
+            remove(subscriber);
+            return;
+        }
+        if (subscriber.draining.compareAndSet(false, true)) {
+            senders.execute(() -> drain(subscriber));
+        }
+    }
+
+    private void drain(Subscriber subscriber) {
+        while (true) {
+            OutboundSseEvent event = subscriber.queue.poll();
+            if (event == null) {
+                subscriber.draining.set(false);
+                // An event offered after the poll but before the flag was cleared
+                if (subscriber.queue.isEmpty() || !subscriber.draining.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+            try {
+                subscriber.sink.send(event).toCompletableFuture()
+                        .get(ordersConfig.getEventsSendTimeoutMs(), TimeUnit.MILLISECONDS);
+                if (event.getName() != null) {
+                    delivered.increment();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Order event stream closed", e);
+                remove(subscriber);
+                return;
+            }
+        }
+    }
+
+    private void remove(Subscriber subscriber) {
+        lock.lock();
+        try {
+            List<Subscriber> streams = subscribers.get(subscriber.userId);
+            if (streams != null && streams.remove(subscriber)) {
+                subscriberCount--;
+                if (streams.isEmpty()) {
+                    subscribers.remove(subscriber.userId);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        close(subscriber);
+    }
+
+    private static void close(Subscriber subscriber) {
+        subscriber.queue.clear();
+        try {
+            subscriber.sink.close();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.FINE, "Failed to close an order event stream", e);
+        }
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        heartbeats.shutdownNow();
+        senders.shutdownNow();
+    }
+
+    @Gauge(name = "orderEventStreams", unit = MetricUnits.NONE, description = "Open order event streams on this pod")
+    public long getStreams() {
+        lock.lock();
+        try {
+            return subscriberCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Gauge(name = "orderEventsDelivered", unit = MetricUnits.NONE, description = "Order events sent to event streams")
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    @Gauge(name = "orderEventStreamsEvicted", unit = MetricUnits.NONE, description = "Event streams closed because the client did not keep up")
+    public long getEvicted() {
+        return evicted.sum();
+    }
+
+    private static class Subscriber {
+        private final String userId;
+        private final SseEventSink sink;
+        private final Sse sse;
+        private final BlockingQueue<OutboundSseEvent> queue;
+        private final AtomicBoolean draining = new AtomicBoolean();
+
+        private Subscriber(String userId, SseEventSink sink, Sse sse, int capacity) {
+            this.userId = userId;
+            this.sink = sink;
+            this.sse = sse;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+    }
+}
@@ -0,0 +1,310 @@
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonWriter;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+import javax.annotation.PostConstruct;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Full-table order export for reporting, streamed as NDJSON (optionally gzip compressed).
+ *
+ * <p>The table is read with a parallel {@code Scan} over {@code TotalSegments} segments by a
+ * bounded pool of workers. Workers hand pages to the response writer through a small bounded
+ * queue, so a slow client stalls the scan instead of filling the heap. Read throughput is
+ * limited by a read capacity budget shared by all exports ({@code export.max-read-units-per-second}).
+ *
+ * <p>After every page the stream carries a {@code {"checkpoint": "..."}} line: a signed token
+ * with the position of each segment covering exactly the rows written before it. Passing the
+ * last checkpoint back resumes an interrupted export without duplicates or gaps.
+ */
+@ApplicationScoped
+public class OrderExporter {
+
+    private static final Logger LOGGER = Logger.getLogger(OrderExporter.class.getName());
+    private static final String CHECKPOINT_TYPE = "export";
+    private static final Object SEGMENT_DONE = new Object();
+
+    @Inject
+    private DynamoDbClientRegistry clientRegistry;
+
+    @Inject
+    private OrdersConfigProperties ordersConfig;
+
+    @Inject
+    private PageTokenCodec pageTokenCodec;
+
+    @Inject
+    private RequestMetrics requestMetrics;
+
+    private final CapacityBudget readBudget = new CapacityBudget();
+    private final AtomicLong rowsExported = new AtomicLong();
+    private final AtomicLong readUnitsConsumed = new AtomicLong();
+    private Semaphore exports;
+
+    @PostConstruct
+    private void init() {
+        exports = new Semaphore(ordersConfig.getExportMaxConcurrent());
+    }
+
+    /**
+     * Starting positions of a new export over {@code segments} segments.
+     */
+    public ExportPosition start(int segments) {
+        if (segments < 1 || segments > ordersConfig.getExportMaxSegments()) {
+            throw new IllegalArgumentException("segments must be between 1 and " + ordersConfig.getExportMaxSegments() + ".");
+        }
+        return new ExportPosition(new Object[segments]);
+    }
+
+    /**
+     * Positions stored in a checkpoint token.
+     *
+     * @throws IllegalArgumentException if the token is not a valid export checkpoint
+     */
+    public ExportPosition resume(String checkpoint) {
+        JsonObject payload = pageTokenCodec.open(checkpoint);
+        if (!payload.has("x") || !CHECKPOINT_TYPE.equals(payload.get("x").getAsString())) {
+            throw new IllegalArgumentException("Invalid checkpoint.");
+        }
+        JsonArray positions = payload.getAsJsonArray("s");
+        if (positions == null || positions.size() < 1 || positions.size() > ordersConfig.getExportMaxSegments()) {
+            throw new IllegalArgumentException("Invalid checkpoint.");
+        }
+        Object[] segments = new Object[positions.size()];
+        for (int i = 0; i < segments.length; i++) {
+            JsonElement position = positions.get(i);
+            if (position.isJsonPrimitive()) {
+                segments[i] = SEGMENT_DONE;
+            } else if (position.isJsonObject()) {
+                segments[i] = AttributeValueJson.fromJsonObject(position.getAsJsonObject());
+            }
+        }
+        return new ExportPosition(segments);
+    }
+
+    /**
+     * Reserves one of the {@code export.max-concurrent} export slots; the slot is released when
+     * the returned output has been written.
+     *
+     * @return the response body, or {@code null} if all slots are taken
+     */
+    public StreamingOutput open(ExportPosition position, boolean gzip) {
+        if (!exports.tryAcquire()) {
+            return null;
+        }
+        return output -> {
+            try {
+                OutputStream target = gzip ? new GZIPOutputStream(output, 64 * 1024) : output;
+                Writer writer = new BufferedWriter(new OutputStreamWriter(target, StandardCharsets.UTF_8), 64 * 1024);
+                write(position, writer);
+                writer.flush();
+                if (target instanceof GZIPOutputStream) {
+                    ((GZIPOutputStream) target).finish();
+                }
+            } finally {
+                exports.release();
+            }
+        };
+    }
+
+    private void write(ExportPosition position, Writer writer) throws IOException {
+        Object[] segments = position.segments;
+        int pending = 0;
+        for (Object segment : segments) {
+            if (segment != SEGMENT_DONE) {
+                pending++;
+            }
+        }
+        long rows = 0;
+        if (pending == 0) {
+            writer.write("{\"done\":true,\"rows\":0}\n");
+            return;
+        }
+
+        int workers = Math.min(pending, ordersConfig.getExportMaxWorkers());
+        BlockingQueue<Object> pages = new ArrayBlockingQueue<>(workers * 2);
+        ExecutorService scanners = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "order-export");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            for (int segment = 0; segment < segments.length; segment++) {
+                if (segments[segment] != SEGMENT_DONE) {
+                    int current = segment;
+                    @SuppressWarnings("unchecked")
+                    Map<String, AttributeValue> startKey = (Map<String, AttributeValue>) segments[segment];
+                    scanners.execute(() -> scan(current, segments.length, startKey, pages));
+                }
+            }
+
+            while (pending > 0) {
+                Object next = pages.take();
+                if (next instanceof ScanFailure) {
+                    ScanFailure failure = (ScanFailure) next;
+                    LOGGER.log(Level.WARNING, "Export scan of segment " + failure.segment + " failed", failure.cause);
+                    JsonObject error = new JsonObject();
+                    error.addProperty("error", "Scan of segment " + failure.segment + " failed, resume from the checkpoint.");
+                    error.addProperty("checkpoint", checkpoint(segments));
+                    writer.write(error.toString());
+                    writer.write('\n');
+                    return;
+                }
+                Page page = (Page) next;
+                for (Map<String, AttributeValue> item : page.items) {
+                    AttributeValueJson.writePlain(new JsonWriter(writer), item);
+                    writer.write('\n');
+                }
+                rows += page.items.size();
+                rowsExported.addAndGet(page.items.size());
+                if (page.lastEvaluatedKey == null) {
+                    segments[page.segment] = SEGMENT_DONE;
+                    pending--;
+                } else {
+                    segments[page.segment] = page.lastEvaluatedKey;
+                }
+                JsonObject checkpoint = new JsonObject();
+                checkpoint.addProperty("checkpoint", checkpoint(segments));
+                writer.write(checkpoint.toString());
+                writer.write('\n');
+                writer.flush();
+            }
+            writer.write("{\"done\":true,\"rows\":" + rows + "}\n");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Export interrupted");
+        } finally {
+            // Also reached when the client went away: stop scanning for nobody
+            scanners.shutdownNow();
+        }
+    }
+
+    private void scan(int segment, int totalSegments, Map<String, AttributeValue> startKey, BlockingQueue<Object> pages) {
+        Map<String, AttributeValue> expressionAttributeValues = new HashMap<>();
+        expressionAttributeValues.put(":stats", AttributeValue.builder().s(OrderStatistics.PARTITION_PREFIX).build());
+        expressionAttributeValues.put(":version", AttributeValue.builder().s(OrderVersionStore.PARTITION_PREFIX).build());
+        expressionAttributeValues.put(":stream", AttributeValue.builder().s(OrderStreamConsumer.PARTITION_PREFIX).build());
+        Map<String, AttributeValue> exclusiveStartKey = startKey;
+        try {
+            do {
+                readBudget.awaitCredit(ordersConfig.getExportMaxReadUnitsPerSecond());
+                ScanResponse response = clientRegistry.backgroundClient().scan(ScanRequest.builder()
+                        .tableName(clientRegistry.tableName())
+                        .segment(segment)
+                        .totalSegments(totalSegments)
+                        .limit(ordersConfig.getExportPageSize())
+                        .filterExpression("NOT begins_with(UserId, :stats) AND NOT begins_with(UserId, :version)"
+                                + " AND NOT begins_with(UserId, :stream)")
+                        .expressionAttributeValues(expressionAttributeValues)
+                        .exclusiveStartKey(exclusiveStartKey)
+                        .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                        .build());
+                requestMetrics.recordCapacity("Scan", response.consumedCapacity());
+                if (response.consumedCapacity() != null && response.consumedCapacity().capacityUnits() != null) {
+                    double units = response.consumedCapacity().capacityUnits();
+                    readBudget.consume(units, ordersConfig.getExportMaxReadUnitsPerSecond());
+                    readUnitsConsumed.addAndGet((long) Math.ceil(units));
+                }
+                exclusiveStartKey = response.hasLastEvaluatedKey() ? response.lastEvaluatedKey() : null;
+                pages.put(new Page(segment, response.items(), exclusiveStartKey));
+            } while (exclusiveStartKey != null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            try {
+                pages.put(new ScanFailure(segment, e));
+            } catch (InterruptedException interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private String checkpoint(Object[] segments) {
+        JsonArray positions = new JsonArray();
+        for (Object segment : segments) {
+            if (segment == SEGMENT_DONE) {
+                positions.add(new JsonPrimitive("done"));
+            } else if (segment == null) {
+                positions.add(JsonNull.INSTANCE);
+            } else {
+                @SuppressWarnings("unchecked")
+                Map<String, AttributeValue> key = (Map<String, AttributeValue>) segment;
+                positions.add(AttributeValueJson.toJsonObject(key));
+            }
+        }
+        JsonObject payload = new JsonObject();
+        payload.addProperty("x", CHECKPOINT_TYPE);
+        payload.add("s", positions);
+        return pageTokenCodec.seal(payload);
+    }
+
+    @Gauge(name = "orderExportRows", unit = MetricUnits.NONE, description = "Order rows written by exports")
+    public long getRowsExported() {
+        return rowsExported.get();
+    }
+
+    @Gauge(name = "orderExportReadUnits", unit = MetricUnits.NONE, description = "Read capacity units consumed by exports")
+    public long getReadUnitsConsumed() {
+        return readUnitsConsumed.get();
+    }
+
+    @Gauge(name = "orderExportsActive", unit = MetricUnits.NONE, description = "Exports currently streaming")
+    public long getExportsActive() {
+        return ordersConfig.getExportMaxConcurrent() - exports.availablePermits();
+    }
+
+    /**
+     * Where each segment of an export stands: {@code null} for not started, a start key, or done.
+     */
+    public static class ExportPosition {
+        private final Object[] segments;
+
+        private ExportPosition(Object[] segments) {
+            this.segments = segments;
+        }
+
+        public int getSegments() {
+            return segments.length;
+        }
+    }
+
+    private static class Page {
+        private final int segment;
+        private final List<Map<String, AttributeValue>> items;
+        private final Map<String, AttributeValue> lastEvaluatedKey;
+
+        private Page(int segment, List<Map<String, AttributeValue>> items, Map<String, AttributeValue> lastEvaluatedKey) {
+            this.segment = segment;
+            this.items = items;
+            this.lastEvaluatedKey = lastEvaluatedKey;
+        }
+    }
+
+    private static class ScanFailure {
+        private final int segment;
+        private final RuntimeException cause;
+
+        private ScanFailure(int segment, RuntimeException cause) {
+            this.segment = segment;
+            this.cause = cause;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The order attributes a listing returns, chosen with the {@code fields} query parameter.
+ * Only attributes on the allow-list can be selected. Each selection is compiled once into a
+ * DynamoDB projection expression and its attribute names, so a summary view reads and
+ * returns only what it shows.
+ *
+ * <p>A selection is a bit mask over the allow-list, so all 512 possible selections are cached
+ * in a fixed array no matter how the parameter is spelled.
+ */
+public final class OrderFieldSet {
+
+    private static final List<String> ALLOWED = Collections.unmodifiableList(Arrays.asList(
+            "Name", "Surname", "TimeStamp", "TotalPrice", "OrderStatus", "OrderList", "Email", "Address", "TelNumber"));
+    private static final int ALL_MASK = (1 << ALLOWED.size()) - 1;
+    private static final AtomicReferenceArray<OrderFieldSet> COMPILED = new AtomicReferenceArray<>(ALL_MASK + 1);
+
+    public static final OrderFieldSet ALL = compiled(ALL_MASK);
+
+    private final int mask;
+    private final String projectionExpression;
+    private final Map<String, String> expressionAttributeNames;
+
+    private OrderFieldSet(int mask) {
+        this.mask = mask;
+        StringBuilder projection = new StringBuilder();
+        Map<String, String> names = new HashMap<>();
+        for (int i = 0; i < ALLOWED.size(); i++) {
+            if ((mask & (1 << i)) != 0) {
+                // Placeholders for every attribute, since Name and TimeStamp are reserved words
+                String placeholder = "#f" + i;
+                names.put(placeholder, ALLOWED.get(i));
+                projection.append(projection.length() == 0 ? "" : ", ").append(placeholder);
+            }
+        }
+        this.projectionExpression = projection.toString();
+        this.expressionAttributeNames = Collections.unmodifiableMap(names);
+    }
+
+    /**
+     * Parses a comma separated list of attribute names; {@code null} or empty selects all.
+     *
+     * @throws IllegalArgumentException if a name is not on the allow-list
+     */
+    public static OrderFieldSet parse(String fields) {
+        if (fields == null || fields.trim().isEmpty()) {
+            return ALL;
+        }
+        int mask = 0;
+        for (String field : fields.split(",")) {
+            int index = ALLOWED.indexOf(field.trim());
+            if (index < 0) {
+                throw new IllegalArgumentException("fields may only contain " + String.join(", ", ALLOWED) + ".");
+            }
+            mask |= 1 << index;
+        }
+        return compiled(mask);
+    }
+
+    private static OrderFieldSet compiled(int mask) {
+        OrderFieldSet fieldSet = COMPILED.get(mask);
+        if (fieldSet == null) {
+            COMPILED.compareAndSet(mask, null, new OrderFieldSet(mask));
+            fieldSet = COMPILED.get(mask);
+        }
+        return fieldSet;
+    }
+
+    public boolean contains(String attributeName) {
+        int index = ALLOWED.indexOf(attributeName);
+        return index >= 0 && (mask & (1 << index)) != 0;
+    }
+
+    public String getProjectionExpression() {
+        return projectionExpression;
+    }
+
+    /**
+     * The placeholders used by {@link #getProjectionExpression()}; a fresh map, so the caller
+     * can add its own names.
+     */
+    public Map<String, String> getExpressionAttributeNames() {
+        return new HashMap<>(expressionAttributeNames);
+    }
+
+    @Override
+    public String toString() {
+        return Integer.toHexString(mask);
+    }
+}
@@ -0,0 +1,339 @@
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.eclipse.microprofile.metrics.Histogram;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.Timer;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+import org.eclipse.microprofile.metrics.annotation.Metric;
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Group commit for order writes. Concurrent checkouts are queued, collected for up to
+ * {@code linger-ms} (or until {@code max-batch-size} items, at most 25) and written with a single
+ * {@code BatchWriteItem}; {@code UnprocessedItems} are retried with exponential backoff and
+ * jitter. Each caller's stage completes once its own item is stored, or, with
+ * {@code ack-on-journal}, as soon as it is in the local journal. The writes are unconditional,
+ * so checkouts with an idempotency key bypass the writer, see {@link OrderRepository#putOrder}.
+ *
+ * <p>Every accepted item is appended to an {@link OrderJournal} first and committed after the
+ * batch that contained it succeeded, so items still queued when the process dies are written
+ * on the next start. That needs the journal to outlive the container: the deployment keeps it
+ * in an emptyDir volume, which survives container restarts but not the pod being deleted.
+ */
+@ApplicationScoped
+public class OrderGroupCommitWriter {
+
+    private static final Logger LOGGER = Logger.getLogger(OrderGroupCommitWriter.class.getName());
+    private static final int DYNAMO_BATCH_LIMIT = 25;
+    private static final long BASE_BACKOFF_MS = 25;
+    private static final long MAX_BACKOFF_MS = 2000;
+
+    @Inject
+    private OrdersConfigProperties ordersConfig;
+
+    @Inject
+    private DynamoDbClientRegistry clientRegistry;
+
+    @Inject
+    private RequestMetrics requestMetrics;
+
+    @Inject
+    private ConcurrencyLimiter concurrencyLimiter;
+
+    @Inject
+    @Metric(name = "groupCommitBatchSize", description = "Items per BatchWriteItem flush")
+    private Histogram batchSize;
+
+    @Inject
+    @Metric(name = "groupCommitLinger", description = "Time the oldest item of a batch waited before the flush started")
+    private Timer lingerTime;
+
+    @Inject
+    @Metric(name = "groupCommitFlushLatency", description = "Time to store a batch, including UnprocessedItems retries")
+    private Timer flushLatency;
+
+    private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+    private OrderJournal journal;
+    private ExecutorService flushers;
+    private Thread collector;
+    private volatile boolean running;
+
+    @PostConstruct
+    private void init() {
+        if (!ordersConfig.getGroupCommitEnabled()) {
+            return;
+        }
+        try {
+            journal = new OrderJournal(ordersConfig.getGroupCommitJournalPath(),
+                    ordersConfig.getGroupCommitJournalSizeMb() * 1024 * 1024,
+                    ordersConfig.getGroupCommitJournalForce());
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to open the order journal", e);
+        }
+
+        Map<Long, String> uncommitted = journal.uncommitted();
+        for (Map.Entry<Long, String> entry : uncommitted.entrySet()) {
+            JsonObject record = JsonParser.parseString(entry.getValue()).getAsJsonObject();
+            queue.add(new PendingWrite(record.get("table").getAsString(),
+                    AttributeValueJson.fromJsonObject(record.getAsJsonObject("item")), entry.getKey()));
+        }
+        if (!uncommitted.isEmpty()) {
+            LOGGER.warning("Replaying " + uncommitted.size() + " journaled order writes that were not confirmed before shutdown");
+        }
+
+        int concurrency = ordersConfig.getGroupCommitFlushConcurrency();
+        flushers = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(concurrency * 2), runnable -> {
+            Thread thread = new Thread(runnable, "group-commit-flush");
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+        running = true;
+        collector = new Thread(this::collect, "group-commit-collector");
+        collector.setDaemon(true);
+        collector.start();
+    }
+
+    public boolean isEnabled() {
+        return running;
+    }
+
+    public CompletionStage<Void> write(String tableName, Map<String, AttributeValue> item) {
+        JsonObject record = new JsonObject();
+        record.addProperty("table", tableName);
+        record.add("item", AttributeValueJson.toJsonObject(item));
+        long seq;
+        try {
+            seq = journal.append(record.toString());
+        } catch (IOException e) {
+            CompletableFuture<Void> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        PendingWrite write = new PendingWrite(tableName, item, seq);
+        queue.add(write);
+        if (ordersConfig.getGroupCommitAckOnJournal()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return write.done;
+    }
+
+    private void collect() {
+        int maxBatch = Math.min(DYNAMO_BATCH_LIMIT, ordersConfig.getGroupCommitMaxBatchSize());
+        while (running) {
+            try {
+                PendingWrite first = queue.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                List<PendingWrite> batch = new ArrayList<>(maxBatch);
+                batch.add(first);
+                long deadline = first.enqueuedAt + TimeUnit.MILLISECONDS.toNanos(ordersConfig.getGroupCommitLingerMs());
+                while (batch.size() < maxBatch) {
+                    long remaining = deadline - System.nanoTime();
+                    PendingWrite next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                lingerTime.update(System.nanoTime() - first.enqueuedAt, TimeUnit.NANOSECONDS);
+                batchSize.update(batch.size());
+                flushers.execute(() -> flush(batch));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Group commit collector failed", e);
+            }
+        }
+    }
+
+    private void flush(List<PendingWrite> batch) {
+        long started = System.nanoTime();
+        // A batch may not hold two writes of one order, which a retried checkout can queue
+        // twice; the last one is sent and completes all of them
+        Map<String, List<PendingWrite>> byKey = new LinkedHashMap<>();
+        Map<String, PendingWrite> latest = new LinkedHashMap<>();
+        for (PendingWrite write : batch) {
+            String key = key(write.tableName, write.item);
+            byKey.computeIfAbsent(key, k -> new ArrayList<>()).add(write);
+            latest.put(key, write);
+        }
+        Map<String, List<WriteRequest>> requestItems = new HashMap<>();
+        for (PendingWrite write : latest.values()) {
+            requestItems.computeIfAbsent(write.tableName, table -> new ArrayList<>())
+                    .add(WriteRequest.builder().putRequest(PutRequest.builder().item(write.item).build()).build());
+        }
+
+        int maxAttempts = ordersConfig.getGroupCommitMaxAttempts();
+        try {
+            for (int attempt = 1; !requestItems.isEmpty(); attempt++) {
+                BatchWriteItemResponse response = clientRegistry.client().batchWriteItem(BatchWriteItemRequest.builder()
+                        .requestItems(requestItems)
+                        .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                        .build());
+                requestMetrics.recordCapacity("BatchWriteItem", response.consumedCapacity());
+                Map<String, List<WriteRequest>> unprocessed = response.hasUnprocessedItems()
+                        ? response.unprocessedItems()
+                        : Collections.emptyMap();
+                complete(byKey, unprocessed);
+                requestItems = unprocessed;
+                if (requestItems.isEmpty()) {
+                    break;
+                }
+                // Unprocessed items are DynamoDB throttling the batch without an error
+                concurrencyLimiter.onThrottle("BatchWriteItem");
+                if (attempt >= maxAttempts) {
+                    throw new IllegalStateException(countItems(requestItems) + " items still unprocessed after " + attempt + " attempts");
+                }
+                long backoff = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << Math.min(attempt - 1, 16));
+                Thread.sleep(ThreadLocalRandom.current().nextLong(backoff / 2, backoff + 1));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(byKey, e, true);
+        } catch (DynamoDbException e) {
+            LOGGER.log(Level.SEVERE, "Group commit flush failed", e);
+            fail(byKey, e, !isValidationError(e));
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Group commit flush failed", e);
+            fail(byKey, e, true);
+        } finally {
+            flushLatency.update(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Completes every write of the batch that is not in {@code unprocessed}.
+     */
+    private void complete(Map<String, List<PendingWrite>> byKey, Map<String, List<WriteRequest>> unprocessed) {
+        Set<String> unprocessedKeys = new HashSet<>();
+        for (Map.Entry<String, List<WriteRequest>> entry : unprocessed.entrySet()) {
+            for (WriteRequest request : entry.getValue()) {
+                unprocessedKeys.add(key(entry.getKey(), request.putRequest().item()));
+            }
+        }
+        Iterator<Map.Entry<String, List<PendingWrite>>> writes = byKey.entrySet().iterator();
+        while (writes.hasNext()) {
+            Map.Entry<String, List<PendingWrite>> entry = writes.next();
+            if (unprocessedKeys.contains(entry.getKey())) {
+                continue;
+            }
+            writes.remove();
+            for (PendingWrite write : entry.getValue()) {
+                commit(write);
+                write.done.complete(null);
+            }
+        }
+    }
+
+    /**
+     * Fails the writes left in {@code byKey}. With {@code ack-on-journal} retryable failures are
+     * queued again; a request DynamoDB rejects as invalid never succeeds, so it is dropped from
+     * the journal and logged instead of being retried forever.
+     */
+    private void fail(Map<String, List<PendingWrite>> byKey, Throwable cause, boolean retryable) {
+        boolean requeue = retryable && ordersConfig.getGroupCommitAckOnJournal();
+        if (requeue && !byKey.isEmpty()) {
+            try {
+                // Do not spin against a table that keeps rejecting the writes
+                Thread.sleep(MAX_BACKOFF_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (List<PendingWrite> writes : byKey.values()) {
+            for (PendingWrite write : writes) {
+                if (requeue) {
+                    // The caller was already told the order is stored, so keep trying
+                    queue.add(new PendingWrite(write.tableName, write.item, write.seq));
+                    continue;
+                }
+                if (ordersConfig.getGroupCommitAckOnJournal()) {
+                    LOGGER.severe("Dropping acknowledged order write " + key(write.tableName, write.item)
+                            + " rejected by DynamoDB: " + cause.getMessage());
+                }
+                // The caller sees the failure and may retry, so the record must not be replayed later
+                commit(write);
+                write.done.completeExceptionally(cause);
+            }
+        }
+    }
+
+    private void commit(PendingWrite write) {
+        try {
+            journal.commit(write.seq);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to commit journal record " + write.seq, e);
+        }
+    }
+
+    private static boolean isValidationError(DynamoDbException e) {
+        return e.awsErrorDetails() != null && "ValidationException".equals(e.awsErrorDetails().errorCode());
+    }
+
+    private static String key(String tableName, Map<String, AttributeValue> item) {
+        return tableName + '|' + item.get("UserId").s() + '|' + item.get("HashKey").s();
+    }
+
+    private static int countItems(Map<String, List<WriteRequest>> requestItems) {
+        int count = 0;
+        for (List<WriteRequest> requests : requestItems.values()) {
+            count += requests.size();
+        }
+        return count;
+    }
+
+    @Gauge(name = "groupCommitQueueDepth", unit = MetricUnits.NONE, description = "Order writes waiting for the next group commit")
+    public long getQueueDepth() {
+        return queue.size();
+    }
+
+    @Gauge(name = "groupCommitJournalPending", unit = MetricUnits.NONE, description = "Journaled order writes not yet confirmed by DynamoDB")
+    public long getJournalPending() {
+        return journal == null ? 0 : journal.pendingCount();
+    }
+
+    @PreDestroy
+    private void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        collector.interrupt();
+        flushers.shutdown();
+        try {
+            flushers.awaitTermination(10, TimeUnit.SECONDS);
+            journal.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to close the order journal", e);
+        }
+    }
+
+    private static class PendingWrite {
+        private final String tableName;
+        private final Map<String, AttributeValue> item;
+        private final long seq;
+        private final long enqueuedAt = System.nanoTime();
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private PendingWrite(String tableName, Map<String, AttributeValue> item, long seq) {
+            this.tableName = tableName;
+            this.item = item;
+            this.seq = seq;
+        }
+    }
+}
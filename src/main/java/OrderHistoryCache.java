@@ -0,0 +1,191 @@
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded cache of rendered order pages (UTF-8 JSON), keyed by user. Users are evicted in LRU
+ * order once either the user count or the total weight (approximate heap bytes of the cached
+ * bodies) goes over its limit, and every page expires after the configured TTL.
+ *
+ * <p>Checkout invalidates the user's entry. A read that started before the invalidation must
+ * not put its (now stale) page back, so callers take a {@link #version(String)} before they
+ * query and hand it to {@link #put}; the put is dropped when the version moved in between.
+ */
+@ApplicationScoped
+public class OrderHistoryCache {
+
+    private static final int VERSION_STRIPES = 64;
+    private static final long ENTRY_OVERHEAD_BYTES = 64;
+
+    @Inject
+    private OrdersConfigProperties ordersConfig;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, UserEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final AtomicLongArray versions = new AtomicLongArray(VERSION_STRIPES);
+    private long totalWeight;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public boolean isEnabled() {
+        return ordersConfig.getCacheEnabled();
+    }
+
+    public long version(String userId) {
+        return versions.get(stripe(userId));
+    }
+
+    public byte[] get(String userId, String pageKey) {
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            UserEntry entry = entries.get(userId);
+            CachedPage page = entry == null ? null : entry.pages.get(pageKey);
+            if (page != null && page.expiresAt - now <= 0) {
+                entry.pages.remove(pageKey);
+                entry.weight -= page.weight;
+                totalWeight -= page.weight;
+                page = null;
+            }
+            if (page == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            hits.incrementAndGet();
+            return page.body;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void put(String userId, String pageKey, byte[] body, long version) {
+        long expiresAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(ordersConfig.getCacheTtlSeconds());
+        long weight = weigh(pageKey, body);
+        lock.lock();
+        try {
+            if (versions.get(stripe(userId)) != version) {
+                return;
+            }
+            UserEntry entry = entries.get(userId);
+            if (entry == null) {
+                entry = new UserEntry();
+                entries.put(userId, entry);
+            }
+            CachedPage previous = entry.pages.put(pageKey, new CachedPage(body, weight, expiresAt));
+            if (previous != null) {
+                entry.weight -= previous.weight;
+                totalWeight -= previous.weight;
+            }
+            entry.weight += weight;
+            totalWeight += weight;
+            evict();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void invalidate(String userId) {
+        lock.lock();
+        try {
+            versions.incrementAndGet(stripe(userId));
+            UserEntry entry = entries.remove(userId);
+            if (entry != null) {
+                totalWeight -= entry.weight;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void evict() {
+        int maxUsers = ordersConfig.getCacheMaxUsers();
+        long maxWeight = ordersConfig.getCacheMaxWeightBytes();
+        Iterator<UserEntry> eldest = entries.values().iterator();
+        while ((entries.size() > maxUsers || totalWeight > maxWeight) && eldest.hasNext()) {
+            UserEntry entry = eldest.next();
+            eldest.remove();
+            totalWeight -= entry.weight;
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static long weigh(String pageKey, byte[] body) {
+        // UTF-8 body bytes and UTF-16 key chars, plus a rough allowance for the entry and map node objects
+        return body.length + 2L * pageKey.length() + ENTRY_OVERHEAD_BYTES;
+    }
+
+    private static int stripe(String userId) {
+        return (userId.hashCode() & Integer.MAX_VALUE) % VERSION_STRIPES;
+    }
+
+    @Gauge(name = "orderCacheHitRatio", unit = MetricUnits.NONE, description = "Share of order page reads served from the cache")
+    public double getHitRatio() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return total == 0 ? 0.0 : (double) hitCount / total;
+    }
+
+    @Gauge(name = "orderCacheHits", unit = MetricUnits.NONE, description = "Order page reads served from the cache")
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Gauge(name = "orderCacheMisses", unit = MetricUnits.NONE, description = "Order page reads that missed the cache")
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Gauge(name = "orderCacheEvictions", unit = MetricUnits.NONE, description = "Users evicted from the order cache because of size or weight limits")
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Gauge(name = "orderCacheUsers", unit = MetricUnits.NONE, description = "Users currently held in the order cache")
+    public long getUsers() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Gauge(name = "orderCacheWeight", unit = MetricUnits.BYTES, description = "Approximate heap used by cached order pages")
+    public long getWeight() {
+        lock.lock();
+        try {
+            return totalWeight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static class UserEntry {
+        private final Map<String, CachedPage> pages = new HashMap<>();
+        private long weight;
+    }
+
+    private static class CachedPage {
+        private final byte[] body;
+        private final long weight;
+        private final long expiresAt;
+
+        private CachedPage(byte[] body, long weight, long expiresAt) {
+            this.body = body;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, memory-mapped journal of order writes that were accepted but not yet confirmed
+ * by DynamoDB. Every write is appended as a PUT record and followed by a COMMIT record once it
+ * is stored; whatever has a PUT without a COMMIT after a restart has to be written again.
+ *
+ * <p>Records are {@code [int length][int crc32][byte type][long seq][payload]} followed by a zero
+ * length terminator. The journal uses two segments: when the active one is full, the pending
+ * records are copied into the other one, which then becomes active, and the old segment is
+ * cleared. When the pending records would not fit, appends fail instead, until enough of
+ * them are committed. Records in the page cache survive a process crash; set {@code force} to
+ * also survive a node crash, at the cost of an msync per append.
+ */
+public class OrderJournal implements Closeable {
+
+    private static final byte PUT = 1;
+    private static final byte COMMIT = 2;
+    private static final int HEADER_BYTES = 4 + 4 + 1 + 8;
+
+    private final FileChannel[] channels = new FileChannel[2];
+    private final MappedByteBuffer[] segments = new MappedByteBuffer[2];
+    private final boolean force;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // Payloads that have no COMMIT yet, needed to carry them over on segment switch
+    private final Map<Long, byte[]> pending = new LinkedHashMap<>();
+    private int active;
+    private long nextSeq = 1;
+
+    public OrderJournal(String path, int segmentBytes, boolean force) throws IOException {
+        this.force = force;
+        Path base = Paths.get(path);
+        if (base.getParent() != null) {
+            Files.createDirectories(base.getParent());
+        }
+        for (int i = 0; i < 2; i++) {
+            channels[i] = FileChannel.open(Paths.get(path + "." + i),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            segments[i] = channels[i].map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+        recover();
+    }
+
+    /**
+     * Payloads of writes that were journaled but never committed, in append order.
+     */
+    public Map<Long, String> uncommitted() {
+        lock.lock();
+        try {
+            Map<Long, String> uncommitted = new LinkedHashMap<>();
+            for (Map.Entry<Long, byte[]> entry : pending.entrySet()) {
+                uncommitted.put(entry.getKey(), new String(entry.getValue(), StandardCharsets.UTF_8));
+            }
+            return uncommitted;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long append(String payload) throws IOException {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        lock.lock();
+        try {
+            long seq = nextSeq++;
+            write(PUT, seq, bytes);
+            pending.put(seq, bytes);
+            return seq;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void commit(long seq) throws IOException {
+        lock.lock();
+        try {
+            if (pending.remove(seq) != null) {
+                write(COMMIT, seq, new byte[0]);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int pendingCount() {
+        lock.lock();
+        try {
+            return pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (FileChannel channel : channels) {
+            channel.close();
+        }
+    }
+
+    private void write(byte type, long seq, byte[] payload) throws IOException {
+        int recordBytes = HEADER_BYTES + payload.length;
+        if (segments[active].remaining() < recordBytes + 4) {
+            switchSegment();
+            if (segments[active].remaining() < recordBytes + 4) {
+                throw new IOException("Order journal is full, " + pending.size() + " writes pending");
+            }
+        }
+        writeRecord(segments[active], type, seq, payload);
+        if (force) {
+            segments[active].force();
+        }
+    }
+
+    /**
+     * Moves the pending records to the other segment. Refuses, leaving both segments as they
+     * are, when they do not all fit: dropping any of them would lose an accepted write.
+     */
+    private void switchSegment() throws IOException {
+        int next = 1 - active;
+        MappedByteBuffer target = segments[next];
+        long needed = 4;
+        for (byte[] payload : pending.values()) {
+            needed += HEADER_BYTES + payload.length;
+        }
+        if (needed > target.capacity()) {
+            throw new IOException("Order journal is full, " + pending.size() + " writes pending");
+        }
+        target.clear();
+        target.putInt(0, 0);
+        for (Map.Entry<Long, byte[]> entry : pending.entrySet()) {
+            writeRecord(target, PUT, entry.getKey(), entry.getValue());
+        }
+        target.force();
+
+        MappedByteBuffer previous = segments[active];
+        previous.clear();
+        previous.putInt(0, 0);
+        previous.force();
+        active = next;
+    }
+
+    private static void writeRecord(MappedByteBuffer segment, byte type, long seq, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(longBytes(seq));
+        crc.update(payload);
+
+        int start = segment.position();
+        segment.position(start + 4);
+        segment.putInt((int) crc.getValue());
+        segment.put(type);
+        segment.putLong(seq);
+        segment.put(payload);
+        int end = segment.position();
+        segment.putInt(end, 0);
+        // Publish the length last so a torn record is never read back as complete
+        segment.putInt(start, HEADER_BYTES + payload.length);
+    }
+
+    private void recover() throws IOException {
+        Map<Long, byte[]> puts = new TreeMap<>();
+        Map<Long, Boolean> commits = new TreeMap<>();
+        int[] ends = new int[2];
+        for (int i = 0; i < 2; i++) {
+            MappedByteBuffer segment = segments[i];
+            segment.clear();
+            while (segment.remaining() >= HEADER_BYTES) {
+                int start = segment.position();
+                int length = segment.getInt();
+                if (length < HEADER_BYTES || length > segment.capacity() - start) {
+                    break;
+                }
+                int storedCrc = segment.getInt();
+                byte type = segment.get();
+                long seq = segment.getLong();
+                byte[] payload = new byte[length - HEADER_BYTES];
+                segment.get(payload);
+
+                CRC32 crc = new CRC32();
+                crc.update(type);
+                crc.update(longBytes(seq));
+                crc.update(payload);
+                if ((int) crc.getValue() != storedCrc) {
+                    break;
+                }
+                if (type == PUT) {
+                    puts.put(seq, payload);
+                } else if (type == COMMIT) {
+                    commits.put(seq, Boolean.TRUE);
+                }
+                nextSeq = Math.max(nextSeq, seq + 1);
+                ends[i] = segment.position();
+            }
+        }
+        for (Map.Entry<Long, byte[]> put : puts.entrySet()) {
+            if (!commits.containsKey(put.getKey())) {
+                pending.put(put.getKey(), put.getValue());
+            }
+        }
+
+        // Continue in the segment that was written last, or start over if both are empty
+        active = ends[1] > 0 && ends[0] == 0 ? 1 : 0;
+        segments[active].position(ends[active]);
+        segments[1 - active].clear();
+        if (ends[0] > 0 && ends[1] > 0) {
+            // Crashed during a segment switch: consolidate the pending records into one segment
+            segments[active].position(ends[active]);
+            switchSegment();
+        }
+    }
+
+    private static byte[] longBytes(long value) {
+        byte[] bytes = new byte[8];
+        for (int i = 7; i >= 0; i--) {
+            bytes[i] = (byte) value;
+            value >>>= 8;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,103 @@
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One line of an order. Checkout parses and validates the submitted {@code orderListStr} once
+ * and stores the lines as a native DynamoDB list of maps
+ * ({@code L: [{M: {productName: S, quantity: N}}]}); rows written before that keep the JSON
+ * string, and {@link #read(AttributeValue)} accepts both.
+ */
+public class OrderLine {
+
+    private final String productName;
+    private final int quantity;
+
+    public OrderLine(String productName, int quantity) {
+        this.productName = productName;
+        this.quantity = quantity;
+    }
+
+    public String getProductName() {
+        return productName;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    /**
+     * Parses a checkout's {@code orderListStr}, a JSON array of {@code {productName, quantity}}
+     * objects where quantity may be a number or a numeric string.
+     *
+     * @throws IllegalArgumentException if the list is malformed, empty or has an invalid line
+     */
+    public static List<OrderLine> parseList(String orderListStr) {
+        if (orderListStr == null) {
+            throw new IllegalArgumentException("Order list is missing.");
+        }
+        List<OrderLine> lines = new ArrayList<>();
+        try {
+            for (JsonElement element : JsonParser.parseString(orderListStr).getAsJsonArray()) {
+                JsonObject line = element.getAsJsonObject();
+                JsonElement productName = line.get("productName");
+                JsonElement quantity = line.get("quantity");
+                if (productName == null || productName.isJsonNull() || productName.getAsString().isEmpty()) {
+                    throw new IllegalArgumentException("Order line without productName.");
+                }
+                if (quantity == null || quantity.isJsonNull()) {
+                    throw new IllegalArgumentException("Order line without quantity.");
+                }
+                int parsedQuantity = Integer.parseInt(quantity.getAsString().trim());
+                if (parsedQuantity <= 0) {
+                    throw new IllegalArgumentException("Order line quantity must be positive.");
+                }
+                lines.add(new OrderLine(productName.getAsString(), parsedQuantity));
+            }
+        } catch (JsonParseException | IllegalStateException | UnsupportedOperationException e) {
+            throw new IllegalArgumentException("Order list is not a JSON array of order lines.", e);
+        }
+        if (lines.isEmpty()) {
+            throw new IllegalArgumentException("Order list is empty.");
+        }
+        return lines;
+    }
+
+    public static AttributeValue toAttributeValue(List<OrderLine> lines) {
+        List<AttributeValue> list = new ArrayList<>(lines.size());
+        for (OrderLine line : lines) {
+            Map<String, AttributeValue> map = new HashMap<>();
+            map.put("productName", AttributeValue.builder().s(line.productName).build());
+            map.put("quantity", AttributeValue.builder().n(Integer.toString(line.quantity)).build());
+            list.add(AttributeValue.builder().m(map).build());
+        }
+        return AttributeValue.builder().l(list).build();
+    }
+
+    /**
+     * Reads a stored OrderList in either format: the native list, or the JSON string of rows
+     * written before the native format existed.
+     */
+    public static List<OrderLine> read(AttributeValue orderList) {
+        if (orderList.hasL()) {
+            List<OrderLine> lines = new ArrayList<>(orderList.l().size());
+            for (AttributeValue element : orderList.l()) {
+                Map<String, AttributeValue> line = element.m();
+                lines.add(new OrderLine(line.get("productName").s(), Integer.parseInt(line.get("quantity").n())));
+            }
+            return lines;
+        }
+        if (orderList.s() != null) {
+            return parseList(orderList.s());
+        }
+        return Collections.emptyList();
+    }
+}
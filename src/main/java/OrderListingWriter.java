@@ -0,0 +1,152 @@
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes an order listing straight from the DynamoDB items to the response stream with a
+ * single {@link JsonWriter}, without building per-item maps or the whole body as a String.
+ * OrderList is read from the native list attribute ({@link OrderLine}) or, for older rows,
+ * token by token from the stored JSON string, and emitted as a real JSON array, or as the old
+ * JSON-in-a-string shape when {@code orderListAsString} is set.
+ *
+ * <p>The output matches {@link ResponseTransformer#transformOrderItem} followed by
+ * {@link ResponseTransformer#formatOrderTimestamp}: string and number attributes are written
+ * as strings and OrderList lines only keep productName and quantity.
+ */
+public class OrderListingWriter implements StreamingOutput {
+
+    private final List<Map<String, AttributeValue>> items;
+    private final Integer totalPages;
+    private final String nextToken;
+    private final boolean orderListAsString;
+    private final OrderFieldSet fields;
+
+    public OrderListingWriter(List<Map<String, AttributeValue>> items, Integer totalPages, String nextToken,
+                              boolean orderListAsString) {
+        this(items, totalPages, nextToken, orderListAsString, OrderFieldSet.ALL);
+    }
+
+    /**
+     * @param fields attributes to write; any other attribute of the items is skipped
+     */
+    public OrderListingWriter(List<Map<String, AttributeValue>> items, Integer totalPages, String nextToken,
+                              boolean orderListAsString, OrderFieldSet fields) {
+        this.items = items;
+        this.totalPages = totalPages;
+        this.nextToken = nextToken;
+        this.orderListAsString = orderListAsString;
+        this.fields = fields;
+    }
+
+    @Override
+    public void write(OutputStream output) throws IOException {
+        JsonWriter json = new JsonWriter(new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8)));
+        json.beginObject();
+        json.name("orders").beginArray();
+        for (Map<String, AttributeValue> item : items) {
+            writeOrder(json, item);
+        }
+        json.endArray();
+        if (totalPages != null) {
+            json.name("totalPages").value(totalPages);
+        }
+        if (nextToken != null) {
+            json.name("nextToken").value(nextToken);
+        }
+        json.endObject();
+        json.flush();
+    }
+
+    public byte[] toBytes() {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(256 + 512 * items.size());
+        try {
+            write(buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toByteArray();
+    }
+
+    private void writeOrder(JsonWriter json, Map<String, AttributeValue> item) throws IOException {
+        json.beginObject();
+        for (Map.Entry<String, AttributeValue> entry : item.entrySet()) {
+            String name = entry.getKey();
+            AttributeValue value = entry.getValue();
+            if (!fields.contains(name)) {
+                continue;
+            }
+            if (name.equals("OrderList")) {
+                json.name(name);
+                if (orderListAsString) {
+                    StringWriter orderList = new StringWriter(256);
+                    writeOrderList(new JsonWriter(orderList), value);
+                    json.value(orderList.toString());
+                } else {
+                    writeOrderList(json, value);
+                }
+            } else if (value.s() != null) {
+                if (name.equals("TimeStamp")) {
+                    json.name(name).value(ResponseTransformer.formatTimestamp(value.s()));
+                } else {
+                    json.name(name).value(value.s());
+                }
+            } else if (value.n() != null) {
+                json.name(name).value(value.n());
+            }
+        }
+        json.endObject();
+    }
+
+    private static void writeOrderList(JsonWriter json, AttributeValue orderList) throws IOException {
+        if (orderList.s() != null) {
+            writeOrderList(json, orderList.s());
+            return;
+        }
+        json.beginArray();
+        if (orderList.hasL()) {
+            for (AttributeValue element : orderList.l()) {
+                Map<String, AttributeValue> line = element.m();
+                json.beginObject()
+                        .name("productName").value(line.get("productName").s())
+                        .name("quantity").value(line.get("quantity").n())
+                        .endObject();
+            }
+        }
+        json.endArray();
+    }
+
+    private static void writeOrderList(JsonWriter json, String orderListStr) throws IOException {
+        JsonReader reader = new JsonReader(new StringReader(orderListStr));
+        json.beginArray();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String productName = null;
+            String quantity = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String field = reader.nextName();
+                if (field.equals("productName") && reader.peek() != JsonToken.NULL) {
+                    productName = reader.nextString();
+                } else if (field.equals("quantity") && reader.peek() != JsonToken.NULL) {
+                    quantity = reader.nextString();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            json.beginObject()
+                    .name("productName").value(productName)
+                    .name("quantity").value(quantity)
+                    .endObject();
+        }
+        reader.endArray();
+        json.endArray();
+    }
+}
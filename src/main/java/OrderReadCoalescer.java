@@ -0,0 +1,132 @@
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Single-flight for order reads: concurrent identical listings (same user, same page key)
+ * share one DynamoDB read and one rendered {@link OrderListingWriter}, which is immutable and
+ * can be written to any number of responses.
+ *
+ * <p>Flights are kept in lock stripes chosen by user, so unrelated users rarely contend and
+ * {@link #forget(String)} only has to look at one stripe. A flight is removed before it
+ * completes, so its result is never handed to a request that arrives afterwards.
+ */
+@ApplicationScoped
+public class OrderReadCoalescer {
+
+    private static final int STRIPES = 64;
+
+    @Inject
+    private OrdersConfigProperties ordersConfig;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    public OrderReadCoalescer() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Joins the flight for {@code userId} and {@code pageKey}, or starts it with {@code read}.
+     */
+    public CompletionStage<OrderListingWriter> read(String userId, String pageKey,
+                                                   Supplier<CompletionStage<OrderListingWriter>> read) {
+        if (!ordersConfig.getCoalescingEnabled()) {
+            return read.get();
+        }
+        Stripe stripe = stripes[stripe(userId)];
+        String key = userId + '\0' + pageKey;
+        CompletableFuture<OrderListingWriter> flight;
+        stripe.lock.lock();
+        try {
+            flight = stripe.flights.get(key);
+            if (flight != null) {
+                coalesced.increment();
+                return flight;
+            }
+            flight = new CompletableFuture<>();
+            stripe.flights.put(key, flight);
+        } finally {
+            stripe.lock.unlock();
+        }
+        executed.increment();
+
+        CompletionStage<OrderListingWriter> listing;
+        try {
+            listing = read.get();
+        } catch (RuntimeException e) {
+            CompletableFuture<OrderListingWriter> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            listing = failed;
+        }
+        CompletableFuture<OrderListingWriter> started = flight;
+        listing.whenComplete((writer, e) -> {
+            stripe.lock.lock();
+            try {
+                // forget() may already have replaced it with a newer flight
+                stripe.flights.remove(key, started);
+            } finally {
+                stripe.lock.unlock();
+            }
+            if (e != null) {
+                started.completeExceptionally(e);
+            } else {
+                started.complete(writer);
+            }
+        });
+        return started;
+    }
+
+    /**
+     * Detaches the user's flights, so reads after a checkout do not join a read that started
+     * before it. The detached flights still complete for the requests already waiting on them.
+     */
+    public void forget(String userId) {
+        Stripe stripe = stripes[stripe(userId)];
+        String prefix = userId + '\0';
+        stripe.lock.lock();
+        try {
+            Iterator<String> keys = stripe.flights.keySet().iterator();
+            while (keys.hasNext()) {
+                if (keys.next().startsWith(prefix)) {
+                    keys.remove();
+                }
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    private static int stripe(String userId) {
+        return (userId.hashCode() & Integer.MAX_VALUE) % STRIPES;
+    }
+
+    @Gauge(name = "orderReadsExecuted", unit = MetricUnits.NONE, description = "Order reads that went to DynamoDB")
+    public long getExecuted() {
+        return executed.sum();
+    }
+
+    @Gauge(name = "orderReadsCoalesced", unit = MetricUnits.NONE, description = "Order reads that joined an identical read already in flight")
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    private static class Stripe {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Map<String, CompletableFuture<OrderListingWriter>> flights = new HashMap<>();
+    }
+}
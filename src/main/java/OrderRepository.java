@@ -0,0 +1,556 @@
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * DynamoDB access for the orders table. Every operation returns a {@link CompletionStage}:
+ * with orders-config.async-io enabled the calls go through {@code DynamoDbAsyncClient} and
+ * never block the caller, otherwise the pooled synchronous client is called through
+ * {@link BlockingIoExecutor}.
+ *
+ * <p>Every request asks for {@code ReturnConsumedCapacity}; the units are recorded per
+ * operation in {@link RequestMetrics} along with the time spent in the {@code dynamodb} stage.
+ */
+@ApplicationScoped
+public class OrderRepository {
+
+    public static final String STATUS_TIME = "StatusTime";
+
+    @Inject
+    private DynamoDbClientRegistry clientRegistry;
+
+    @Inject
+    private OrdersConfigProperties ordersConfig;
+
+    @Inject
+    private OrderGroupCommitWriter groupCommitWriter;
+
+    @Inject
+    private BlockingIoExecutor blockingIo;
+
+    @Inject
+    private RequestMetrics requestMetrics;
+
+    @Inject
+    private HedgedReads hedgedReads;
+
+    /**
+     * Reads up to {@code limit} orders starting after {@code exclusiveStartKey}, with only the
+     * attributes in {@code fields}. Follows {@code LastEvaluatedKey} when DynamoDB stops early at
+     * its 1 MB response limit.
+     */
+    public CompletionStage<OrderPage> fetchPage(String userId, Map<String, AttributeValue> exclusiveStartKey, int limit,
+                                                OrderFieldSet fields) {
+        Map<String, AttributeValue> expressionAttributeValues = new HashMap<>();
+        expressionAttributeValues.put(":v_userId", AttributeValue.builder().s(userId).build());
+
+        QueryRequest.Builder query = QueryRequest.builder()
+                .tableName(clientRegistry.tableName())
+                .keyConditionExpression("UserId = :v_userId")
+                .expressionAttributeValues(expressionAttributeValues)
+                .projectionExpression(fields.getProjectionExpression())
+                .expressionAttributeNames(fields.getExpressionAttributeNames())
+                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+        return fetchPage(userId, query, exclusiveStartKey, limit, new ArrayList<>());
+    }
+
+    /**
+     * Reads up to {@code limit} orders newest first through the time index, or through the
+     * status index when {@code filter} has a status. The day range and the status are key
+     * conditions, so only the returned orders are read.
+     */
+    public CompletionStage<OrderPage> fetchRecentPage(String userId, TimeFilter filter,
+                                                     Map<String, AttributeValue> exclusiveStartKey, int limit,
+                                                     OrderFieldSet fields) {
+        Map<String, AttributeValue> expressionAttributeValues = new HashMap<>();
+        expressionAttributeValues.put(":v_userId", AttributeValue.builder().s(userId).build());
+        Map<String, String> expressionAttributeNames = fields.getExpressionAttributeNames();
+
+        String keyCondition = "UserId = :v_userId";
+        String indexName;
+        if (filter.getStatus() != null) {
+            indexName = ordersConfig.getTimeIndexStatusName();
+            // Days are compared as prefixes of the ISO-8601 UTC timestamps
+            String from = statusTime(filter.getStatus(), filter.getFrom() != null ? filter.getFrom().toString() : "");
+            String to = statusTime(filter.getStatus(), filter.getTo() != null ? filter.getTo().plusDays(1).toString() : "\uffff");
+            expressionAttributeValues.put(":from", AttributeValue.builder().s(from).build());
+            expressionAttributeValues.put(":to", AttributeValue.builder().s(to).build());
+            keyCondition += " AND " + STATUS_TIME + " BETWEEN :from AND :to";
+        } else {
+            indexName = ordersConfig.getTimeIndexName();
+            if (filter.getFrom() != null) {
+                expressionAttributeValues.put(":from", AttributeValue.builder().s(filter.getFrom().toString()).build());
+            }
+            if (filter.getTo() != null) {
+                expressionAttributeValues.put(":to", AttributeValue.builder().s(filter.getTo().plusDays(1).toString()).build());
+            }
+            if (filter.getFrom() != null || filter.getTo() != null) {
+                expressionAttributeNames.put("#T", "TimeStamp");
+            }
+            if (filter.getFrom() != null && filter.getTo() != null) {
+                keyCondition += " AND #T BETWEEN :from AND :to";
+            } else if (filter.getFrom() != null) {
+                keyCondition += " AND #T >= :from";
+            } else if (filter.getTo() != null) {
+                keyCondition += " AND #T < :to";
+            }
+        }
+
+        QueryRequest.Builder query = QueryRequest.builder()
+                .tableName(clientRegistry.tableName())
+                .indexName(indexName)
+                .keyConditionExpression(keyCondition)
+                .scanIndexForward(false)
+                .expressionAttributeValues(expressionAttributeValues)
+                .projectionExpression(fields.getProjectionExpression())
+                .expressionAttributeNames(expressionAttributeNames)
+                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL);
+        return fetchPage(userId, query, exclusiveStartKey, limit, new ArrayList<>());
+    }
+
+    private CompletionStage<OrderPage> fetchPage(String userId, QueryRequest.Builder query,
+                                                 Map<String, AttributeValue> exclusiveStartKey, int limit,
+                                                 List<Map<String, AttributeValue>> items) {
+        QueryRequest queryRequest = query
+                .exclusiveStartKey(exclusiveStartKey)
+                .limit(limit - items.size())
+                .build();
+
+        return listingQuery(userId, queryRequest).thenCompose(queryResponse -> {
+            items.addAll(queryResponse.items());
+            Map<String, AttributeValue> startKey = queryResponse.hasLastEvaluatedKey() ? queryResponse.lastEvaluatedKey() : null;
+            if (startKey != null && items.size() < limit) {
+                return fetchPage(userId, query, startKey, limit, items);
+            }
+            return CompletableFuture.completedFuture(new OrderPage(items, startKey));
+        });
+    }
+
+    /**
+     * Sort key of the status index: the order status and its ISO-8601 timestamp, so that one
+     * status over a range of days is a single key condition.
+     */
+    public static String statusTime(String status, String timeStamp) {
+        return status + "#" + timeStamp;
+    }
+
+    /**
+     * Translates a legacy offset into a start key and counts the user's orders. Both passes run
+     * side by side and neither transfers order bodies: the count is a {@code Select.COUNT} query
+     * over the whole partition, and only the keys in front of the page are read to find its
+     * start key.
+     *
+     * @deprecated offset paging reads every key in front of the page; use {@link #fetchPage}
+     * with a start key
+     */
+    @Deprecated
+    public CompletionStage<PageLocation> locatePage(String userId, int offset) {
+        CompletionStage<Integer> totalItems = countOrders(userId, null, 0);
+        CompletionStage<Map<String, AttributeValue>> startKey = offset > 0
+                ? skipKeys(userId, offset, null, 0)
+                : CompletableFuture.completedFuture(null);
+        return totalItems.thenCombine(startKey, (count, key) -> {
+            PageLocation location = new PageLocation();
+            location.totalItems = count;
+            location.startKey = key;
+            // Without a start key the partition ended in front of the page
+            location.exists = offset < count && (offset == 0 || key != null);
+            return location;
+        });
+    }
+
+    private CompletionStage<Integer> countOrders(String userId, Map<String, AttributeValue> exclusiveStartKey, int counted) {
+        Map<String, AttributeValue> expressionAttributeValues = new HashMap<>();
+        expressionAttributeValues.put(":v_userId", AttributeValue.builder().s(userId).build());
+
+        QueryRequest queryRequest = QueryRequest.builder()
+                .tableName(clientRegistry.tableName())
+                .keyConditionExpression("UserId = :v_userId")
+                .expressionAttributeValues(expressionAttributeValues)
+                .select(Select.COUNT)
+                .exclusiveStartKey(exclusiveStartKey)
+                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                .build();
+
+        return listingQuery(userId, queryRequest).thenCompose(queryResponse -> {
+            int total = counted + queryResponse.count();
+            if (queryResponse.hasLastEvaluatedKey()) {
+                return countOrders(userId, queryResponse.lastEvaluatedKey(), total);
+            }
+            return CompletableFuture.completedFuture(total);
+        });
+    }
+
+    /**
+     * Reads the first {@code offset} keys of the user's partition.
+     *
+     * @return the key of the last of them, or {@code null} when the partition has fewer
+     */
+    private CompletionStage<Map<String, AttributeValue>> skipKeys(String userId, int offset,
+                                                               Map<String, AttributeValue> exclusiveStartKey, int skipped) {
+        Map<String, AttributeValue> expressionAttributeValues = new HashMap<>();
+        expressionAttributeValues.put(":v_userId", AttributeValue.builder().s(userId).build());
+
+        QueryRequest queryRequest = QueryRequest.builder()
+                .tableName(clientRegistry.tableName())
+                .keyConditionExpression("UserId = :v_userId")
+                .expressionAttributeValues(expressionAttributeValues)
+                .projectionExpression("UserId, HashKey")
+                .exclusiveStartKey(exclusiveStartKey)
+                .limit(offset - skipped)
+                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                .build();
+
+        return listingQuery(userId, queryRequest).thenCompose(queryResponse -> {
+            List<Map<String, AttributeValue>> keys = queryResponse.items();
+            int total = skipped + keys.size();
+            if (total == offset) {
+                return CompletableFuture.completedFuture(keys.get(keys.size() - 1));
+            }
+            if (queryResponse.hasLastEvaluatedKey()) {
+                return skipKeys(userId, offset, queryResponse.lastEvaluatedKey(), total);
+            }
+            return CompletableFuture.completedFuture(null);
+        });
+    }
+
+    /**
+     * Stores a new order unless an order with the same {@code HashKey} already exists. Completes
+     * with {@code false} when the put was rejected as a duplicate.
+     *
+     * <p>With group commit enabled, other orders go through the writer. {@code BatchWriteItem}
+     * has no condition expressions, so there a duplicate overwrites the row with the same key
+     * and counts as stored.
+     *
+     * @param idempotencyKeyed whether the order key comes from the client's
+     *                         {@code Idempotency-Key}. Such orders are resubmitted with the same key
+     *                         and always use the conditional {@code PutItem}.
+     */
+    public CompletionStage<Boolean> putOrder(Map<String, AttributeValue> itemValues, boolean idempotencyKeyed) {
+        if (groupCommitWriter.isEnabled() && !idempotencyKeyed) {
+            return groupCommitWriter.write(clientRegistry.tableName(), itemValues).thenApply(stored -> true);
+        }
+        PutItemRequest putItemRequest = PutItemRequest.builder()
+                .tableName(clientRegistry.tableName())
+                .item(itemValues)
+                .conditionExpression("attribute_not_exists(HashKey)")
+                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                .build();
+        CompletionStage<PutItemResponse> response;
+        if (ordersConfig.getAsyncIo()) {
+            response = clientRegistry.asyncClient().putItem(putItemRequest);
+        } else {
+            response = blockingIo.supply(() -> clientRegistry.client().putItem(putItemRequest));
+        }
+        CompletionStage<Boolean> put = requestMetrics.time("dynamodb", response).thenApply(putItemResponse -> {
+            requestMetrics.recordCapacity("PutItem", putItemResponse.consumedCapacity());
+            return true;
+        });
+        return put.handle((stored, e) -> {
+            if (e == null) {
+                return stored;
+            }
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof ConditionalCheckFailedException) {
+                return false;
+            }
+            throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+        });
+    }
+
+    /**
+     * Whether the order {@code hashKey} of the user is in the table, read consistently on the
+     * background client.
+     */
+    public CompletionStage<Boolean> orderExists(String userId, String hashKey) {
+        Map<String, AttributeValue> key = new HashMap<>();
+        key.put("UserId", AttributeValue.builder().s(userId).build());
+        key.put("HashKey", AttributeValue.builder().s(hashKey).build());
+        GetItemRequest getItemRequest = GetItemRequest.builder()
+                .tableName(clientRegistry.tableName())
+                .key(key)
+                .projectionExpression("HashKey")
+                .consistentRead(true)
+                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                .build();
+        CompletionStage<GetItemResponse> response;
+        if (ordersConfig.getAsyncIo()) {
+            response = clientRegistry.backgroundAsyncClient().getItem(getItemRequest);
+        } else {
+            response = blockingIo.supply(() -> clientRegistry.backgroundClient().getItem(getItemRequest));
+        }
+        return requestMetrics.time("dynamodb", response).thenApply(getItemResponse -> {
+            requestMetrics.recordCapacity("GetItem", getItemResponse.consumedCapacity());
+            return getItemResponse.hasItem();
+        });
+    }
+
+    /**
+     * Adds {@code count} orders worth {@code totalPrice} to a statistics bucket; negative values
+     * take them out again. {@code ADD} is applied atomically by DynamoDB, so concurrent
+     * checkouts on any number of pods never lose an update. Bookkeeping, so it runs on the
+     * background client.
+     */
+    public CompletionStage<Void> addToStatsBucket(String partition, String bucket, String day, String status,
+                                                  long count, String totalPrice) {
+        Map<String, AttributeValue> key = new HashMap<>();
+        key.put("UserId", AttributeValue.builder().s(partition).build());
+        key.put("HashKey", AttributeValue.builder().s(bucket).build());
+
+        Map<String, String> expressionAttributeNames = new HashMap<>();
+        expressionAttributeNames.put("#D", "Day");
+
+        Map<String, AttributeValue> expressionAttributeValues = new HashMap<>();
+        expressionAttributeValues.put(":count", AttributeValue.builder().n(Long.toString(count)).build());
+        expressionAttributeValues.put(":price", AttributeValue.builder().n(totalPrice).build());
+        expressionAttributeValues.put(":day", AttributeValue.builder().s(day).build());
+        expressionAttributeValues.put(":status", AttributeValue.builder().s(status).build());
+
+        UpdateItemRequest updateItemRequest = UpdateItemRequest.builder()
+                .tableName(clientRegistry.tableName())
+                .key(key)
+                .updateExpression("ADD OrderCount :count, Revenue :price SET #D = :day, OrderStatus = :status")
+                .expressionAttributeNames(expressionAttributeNames)
+                .expressionAttributeValues(expressionAttributeValues)
+                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                .build();
+        CompletionStage<UpdateItemResponse> response;
+        if (ordersConfig.getAsyncIo()) {
+            response = clientRegistry.backgroundAsyncClient().updateItem(updateItemRequest);
+        } else {
+            response = blockingIo.supply(() -> clientRegistry.backgroundClient().updateItem(updateItemRequest));
+        }
+        return requestMetrics.time("dynamodb", response).thenApply(updateItemResponse -> {
+            requestMetrics.recordCapacity("UpdateItem", updateItemResponse.consumedCapacity());
+            return null;
+        });
+    }
+
+    /**
+     * Atomically increments the version marker stored under {@code key}, on the background
+     * client.
+     *
+     * @return the new version
+     */
+    public CompletionStage<Long> incrementVersion(Map<String, AttributeValue> key) {
+        return incrementVersion(key, null);
+    }
+
+    /**
+     * Increments the version marker stored under {@code key} once per stream record: the
+     * increment only applies while the marker's {@code LastSeq} is below {@code sequence}, so
+     * every pod reading the same record moves the version only once.
+     *
+     * @param sequence the record's stream sequence number, zero-padded so that it compares as a
+     *                 string, or {@code null} to increment unconditionally
+     * @return the new version, or {@code null} when the record was already applied
+     */
+    public CompletionStage<Long> incrementVersion(Map<String, AttributeValue> key, String sequence) {
+        Map<String, AttributeValue> expressionAttributeValues = new HashMap<>();
+        expressionAttributeValues.put(":one", AttributeValue.builder().n("1").build());
+        String update = "ADD Version :one";
+        String condition = null;
+        if (sequence != null) {
+            expressionAttributeValues.put(":seq", AttributeValue.builder().s(sequence).build());
+            update = "SET LastSeq = :seq " + update;
+            condition = "attribute_not_exists(LastSeq) OR LastSeq < :seq";
+        }
+
+        UpdateItemRequest updateItemRequest = UpdateItemRequest.builder()
+                .tableName(clientRegistry.tableName())
+                .key(key)
+                .updateExpression(update)
+                .conditionExpression(condition)
+                .expressionAttributeValues(expressionAttributeValues)
+                .returnValues(ReturnValue.UPDATED_NEW)
+                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                .build();
+        CompletionStage<UpdateItemResponse> response;
+        if (ordersConfig.getAsyncIo()) {
+            response = clientRegistry.backgroundAsyncClient().updateItem(updateItemRequest);
+        } else {
+            response = blockingIo.supply(() -> clientRegistry.backgroundClient().updateItem(updateItemRequest));
+        }
+        CompletionStage<Long> incremented = requestMetrics.time("dynamodb", response).thenApply(updateItemResponse -> {
+            requestMetrics.recordCapacity("UpdateItem", updateItemResponse.consumedCapacity());
+            return Long.parseLong(updateItemResponse.attributes().get("Version").n());
+        });
+        return incremented.handle((version, e) -> {
+            if (e == null) {
+                return version;
+            }
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (cause instanceof ConditionalCheckFailedException) {
+                return null;
+            }
+            throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+        });
+    }
+
+    /**
+     * Reads the version marker stored under {@code key}, 0 if there is none yet.
+     */
+    public CompletionStage<Long> readVersion(Map<String, AttributeValue> key) {
+        GetItemRequest getItemRequest = GetItemRequest.builder()
+                .tableName(clientRegistry.tableName())
+                .key(key)
+                .projectionExpression("Version")
+                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                .build();
+        CompletionStage<GetItemResponse> response;
+        if (ordersConfig.getAsyncIo()) {
+            response = clientRegistry.asyncClient().getItem(getItemRequest);
+        } else {
+            response = blockingIo.supply(() -> clientRegistry.client().getItem(getItemRequest));
+        }
+        return requestMetrics.time("dynamodb", response).thenApply(getItemResponse -> {
+            requestMetrics.recordCapacity("GetItem", getItemResponse.consumedCapacity());
+            AttributeValue version = getItemResponse.hasItem() ? getItemResponse.item().get("Version") : null;
+            return version == null ? 0L : Long.parseLong(version.n());
+        });
+    }
+
+    /**
+     * Reads the statistics buckets of {@code partition} whose sort keys are between
+     * {@code fromBucket} and {@code toBucket}, following {@code LastEvaluatedKey}.
+     */
+    public CompletionStage<List<Map<String, AttributeValue>>> queryStatsBuckets(String partition, String fromBucket,
+                                                                               String toBucket) {
+        return queryStatsBuckets(partition, fromBucket, toBucket, null, new ArrayList<>());
+    }
+
+    private CompletionStage<List<Map<String, AttributeValue>>> queryStatsBuckets(String partition, String fromBucket,
+                                                                                String toBucket,
+                                                                                Map<String, AttributeValue> exclusiveStartKey,
+                                                                                List<Map<String, AttributeValue>> buckets) {
+        Map<String, AttributeValue> expressionAttributeValues = new HashMap<>();
+        expressionAttributeValues.put(":p", AttributeValue.builder().s(partition).build());
+        expressionAttributeValues.put(":from", AttributeValue.builder().s(fromBucket).build());
+        expressionAttributeValues.put(":to", AttributeValue.builder().s(toBucket).build());
+
+        Map<String, String> expressionAttributeNames = new HashMap<>();
+        expressionAttributeNames.put("#D", "Day");
+
+        QueryRequest queryRequest = QueryRequest.builder()
+                .tableName(clientRegistry.tableName())
+                .keyConditionExpression("UserId = :p AND HashKey BETWEEN :from AND :to")
+                .expressionAttributeValues(expressionAttributeValues)
+                .expressionAttributeNames(expressionAttributeNames)
+                .projectionExpression("#D, OrderStatus, OrderCount, Revenue")
+                .exclusiveStartKey(exclusiveStartKey)
+                .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                .build();
+
+        return query(queryRequest).thenCompose(queryResponse -> {
+            buckets.addAll(queryResponse.items());
+            if (queryResponse.hasLastEvaluatedKey()) {
+                return queryStatsBuckets(partition, fromBucket, toBucket, queryResponse.lastEvaluatedKey(), buckets);
+            }
+            return CompletableFuture.completedFuture(buckets);
+        });
+    }
+
+    /**
+     * A query of a user's order listing, hedged over the read replicas when they are configured.
+     */
+    private CompletionStage<QueryResponse> listingQuery(String userId, QueryRequest queryRequest) {
+        if (!hedgedReads.isEnabled()) {
+            return query(queryRequest);
+        }
+        CompletionStage<QueryResponse> response = hedgedReads.read(userId, client -> client.query(queryRequest));
+        return requestMetrics.time("dynamodb", response).thenApply(queryResponse -> {
+            requestMetrics.recordCapacity("Query", queryResponse.consumedCapacity());
+            return queryResponse;
+        });
+    }
+
+    private CompletionStage<QueryResponse> query(QueryRequest queryRequest) {
+        CompletionStage<QueryResponse> response;
+        if (ordersConfig.getAsyncIo()) {
+            response = clientRegistry.asyncClient().query(queryRequest);
+        } else {
+            response = blockingIo.supply(() -> clientRegistry.client().query(queryRequest));
+        }
+        return requestMetrics.time("dynamodb", response).thenApply(queryResponse -> {
+            requestMetrics.recordCapacity("Query", queryResponse.consumedCapacity());
+            return queryResponse;
+        });
+    }
+
+    public static class OrderPage {
+        private final List<Map<String, AttributeValue>> items;
+        private final Map<String, AttributeValue> lastEvaluatedKey;
+
+        public OrderPage(List<Map<String, AttributeValue>> items, Map<String, AttributeValue> lastEvaluatedKey) {
+            this.items = items;
+            this.lastEvaluatedKey = lastEvaluatedKey;
+        }
+
+        public List<Map<String, AttributeValue>> getItems() {
+            return items;
+        }
+
+        public Map<String, AttributeValue> getLastEvaluatedKey() {
+            return lastEvaluatedKey;
+        }
+    }
+
+    public static class PageLocation {
+        private int totalItems;
+        private boolean exists;
+        private Map<String, AttributeValue> startKey;
+
+        public int getTotalItems() {
+            return totalItems;
+        }
+
+        public boolean exists() {
+            return exists;
+        }
+
+        public Map<String, AttributeValue> getStartKey() {
+            return startKey;
+        }
+    }
+
+    /**
+     * Day range (inclusive, UTC) and status of a time-ordered listing. Any part may be {@code null}.
+     */
+    public static class TimeFilter {
+        private final LocalDate from;
+        private final LocalDate to;
+        private final String status;
+
+        public TimeFilter(LocalDate from, LocalDate to, String status) {
+            this.from = from;
+            this.to = to;
+            this.status = status;
+        }
+
+        public LocalDate getFrom() {
+            return from;
+        }
+
+        public LocalDate getTo() {
+            return to;
+        }
+
+        public String getStatus() {
+            return status;
+        }
+
+        @Override
+        public String toString() {
+            return from + ":" + to + ":" + status;
+        }
+    }
+}
@@ -0,0 +1,294 @@
+import com.google.gson.JsonObject;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Order count and revenue counters, kept up to date by checkout instead of being computed
+ * from the orders themselves.
+ *
+ * <p>Counters live in the orders table as one item per bucket: partition
+ * {@code STATS#<userId>} (or {@code STATS#GLOBAL#<shard>} for the totals, spread over
+ * {@link #GLOBAL_SHARDS} partitions so they do not become a hot key) and sort key
+ * {@code DAY#<yyyy-MM-dd>#<OrderStatus>}, holding {@code OrderCount} and {@code Revenue}.
+ * Reading a range therefore costs one Query over its buckets, whatever the number of orders.
+ *
+ * <p>Rolled-up results are cached per scope and range for {@code stats.cache-ttl-seconds};
+ * a checkout drops the user's cached results on this pod.
+ */
+@ApplicationScoped
+public class OrderStatistics {
+
+    private static final Logger LOGGER = Logger.getLogger(OrderStatistics.class.getName());
+
+    static final String PARTITION_PREFIX = "STATS#";
+    static final String GLOBAL_SCOPE = "GLOBAL";
+    static final int GLOBAL_SHARDS = 8;
+    private static final String BUCKET_PREFIX = "DAY#";
+
+    @Inject
+    private OrdersConfigProperties ordersConfig;
+
+    @Inject
+    private OrderRepository orderRepository;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Map<String, CachedStats>> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong updateFailures = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+
+    private ExecutorService updater;
+
+    @PostConstruct
+    private void init() {
+        // Counter updates never hold up checkout; when the queue is full they are dropped and
+        // counted, the backfill can rebuild the affected days.
+        updater = new ThreadPoolExecutor(2, 2, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(10000), runnable -> {
+            Thread thread = new Thread(runnable, "order-stats");
+            thread.setDaemon(true);
+            return thread;
+        }, (runnable, executor) -> updateFailures.incrementAndGet());
+    }
+
+    public boolean isEnabled() {
+        return ordersConfig.getStatsEnabled();
+    }
+
+    public static String partition(String scope) {
+        return PARTITION_PREFIX + scope;
+    }
+
+    public static String bucket(String day, String status) {
+        return BUCKET_PREFIX + day + "#" + status;
+    }
+
+    public static String day(String isoTimestamp) {
+        return Instant.parse(isoTimestamp).atZone(ZoneOffset.UTC).toLocalDate().toString();
+    }
+
+    /**
+     * Counts a newly stored order in the user's and the global buckets of its day and status.
+     */
+    public void record(String userId, String hashKey, String timeStamp, String status, String totalPrice) {
+        String day = day(timeStamp);
+        String bucket = bucket(day, status);
+        String globalPartition = partition(GLOBAL_SCOPE + "#" + Math.floorMod(hashKey.hashCode(), GLOBAL_SHARDS));
+        invalidate(userId);
+        if (ordersConfig.getAsyncIo()) {
+            add(partition(userId), bucket, day, status, 1, totalPrice);
+            add(globalPartition, bucket, day, status, 1, totalPrice);
+            return;
+        }
+        updater.execute(() -> {
+            add(partition(userId), bucket, day, status, 1, totalPrice);
+            add(globalPartition, bucket, day, status, 1, totalPrice);
+        });
+    }
+
+    /**
+     * Moves an order from the buckets of its old status to those of its new one.
+     */
+    public void recordStatusChange(String userId, String hashKey, String timeStamp, String fromStatus, String toStatus,
+                                   String totalPrice) {
+        String day = day(timeStamp);
+        String negatedPrice = new BigDecimal(totalPrice).negate().toPlainString();
+        String globalPartition = partition(GLOBAL_SCOPE + "#" + Math.floorMod(hashKey.hashCode(), GLOBAL_SHARDS));
+        invalidate(userId);
+        Runnable update = () -> {
+            add(partition(userId), bucket(day, fromStatus), day, fromStatus, -1, negatedPrice);
+            add(globalPartition, bucket(day, fromStatus), day, fromStatus, -1, negatedPrice);
+            add(partition(userId), bucket(day, toStatus), day, toStatus, 1, totalPrice);
+            add(globalPartition, bucket(day, toStatus), day, toStatus, 1, totalPrice);
+        };
+        if (ordersConfig.getAsyncIo()) {
+            update.run();
+        } else {
+            updater.execute(update);
+        }
+    }
+
+    private void add(String partition, String bucket, String day, String status, long count, String totalPrice) {
+        orderRepository.addToStatsBucket(partition, bucket, day, status, count, totalPrice)
+                .whenComplete((updated, e) -> {
+                    if (e != null) {
+                        updateFailures.incrementAndGet();
+                        LOGGER.log(Level.WARNING, "Failed to update order statistics bucket " + partition + " " + bucket, e);
+                    }
+                });
+    }
+
+    /**
+     * Statistics of one user's orders placed between {@code from} and {@code to}, inclusive.
+     */
+    public CompletionStage<String> userStats(String userId, LocalDate from, LocalDate to) {
+        return stats(userId, Collections.singletonList(partition(userId)), from, to);
+    }
+
+    /**
+     * Statistics of all orders placed between {@code from} and {@code to}, inclusive.
+     */
+    public CompletionStage<String> globalStats(LocalDate from, LocalDate to) {
+        List<String> partitions = new ArrayList<>(GLOBAL_SHARDS);
+        for (int shard = 0; shard < GLOBAL_SHARDS; shard++) {
+            partitions.add(partition(GLOBAL_SCOPE + "#" + shard));
+        }
+        return stats(GLOBAL_SCOPE, partitions, from, to);
+    }
+
+    private CompletionStage<String> stats(String scope, List<String> partitions, LocalDate from, LocalDate to) {
+        String range = from + ".." + to;
+        String cached = cached(scope, range);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        String fromBucket = BUCKET_PREFIX + from;
+        String toBucket = BUCKET_PREFIX + to + "#\uffff";
+        List<CompletableFuture<List<Map<String, AttributeValue>>>> queries = new ArrayList<>(partitions.size());
+        for (String partition : partitions) {
+            queries.add(orderRepository.queryStatsBuckets(partition, fromBucket, toBucket).toCompletableFuture());
+        }
+        return CompletableFuture.allOf(queries.toArray(new CompletableFuture[0])).thenApply(done -> {
+            List<Map<String, AttributeValue>> buckets = new ArrayList<>();
+            for (CompletableFuture<List<Map<String, AttributeValue>>> query : queries) {
+                buckets.addAll(query.join());
+            }
+            String body = rollUp(GLOBAL_SCOPE.equals(scope) ? "global" : "user", from, to, buckets);
+            cache(scope, range, body);
+            return body;
+        });
+    }
+
+    static String rollUp(String scope, LocalDate from, LocalDate to, List<Map<String, AttributeValue>> buckets) {
+        Totals total = new Totals();
+        Map<String, Totals> byStatus = new TreeMap<>();
+        Map<String, Totals> byDay = new TreeMap<>();
+        for (Map<String, AttributeValue> bucket : buckets) {
+            long count = Long.parseLong(bucket.get("OrderCount").n());
+            BigDecimal revenue = new BigDecimal(bucket.get("Revenue").n());
+            total.add(count, revenue);
+            byStatus.computeIfAbsent(bucket.get("OrderStatus").s(), status -> new Totals()).add(count, revenue);
+            byDay.computeIfAbsent(bucket.get("Day").s(), day -> new Totals()).add(count, revenue);
+        }
+
+        JsonObject json = new JsonObject();
+        json.addProperty("scope", scope);
+        json.addProperty("from", from.toString());
+        json.addProperty("to", to.toString());
+        json.addProperty("orderCount", total.count);
+        json.addProperty("revenue", total.revenue.toPlainString());
+        JsonObject statuses = new JsonObject();
+        byStatus.forEach((status, totals) -> statuses.add(status, totals.toJson()));
+        json.add("byStatus", statuses);
+        JsonObject days = new JsonObject();
+        byDay.forEach((day, totals) -> days.add(day, totals.toJson()));
+        json.add("byDay", days);
+        return json.toString();
+    }
+
+    private String cached(String scope, String range) {
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            Map<String, CachedStats> ranges = cache.get(scope);
+            CachedStats stats = ranges == null ? null : ranges.get(range);
+            if (stats == null || stats.expiresAt - now <= 0) {
+                cacheMisses.incrementAndGet();
+                return null;
+            }
+            cacheHits.incrementAndGet();
+            return stats.body;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void cache(String scope, String range, String body) {
+        long expiresAt = System.nanoTime() + TimeUnit.SECONDS.toNanos(ordersConfig.getStatsCacheTtlSeconds());
+        int maxScopes = ordersConfig.getStatsCacheMaxScopes();
+        lock.lock();
+        try {
+            cache.computeIfAbsent(scope, key -> new HashMap<>()).put(range, new CachedStats(body, expiresAt));
+            Iterator<Map<String, CachedStats>> eldest = cache.values().iterator();
+            while (cache.size() > maxScopes && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void invalidate(String userId) {
+        lock.lock();
+        try {
+            cache.remove(userId);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Gauge(name = "orderStatsUpdateFailures", unit = MetricUnits.NONE, description = "Statistics counter updates that failed or were dropped")
+    public long getUpdateFailures() {
+        return updateFailures.get();
+    }
+
+    @Gauge(name = "orderStatsCacheHits", unit = MetricUnits.NONE, description = "Statistics requests answered from the roll-up cache")
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    @Gauge(name = "orderStatsCacheMisses", unit = MetricUnits.NONE, description = "Statistics requests that queried the counters")
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    @PreDestroy
+    private void close() {
+        updater.shutdown();
+    }
+
+    private static class CachedStats {
+        private final String body;
+        private final long expiresAt;
+
+        private CachedStats(String body, long expiresAt) {
+            this.body = body;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static class Totals {
+        private long count;
+        private BigDecimal revenue = BigDecimal.ZERO;
+
+        private void add(long count, BigDecimal revenue) {
+            this.count += count;
+            this.revenue = this.revenue.add(revenue);
+        }
+
+        private JsonObject toJson() {
+            JsonObject json = new JsonObject();
+            json.addProperty("orderCount", count);
+            json.addProperty("revenue", revenue.toPlainString());
+            return json;
+        }
+    }
+}
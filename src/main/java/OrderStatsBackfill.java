@@ -0,0 +1,203 @@
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * One-off job that builds the {@link OrderStatistics} buckets from the orders already in the
+ * table, with a parallel segmented Scan.
+ *
+ * <p>Only days before {@code before} are rebuilt, and their buckets are overwritten with the
+ * scanned totals. Enable {@code stats.enabled} first and run the backfill with {@code before}
+ * no later than the day counting started: the rebuilt days then never overlap with the days
+ * that checkout is incrementing, and running the job again gives the same result.
+ */
+@ApplicationScoped
+public class OrderStatsBackfill {
+
+    private static final Logger LOGGER = Logger.getLogger(OrderStatsBackfill.class.getName());
+    private static final int DYNAMO_BATCH_LIMIT = 25;
+
+    @Inject
+    private DynamoDbClientRegistry clientRegistry;
+
+    @Inject
+    private OrdersConfigProperties ordersConfig;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong scannedItems = new AtomicLong();
+    private final AtomicLong bucketsWritten = new AtomicLong();
+
+    /**
+     * Starts the backfill in the background.
+     *
+     * @return {@code false} if a backfill is already running on this pod
+     */
+    public boolean start(LocalDate before) {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        scannedItems.set(0);
+        bucketsWritten.set(0);
+        Thread job = new Thread(() -> {
+            try {
+                run(before);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Order statistics backfill failed", e);
+            } finally {
+                running.set(false);
+            }
+        }, "order-stats-backfill");
+        job.setDaemon(true);
+        job.start();
+        return true;
+    }
+
+    private void run(LocalDate before) {
+        int segments = ordersConfig.getStatsBackfillSegments();
+        LOGGER.info("Order statistics backfill started for days before " + before + " with " + segments + " segments");
+        Map<String, Map<String, Totals>> buckets = new ConcurrentHashMap<>();
+        ExecutorService scanners = Executors.newFixedThreadPool(segments);
+        try {
+            List<Future<?>> scans = new ArrayList<>(segments);
+            for (int segment = 0; segment < segments; segment++) {
+                int current = segment;
+                scans.add(scanners.submit(() -> scanSegment(current, segments, before, buckets)));
+            }
+            for (Future<?> scan : scans) {
+                scan.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Scan failed", e.getCause());
+        } finally {
+            scanners.shutdownNow();
+        }
+        write(buckets);
+        LOGGER.info("Order statistics backfill finished: " + scannedItems.get() + " orders, " + bucketsWritten.get() + " buckets");
+    }
+
+    private void scanSegment(int segment, int totalSegments, LocalDate before, Map<String, Map<String, Totals>> buckets) {
+        Map<String, String> expressionAttributeNames = new HashMap<>();
+        expressionAttributeNames.put("#T", "TimeStamp");
+        Map<String, AttributeValue> expressionAttributeValues = new HashMap<>();
+        expressionAttributeValues.put(":stats", AttributeValue.builder().s(OrderStatistics.PARTITION_PREFIX).build());
+        // ISO-8601 timestamps sort like dates, so everything before midnight of "before" is older
+        expressionAttributeValues.put(":before", AttributeValue.builder().s(before.toString()).build());
+
+        Map<String, AttributeValue> exclusiveStartKey = null;
+        do {
+            ScanResponse response = clientRegistry.backgroundClient().scan(ScanRequest.builder()
+                    .tableName(clientRegistry.tableName())
+                    .segment(segment)
+                    .totalSegments(totalSegments)
+                    .projectionExpression("UserId, #T, OrderStatus, TotalPrice")
+                    .filterExpression("NOT begins_with(UserId, :stats) AND #T < :before")
+                    .expressionAttributeNames(expressionAttributeNames)
+                    .expressionAttributeValues(expressionAttributeValues)
+                    .exclusiveStartKey(exclusiveStartKey)
+                    .build());
+            for (Map<String, AttributeValue> order : response.items()) {
+                String bucket = OrderStatistics.bucket(OrderStatistics.day(order.get("TimeStamp").s()),
+                        order.get("OrderStatus").s());
+                BigDecimal price = new BigDecimal(order.get("TotalPrice").n());
+                count(buckets, OrderStatistics.partition(order.get("UserId").s()), bucket, price);
+                count(buckets, OrderStatistics.partition(OrderStatistics.GLOBAL_SCOPE + "#0"), bucket, price);
+            }
+            scannedItems.addAndGet(response.items().size());
+            exclusiveStartKey = response.hasLastEvaluatedKey() ? response.lastEvaluatedKey() : null;
+        } while (exclusiveStartKey != null);
+    }
+
+    private static void count(Map<String, Map<String, Totals>> buckets, String partition, String bucket, BigDecimal price) {
+        Totals totals = buckets.computeIfAbsent(partition, key -> new ConcurrentHashMap<>())
+                .computeIfAbsent(bucket, key -> new Totals());
+        synchronized (totals) {
+            totals.count++;
+            totals.revenue = totals.revenue.add(price);
+        }
+    }
+
+    private void write(Map<String, Map<String, Totals>> buckets) {
+        List<WriteRequest> batch = new ArrayList<>(DYNAMO_BATCH_LIMIT);
+        for (Map.Entry<String, Map<String, Totals>> partition : buckets.entrySet()) {
+            for (Map.Entry<String, Totals> bucket : partition.getValue().entrySet()) {
+                // DAY#<day>#<status>
+                String[] parts = bucket.getKey().split("#", 3);
+                Map<String, AttributeValue> item = new HashMap<>();
+                item.put("UserId", AttributeValue.builder().s(partition.getKey()).build());
+                item.put("HashKey", AttributeValue.builder().s(bucket.getKey()).build());
+                item.put("Day", AttributeValue.builder().s(parts[1]).build());
+                item.put("OrderStatus", AttributeValue.builder().s(parts[2]).build());
+                item.put("OrderCount", AttributeValue.builder().n(Long.toString(bucket.getValue().count)).build());
+                item.put("Revenue", AttributeValue.builder().n(bucket.getValue().revenue.toPlainString()).build());
+                batch.add(WriteRequest.builder().putRequest(PutRequest.builder().item(item).build()).build());
+                if (batch.size() == DYNAMO_BATCH_LIMIT) {
+                    writeBatch(batch);
+                    batch = new ArrayList<>(DYNAMO_BATCH_LIMIT);
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            writeBatch(batch);
+        }
+    }
+
+    private void writeBatch(List<WriteRequest> batch) {
+        Map<String, List<WriteRequest>> requestItems = Collections.singletonMap(clientRegistry.tableName(), batch);
+        for (int attempt = 0; !requestItems.isEmpty(); attempt++) {
+            if (attempt > 0) {
+                try {
+                    Thread.sleep(ThreadLocalRandom.current().nextLong(Math.min(2000, 25L << Math.min(attempt, 16))));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Backfill interrupted", e);
+                }
+            }
+            BatchWriteItemResponse response = clientRegistry.backgroundClient().batchWriteItem(BatchWriteItemRequest.builder()
+                    .requestItems(requestItems)
+                    .build());
+            int unprocessed = 0;
+            requestItems = response.hasUnprocessedItems() ? response.unprocessedItems() : Collections.emptyMap();
+            for (List<WriteRequest> requests : requestItems.values()) {
+                unprocessed += requests.size();
+            }
+            bucketsWritten.addAndGet(batch.size() - unprocessed);
+            batch = new ArrayList<>();
+            for (List<WriteRequest> requests : requestItems.values()) {
+                batch.addAll(requests);
+            }
+        }
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    @Gauge(name = "orderStatsBackfillScannedItems", unit = MetricUnits.NONE, description = "Orders scanned by the current or last statistics backfill")
+    public long getScannedItems() {
+        return scannedItems.get();
+    }
+
+    @Gauge(name = "orderStatsBackfillBucketsWritten", unit = MetricUnits.NONE, description = "Buckets written by the current or last statistics backfill")
+    public long getBucketsWritten() {
+        return bucketsWritten.get();
+    }
+
+    private static class Totals {
+        private long count;
+        private BigDecimal revenue = BigDecimal.ZERO;
+    }
+}
@@ -0,0 +1,533 @@
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Sets the status of many orders at once, for fulfilment.
+ *
+ * <p>The input is NDJSON, one {@code {"userId", "hashKey", "status", "expectedStatus"}} object
+ * per line, and is read as it arrives. Lines are grouped into chunks of
+ * {@code bulk-update.chunk-size} and handed to {@code bulk-update.max-workers} workers. The
+ * hand-off queue is as small as the pool, so a file of any size needs only a few chunks in memory.
+ *
+ * <p>A chunk is read with one {@code BatchGetItem} and written with one
+ * {@code TransactWriteItems}. Every update is conditional on the status that was read, and on
+ * {@code expectedStatus} when given, so a concurrent change is reported instead of overwritten.
+ * {@code BatchWriteItem} cannot do this, because it only puts whole items without conditions.
+ * When a transaction is cancelled, the orders whose condition failed are taken out and the
+ * rest are written again. Reads and writes share a capacity budget of
+ * {@code bulk-update.max-capacity-units-per-second}.
+ *
+ * <p>Like checkout, an updated order gets a new {@code StatusTime}, its user's listings are
+ * invalidated and the statistics move it to its new status. This class is the only one to bump
+ * the order version of a bulk change, once per user and transaction; {@link OrderStreamConsumer}
+ * leaves the version to the writer of a change.
+ */
+@ApplicationScoped
+public class OrderStatusBulkUpdater {
+
+    private static final Logger LOGGER = Logger.getLogger(OrderStatusBulkUpdater.class.getName());
+    // Status values end up in StatusTime, where '#' separates the status from the timestamp
+    private static final Pattern STATUS = Pattern.compile("[A-Z][A-Z0-9_]{0,31}");
+    private static final int MAX_TRANSACTION_ITEMS = 100;
+
+    @Inject
+    private DynamoDbClientRegistry clientRegistry;
+
+    @Inject
+    private OrdersConfigProperties ordersConfig;
+
+    @Inject
+    private RequestMetrics requestMetrics;
+
+    @Inject
+    private OrderHistoryCache orderHistoryCache;
+
+    @Inject
+    private OrderReadCoalescer orderReadCoalescer;
+
+    @Inject
+    private OrderVersionStore orderVersionStore;
+
+    @Inject
+    private HedgedReads hedgedReads;
+
+    @Inject
+    private OrderStatistics orderStatistics;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final CapacityBudget budget = new CapacityBudget();
+    private final AtomicLong ordersUpdated = new AtomicLong();
+    private final AtomicLong capacityConsumed = new AtomicLong();
+
+    /**
+     * Applies every update in {@code input} and waits for them to finish.
+     *
+     * @return the outcome summary, or {@code null} if a bulk update is already running on this pod
+     */
+    public JsonObject update(InputStream input) {
+        if (!running.compareAndSet(false, true)) {
+            return null;
+        }
+        int workerCount = ordersConfig.getBulkUpdateMaxWorkers();
+        int chunkSize = Math.max(1, Math.min(ordersConfig.getBulkUpdateChunkSize(), MAX_TRANSACTION_ITEMS));
+        // When the queue is full the reading thread writes the chunk itself, and stops reading meanwhile
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(workerCount), runnable -> {
+            Thread thread = new Thread(runnable, "order-bulk-update");
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+        Outcomes outcomes = new Outcomes(ordersConfig.getBulkUpdateMaxReportedItems());
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8));
+            List<Update> chunk = new ArrayList<>(chunkSize);
+            Set<String> chunkKeys = new HashSet<>();
+            long lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                Update update;
+                try {
+                    update = Update.parse(lineNumber, line);
+                } catch (JsonParseException | IllegalStateException | IllegalArgumentException e) {
+                    outcomes.add(lineNumber, null, null, Outcome.INVALID, e.getMessage());
+                    continue;
+                }
+                // A transaction may not touch the same order twice
+                if (!chunkKeys.add(update.key()) || chunk.size() >= chunkSize) {
+                    List<Update> full = chunk;
+                    workers.execute(() -> apply(full, outcomes));
+                    chunk = new ArrayList<>(chunkSize);
+                    chunkKeys.clear();
+                    chunkKeys.add(update.key());
+                }
+                chunk.add(update);
+            }
+            if (!chunk.isEmpty()) {
+                List<Update> last = chunk;
+                workers.execute(() -> apply(last, outcomes));
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Reading the bulk status update input failed", e);
+            outcomes.inputError(e.getMessage());
+        } finally {
+            workers.shutdown();
+            try {
+                workers.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                workers.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            running.set(false);
+        }
+        return outcomes.summary();
+    }
+
+    private void apply(List<Update> chunk, Outcomes outcomes) {
+        try {
+            Map<String, Map<String, AttributeValue>> orders = read(chunk, outcomes);
+            List<Write> writes = new ArrayList<>(chunk.size());
+            for (Update update : chunk) {
+                if (!orders.containsKey(update.key())) {
+                    // Already reported by read when it could not be read
+                    continue;
+                }
+                Map<String, AttributeValue> order = orders.get(update.key());
+                AttributeValue current = order != null ? order.get("OrderStatus") : null;
+                if (current == null || order.get("TimeStamp") == null) {
+                    outcomes.add(update, Outcome.NOT_FOUND, null);
+                } else if (update.expectedStatus != null && !update.expectedStatus.equals(current.s())) {
+                    outcomes.add(update, Outcome.CONFLICT, "Status is " + current.s() + ".");
+                } else if (update.status.equals(current.s())) {
+                    outcomes.add(update, Outcome.UNCHANGED, null);
+                } else {
+                    writes.add(new Write(update, order));
+                }
+            }
+            write(writes, outcomes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            for (Update update : chunk) {
+                outcomes.add(update, Outcome.FAILED, "Interrupted.");
+            }
+        }
+    }
+
+    /**
+     * Reads the orders of a chunk. Orders that do not exist map to {@code null}; orders that
+     * could not be read are reported as failed and left out.
+     */
+    private Map<String, Map<String, AttributeValue>> read(List<Update> chunk, Outcomes outcomes) throws InterruptedException {
+        Map<String, String> expressionAttributeNames = new HashMap<>();
+        expressionAttributeNames.put("#T", "TimeStamp");
+        List<Map<String, AttributeValue>> keys = new ArrayList<>(chunk.size());
+        for (Update update : chunk) {
+            Map<String, AttributeValue> key = new HashMap<>();
+            key.put("UserId", AttributeValue.builder().s(update.userId).build());
+            key.put("HashKey", AttributeValue.builder().s(update.hashKey).build());
+            keys.add(key);
+        }
+
+        Map<String, Map<String, AttributeValue>> orders = new HashMap<>();
+        for (int attempt = 1; !keys.isEmpty(); attempt++) {
+            if (attempt > ordersConfig.getBulkUpdateMaxAttempts()) {
+                for (Map<String, AttributeValue> key : keys) {
+                    outcomes.add(find(chunk, key), Outcome.FAILED, "Order could not be read.");
+                }
+                break;
+            }
+            budget.awaitCredit(ordersConfig.getBulkUpdateMaxCapacityUnitsPerSecond());
+            Map<String, KeysAndAttributes> request = new HashMap<>();
+            request.put(clientRegistry.tableName(), KeysAndAttributes.builder()
+                    .keys(keys)
+                    .projectionExpression("UserId, HashKey, OrderStatus, #T, TotalPrice")
+                    .expressionAttributeNames(expressionAttributeNames)
+                    .consistentRead(true)
+                    .build());
+            BatchGetItemResponse response;
+            try {
+                response = clientRegistry.backgroundClient().batchGetItem(BatchGetItemRequest.builder()
+                        .requestItems(request)
+                        .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                        .build());
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.FINE, "Bulk status update read failed", e);
+                backOff(attempt);
+                continue;
+            }
+            consumed("BatchGetItem", response.consumedCapacity());
+            for (Map<String, AttributeValue> order : response.responses().getOrDefault(clientRegistry.tableName(), Collections.emptyList())) {
+                orders.put(order.get("UserId").s() + '\0' + order.get("HashKey").s(), order);
+            }
+            KeysAndAttributes unprocessed = response.hasUnprocessedKeys()
+                    ? response.unprocessedKeys().get(clientRegistry.tableName()) : null;
+            Set<String> pending = new HashSet<>();
+            if (unprocessed != null) {
+                for (Map<String, AttributeValue> key : unprocessed.keys()) {
+                    pending.add(key.get("UserId").s() + '\0' + key.get("HashKey").s());
+                }
+            }
+            for (Map<String, AttributeValue> key : keys) {
+                String id = key.get("UserId").s() + '\0' + key.get("HashKey").s();
+                if (!pending.contains(id)) {
+                    orders.putIfAbsent(id, null);
+                }
+            }
+            keys = unprocessed != null ? new ArrayList<>(unprocessed.keys()) : Collections.emptyList();
+            if (!keys.isEmpty()) {
+                backOff(attempt);
+            }
+        }
+        return orders;
+    }
+
+    private void write(List<Write> writes, Outcomes outcomes) throws InterruptedException {
+        List<Write> pending = writes;
+        String failure = null;
+        for (int attempt = 1; !pending.isEmpty(); attempt++) {
+            if (attempt > ordersConfig.getBulkUpdateMaxAttempts()) {
+                for (Write write : pending) {
+                    outcomes.add(write.update, Outcome.FAILED, failure);
+                }
+                return;
+            }
+            budget.awaitCredit(ordersConfig.getBulkUpdateMaxCapacityUnitsPerSecond());
+            List<TransactWriteItem> items = new ArrayList<>(pending.size());
+            for (Write write : pending) {
+                items.add(TransactWriteItem.builder().update(write.toUpdate(clientRegistry.tableName())).build());
+            }
+            try {
+                TransactWriteItemsResponse response = clientRegistry.backgroundClient().transactWriteItems(TransactWriteItemsRequest.builder()
+                        .transactItems(items)
+                        .returnConsumedCapacity(ReturnConsumedCapacity.TOTAL)
+                        .build());
+                consumed("TransactWriteItems", response.consumedCapacity());
+                Set<String> users = new HashSet<>();
+                for (Write write : pending) {
+                    updated(write);
+                    users.add(write.update.userId);
+                    outcomes.add(write.update, Outcome.UPDATED, null);
+                }
+                // One bump per user and transaction, however many of the user's orders it changed
+                for (String userId : users) {
+                    orderVersionStore.increment(userId).exceptionally(e -> {
+                        LOGGER.log(Level.WARNING, "Failed to bump the order version after a bulk status update", e);
+                        return null;
+                    });
+                }
+                return;
+            } catch (TransactionCanceledException e) {
+                // Cancelled transactions report no capacity; a transactional write costs two units per item
+                budget.consume(2.0 * pending.size(), ordersConfig.getBulkUpdateMaxCapacityUnitsPerSecond());
+                List<Write> retry = new ArrayList<>(pending.size());
+                List<CancellationReason> reasons = e.hasCancellationReasons() ? e.cancellationReasons() : Collections.emptyList();
+                for (int i = 0; i < pending.size(); i++) {
+                    String code = i < reasons.size() ? reasons.get(i).code() : null;
+                    if ("ConditionalCheckFailed".equals(code)) {
+                        outcomes.add(pending.get(i).update, Outcome.CONFLICT, "Status changed while updating.");
+                    } else {
+                        retry.add(pending.get(i));
+                    }
+                }
+                if (retry.size() == pending.size()) {
+                    failure = e.getMessage();
+                    backOff(attempt);
+                }
+                pending = retry;
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.FINE, "Bulk status update write failed", e);
+                failure = e.getMessage();
+                backOff(attempt);
+            }
+        }
+    }
+
+    private void updated(Write write) {
+        String userId = write.update.userId;
+        orderReadCoalescer.forget(userId);
+        orderHistoryCache.invalidate(userId);
+        hedgedReads.onWrite(userId);
+        AttributeValue totalPrice = write.order.get("TotalPrice");
+        if (orderStatistics.isEnabled() && totalPrice != null) {
+            orderStatistics.recordStatusChange(userId, write.update.hashKey, write.order.get("TimeStamp").s(),
+                    write.order.get("OrderStatus").s(), write.update.status, totalPrice.n());
+        }
+        ordersUpdated.incrementAndGet();
+    }
+
+    private void consumed(String operation, List<ConsumedCapacity> consumedCapacity) {
+        requestMetrics.recordCapacity(operation, consumedCapacity);
+        if (consumedCapacity == null) {
+            return;
+        }
+        for (ConsumedCapacity capacity : consumedCapacity) {
+            if (capacity.capacityUnits() != null) {
+                budget.consume(capacity.capacityUnits(), ordersConfig.getBulkUpdateMaxCapacityUnitsPerSecond());
+                capacityConsumed.addAndGet((long) Math.ceil(capacity.capacityUnits()));
+            }
+        }
+    }
+
+    private static void backOff(int attempt) throws InterruptedException {
+        Thread.sleep(Math.min(1000L, 50L << Math.min(attempt, 5)));
+    }
+
+    private static Update find(List<Update> chunk, Map<String, AttributeValue> key) {
+        String id = key.get("UserId").s() + '\0' + key.get("HashKey").s();
+        for (Update update : chunk) {
+            if (update.key().equals(id)) {
+                return update;
+            }
+        }
+        throw new IllegalStateException("Key not in chunk");
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    @Gauge(name = "orderBulkStatusUpdates", unit = MetricUnits.NONE, description = "Orders whose status was changed by bulk status updates")
+    public long getOrdersUpdated() {
+        return ordersUpdated.get();
+    }
+
+    @Gauge(name = "orderBulkStatusCapacityUnits", unit = MetricUnits.NONE, description = "Capacity units consumed by bulk status updates")
+    public long getCapacityConsumed() {
+        return capacityConsumed.get();
+    }
+
+    private enum Outcome {
+        UPDATED("updated"),
+        UNCHANGED("unchanged"),
+        NOT_FOUND("notFound"),
+        CONFLICT("conflict"),
+        INVALID("invalid"),
+        FAILED("failed");
+
+        private final String key;
+
+        Outcome(String key) {
+            this.key = key;
+        }
+    }
+
+    private static class Update {
+        private final long line;
+        private final String userId;
+        private final String hashKey;
+        private final String status;
+        private final String expectedStatus;
+
+        private Update(long line, String userId, String hashKey, String status, String expectedStatus) {
+            this.line = line;
+            this.userId = userId;
+            this.hashKey = hashKey;
+            this.status = status;
+            this.expectedStatus = expectedStatus;
+        }
+
+        private static Update parse(long line, String json) {
+            JsonObject update = JsonParser.parseString(json).getAsJsonObject();
+            String userId = string(update, "userId");
+            String hashKey = string(update, "hashKey");
+            String status = string(update, "status");
+            String expectedStatus = update.has("expectedStatus") ? string(update, "expectedStatus") : null;
+            if (userId.startsWith(OrderStatistics.PARTITION_PREFIX) || userId.startsWith(OrderVersionStore.PARTITION_PREFIX)
+                    || userId.startsWith(OrderStreamConsumer.PARTITION_PREFIX)) {
+                throw new IllegalArgumentException("userId is not an orders partition.");
+            }
+            if (!STATUS.matcher(status).matches() || (expectedStatus != null && !STATUS.matcher(expectedStatus).matches())) {
+                throw new IllegalArgumentException("Statuses must be upper case letters, digits and underscores.");
+            }
+            return new Update(line, userId, hashKey, status, expectedStatus);
+        }
+
+        private static String string(JsonObject object, String name) {
+            JsonElement value = object.get(name);
+            if (value == null || !value.isJsonPrimitive() || value.getAsString().isEmpty()) {
+                throw new IllegalArgumentException(name + " is required.");
+            }
+            return value.getAsString();
+        }
+
+        private String key() {
+            return userId + '\0' + hashKey;
+        }
+    }
+
+    private static class Write {
+        private final Update update;
+        private final Map<String, AttributeValue> order;
+
+        private Write(Update update, Map<String, AttributeValue> order) {
+            this.update = update;
+            this.order = order;
+        }
+
+        private software.amazon.awssdk.services.dynamodb.model.Update toUpdate(String tableName) {
+            Map<String, AttributeValue> key = new HashMap<>();
+            key.put("UserId", order.get("UserId"));
+            key.put("HashKey", order.get("HashKey"));
+
+            Map<String, String> expressionAttributeNames = new HashMap<>();
+            expressionAttributeNames.put("#ST", OrderRepository.STATUS_TIME);
+
+            Map<String, AttributeValue> expressionAttributeValues = new HashMap<>();
+            expressionAttributeValues.put(":status", AttributeValue.builder().s(update.status).build());
+            expressionAttributeValues.put(":current", order.get("OrderStatus"));
+            expressionAttributeValues.put(":statusTime", AttributeValue.builder()
+                    .s(OrderRepository.statusTime(update.status, order.get("TimeStamp").s())).build());
+            return software.amazon.awssdk.services.dynamodb.model.Update.builder()
+                    .tableName(tableName)
+                    .key(key)
+                    .updateExpression("SET OrderStatus = :status, #ST = :statusTime")
+                    .conditionExpression("OrderStatus = :current")
+                    .expressionAttributeNames(expressionAttributeNames)
+                    .expressionAttributeValues(expressionAttributeValues)
+                    .build();
+        }
+    }
+
+    /**
+     * Counts of every outcome, with the lines that were not updated up to
+     * {@code bulk-update.max-reported-items}.
+     */
+    private static class Outcomes {
+        private final int maxReported;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Map<Outcome, Long> counts = new EnumMap<>(Outcome.class);
+        private final JsonArray reported = new JsonArray();
+        private boolean truncated;
+        private String inputError;
+
+        private Outcomes(int maxReported) {
+            this.maxReported = maxReported;
+        }
+
+        private void add(Update update, Outcome outcome, String message) {
+            add(update.line, update.userId, update.hashKey, outcome, message);
+        }
+
+        private void add(long line, String userId, String hashKey, Outcome outcome, String message) {
+            lock.lock();
+            try {
+                counts.merge(outcome, 1L, Long::sum);
+                if (outcome == Outcome.UPDATED) {
+                    return;
+                }
+                if (reported.size() >= maxReported) {
+                    truncated = true;
+                    return;
+                }
+                JsonObject item = new JsonObject();
+                item.addProperty("line", line);
+                if (userId != null) {
+                    item.addProperty("userId", userId);
+                    item.addProperty("hashKey", hashKey);
+                }
+                item.addProperty("outcome", outcome.key);
+                if (message != null) {
+                    item.addProperty("message", message);
+                }
+                reported.add(item);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void inputError(String message) {
+            lock.lock();
+            try {
+                inputError = message != null ? message : "Input could not be read.";
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private JsonObject summary() {
+            lock.lock();
+            try {
+                JsonObject summary = new JsonObject();
+                long total = 0;
+                for (Outcome outcome : Outcome.values()) {
+                    long count = counts.getOrDefault(outcome, 0L);
+                    summary.addProperty(outcome.key, count);
+                    total += count;
+                }
+                summary.addProperty("total", total);
+                if (inputError != null) {
+                    summary.addProperty("inputError", inputError);
+                }
+                summary.add("items", reported.deepCopy());
+                summary.addProperty("itemsTruncated", truncated);
+                return summary;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
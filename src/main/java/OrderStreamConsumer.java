@@ -0,0 +1,412 @@
+import com.google.gson.JsonObject;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+import software.amazon.awssdk.services.dynamodb.model.*;
+import software.amazon.awssdk.services.dynamodb.streams.DynamoDbStreamsClient;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads the orders table's DynamoDB stream and turns every change of an order's
+ * {@code OrderStatus} into an {@code order-status} event for {@link OrderEventHub}. The table
+ * needs a stream with NEW_AND_OLD_IMAGES.
+ *
+ * <p>Every pod reads every shard, because a user's event streams can be open on any pod.
+ * A closed shard's children are only read once the shard itself is done, so the events of one
+ * order arrive in order. Shards found at startup without a checkpoint start at the latest
+ * record; shards that appear later (splits) are read from their start.
+ *
+ * <p>Positions are checkpointed per shard in the {@code STREAM#<consumer-name>} partition,
+ * at most every {@code events.checkpoint-interval-seconds} and never backwards, so a
+ * restarted pod continues where the fleet left off instead of missing or replaying records.
+ *
+ * <p>A status change also invalidates this pod's cached listings of the user, and changes
+ * made by other systems bump the user's order version, so ETags never hide them. The bump is
+ * conditional on the record's sequence number, so the pods reading the record apply it once.
+ */
+@ApplicationScoped
+public class OrderStreamConsumer {
+
+    private static final Logger LOGGER = Logger.getLogger(OrderStreamConsumer.class.getName());
+    static final String PARTITION_PREFIX = "STREAM#";
+    // Stream sequence numbers have up to 40 digits, too many for a DynamoDB number
+    private static final int SEQUENCE_DIGITS = 40;
+    private static final List<String> RESERVED_PREFIXES = Arrays.asList(
+            OrderStatistics.PARTITION_PREFIX, OrderVersionStore.PARTITION_PREFIX, PARTITION_PREFIX);
+
+    @Inject
+    private DynamoDbClientRegistry clientRegistry;
+
+    @Inject
+    private OrdersConfigProperties ordersConfig;
+
+    @Inject
+    private OrderEventHub eventHub;
+
+    @Inject
+    private OrderHistoryCache orderHistoryCache;
+
+    @Inject
+    private OrderReadCoalescer orderReadCoalescer;
+
+    @Inject
+    private OrderVersionStore orderVersionStore;
+
+    private final ScheduledExecutorService readers = Executors.newScheduledThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "order-stream-reader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<String, ShardReader> shards = new ConcurrentHashMap<>();
+    private final Set<String> finishedShards = ConcurrentHashMap.newKeySet();
+    private volatile Map<String, Map<String, AttributeValue>> checkpoints;
+    private volatile String streamArn;
+
+    private final LongAdder recordsRead = new LongAdder();
+    private final LongAdder statusChanges = new LongAdder();
+    private volatile long lagMillis = -1;
+
+    private void onStart(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        if (!ordersConfig.getEventsEnabled()) {
+            return;
+        }
+        readers.scheduleWithFixedDelay(this::discoverShards, 0, ordersConfig.getEventsShardRefreshSeconds(), TimeUnit.SECONDS);
+    }
+
+    private void discoverShards() {
+        try {
+            if (streamArn == null) {
+                TableDescription table = clientRegistry.backgroundClient().describeTable(DescribeTableRequest.builder()
+                        .tableName(clientRegistry.tableName())
+                        .build()).table();
+                if (table.latestStreamArn() == null) {
+                    LOGGER.warning("Table " + clientRegistry.tableName() + " has no stream, order events are off");
+                    return;
+                }
+                if (table.streamSpecification() != null
+                        && table.streamSpecification().streamViewType() != StreamViewType.NEW_AND_OLD_IMAGES) {
+                    LOGGER.warning("Order events need a NEW_AND_OLD_IMAGES stream, every modification will be reported");
+                }
+                streamArn = table.latestStreamArn();
+            }
+            boolean initial = checkpoints == null;
+            if (initial) {
+                checkpoints = loadCheckpoints();
+            }
+
+            DynamoDbStreamsClient streams = clientRegistry.streamsClient();
+            List<Shard> all = new ArrayList<>();
+            String lastShardId = null;
+            do {
+                StreamDescription stream = streams.describeStream(DescribeStreamRequest.builder()
+                        .streamArn(streamArn)
+                        .exclusiveStartShardId(lastShardId)
+                        .build()).streamDescription();
+                all.addAll(stream.shards());
+                lastShardId = stream.lastEvaluatedShardId();
+            } while (lastShardId != null);
+
+            Set<String> known = new HashSet<>();
+            for (Shard shard : all) {
+                known.add(shard.shardId());
+            }
+            // Repeated, so that a child whose parent was settled in the same pass starts right away
+            boolean progress;
+            do {
+                progress = false;
+                for (Shard shard : all) {
+                    String shardId = shard.shardId();
+                    if (shards.containsKey(shardId) || finishedShards.contains(shardId)) {
+                        continue;
+                    }
+                    String parent = shard.parentShardId();
+                    if (parent != null && known.contains(parent) && !finishedShards.contains(parent)) {
+                        // Children wait for their parent
+                        continue;
+                    }
+                    settle(shard, initial);
+                    progress = true;
+                }
+            } while (progress);
+        } catch (ResourceNotFoundException e) {
+            LOGGER.warning("Order stream " + streamArn + " no longer exists, looking for the current one");
+            streamArn = null;
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Order stream shard discovery failed", e);
+        }
+    }
+
+    private void settle(Shard shard, boolean initial) {
+        String shardId = shard.shardId();
+        Map<String, AttributeValue> checkpoint = checkpoints.get(shardId);
+        boolean closed = shard.sequenceNumberRange() != null && shard.sequenceNumberRange().endingSequenceNumber() != null;
+        if (checkpoint != null && checkpoint.containsKey("Finished")) {
+            finishedShards.add(shardId);
+        } else if (checkpoint != null && checkpoint.containsKey("SequenceNumber")) {
+            start(new ShardReader(shardId, ShardIteratorType.AFTER_SEQUENCE_NUMBER,
+                    unpad(checkpoint.get("SequenceNumber").s())));
+        } else if (!initial) {
+            start(new ShardReader(shardId, ShardIteratorType.TRIM_HORIZON, null));
+        } else if (closed) {
+            // History from before this consumer existed
+            finishedShards.add(shardId);
+        } else {
+            start(new ShardReader(shardId, ShardIteratorType.LATEST, null));
+        }
+    }
+
+    private void start(ShardReader reader) {
+        shards.put(reader.shardId, reader);
+        readers.execute(reader::poll);
+    }
+
+    private Map<String, Map<String, AttributeValue>> loadCheckpoints() {
+        Map<String, AttributeValue> expressionAttributeValues = new HashMap<>();
+        expressionAttributeValues.put(":partition", AttributeValue.builder().s(checkpointPartition()).build());
+        Map<String, Map<String, AttributeValue>> loaded = new ConcurrentHashMap<>();
+        Map<String, AttributeValue> exclusiveStartKey = null;
+        do {
+            QueryResponse response = clientRegistry.backgroundClient().query(QueryRequest.builder()
+                    .tableName(clientRegistry.tableName())
+                    .keyConditionExpression("UserId = :partition")
+                    .expressionAttributeValues(expressionAttributeValues)
+                    .consistentRead(true)
+                    .exclusiveStartKey(exclusiveStartKey)
+                    .build());
+            for (Map<String, AttributeValue> item : response.items()) {
+                loaded.put(item.get("HashKey").s(), item);
+            }
+            exclusiveStartKey = response.hasLastEvaluatedKey() ? response.lastEvaluatedKey() : null;
+        } while (exclusiveStartKey != null);
+        return loaded;
+    }
+
+    private String checkpointPartition() {
+        return PARTITION_PREFIX + ordersConfig.getEventsConsumerName();
+    }
+
+    private void checkpoint(String shardId, String sequenceNumber, boolean finished) {
+        Map<String, AttributeValue> key = new HashMap<>();
+        key.put("UserId", AttributeValue.builder().s(checkpointPartition()).build());
+        key.put("HashKey", AttributeValue.builder().s(shardId).build());
+
+        Map<String, AttributeValue> expressionAttributeValues = new HashMap<>();
+        expressionAttributeValues.put(":now", AttributeValue.builder().s(Instant.now().toString()).build());
+        String update = "SET UpdatedAt = :now";
+        String condition = null;
+        if (sequenceNumber != null) {
+            expressionAttributeValues.put(":seq", AttributeValue.builder().s(pad(sequenceNumber)).build());
+            update += ", SequenceNumber = :seq";
+            condition = "attribute_not_exists(SequenceNumber) OR SequenceNumber < :seq";
+        }
+        if (finished) {
+            // A finished shard is never read again, whichever pod got further
+            expressionAttributeValues.put(":finished", AttributeValue.builder().bool(true).build());
+            update += ", Finished = :finished";
+            condition = null;
+        }
+        try {
+            clientRegistry.backgroundClient().updateItem(UpdateItemRequest.builder()
+                    .tableName(clientRegistry.tableName())
+                    .key(key)
+                    .updateExpression(update)
+                    .conditionExpression(condition)
+                    .expressionAttributeValues(expressionAttributeValues)
+                    .build());
+        } catch (ConditionalCheckFailedException e) {
+            // Another pod already checkpointed further
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to checkpoint order stream shard " + shardId, e);
+        }
+    }
+
+    private static String pad(String sequenceNumber) {
+        StringBuilder padded = new StringBuilder(SEQUENCE_DIGITS);
+        for (int i = sequenceNumber.length(); i < SEQUENCE_DIGITS; i++) {
+            padded.append('0');
+        }
+        return padded.append(sequenceNumber).toString();
+    }
+
+    private static String unpad(String padded) {
+        int start = 0;
+        while (start < padded.length() - 1 && padded.charAt(start) == '0') {
+            start++;
+        }
+        return padded.substring(start);
+    }
+
+    private void handle(software.amazon.awssdk.services.dynamodb.model.Record record) {
+        StreamRecord change = record.dynamodb();
+        if (!change.hasNewImage()) {
+            return;
+        }
+        Map<String, AttributeValue> order = change.newImage();
+        AttributeValue userId = order.get("UserId");
+        AttributeValue status = order.get("OrderStatus");
+        if (userId == null || status == null || order.get("HashKey") == null || isReserved(userId.s())) {
+            return;
+        }
+        AttributeValue previous = change.hasOldImage() ? change.oldImage().get("OrderStatus") : null;
+        if (previous != null && previous.s().equals(status.s())) {
+            return;
+        }
+        statusChanges.increment();
+        if (change.approximateCreationDateTime() != null) {
+            lagMillis = System.currentTimeMillis() - change.approximateCreationDateTime().toEpochMilli();
+        }
+
+        orderReadCoalescer.forget(userId.s());
+        orderHistoryCache.invalidate(userId.s());
+        if (record.eventName() == OperationType.MODIFY && ordersConfig.getEtagEnabled()) {
+            // Checkout bumps the version itself; changes made elsewhere have to be bumped here
+            orderVersionStore.incrementForRecord(userId.s(), pad(change.sequenceNumber())).exceptionally(e -> {
+                LOGGER.log(Level.WARNING, "Failed to bump the order version after a status change", e);
+                return null;
+            });
+        }
+
+        JsonObject event = new JsonObject();
+        event.addProperty("hashKey", order.get("HashKey").s());
+        event.addProperty("status", status.s());
+        if (previous != null) {
+            event.addProperty("previousStatus", previous.s());
+        }
+        if (order.get("TimeStamp") != null) {
+            event.addProperty("timeStamp", order.get("TimeStamp").s());
+        }
+        if (change.approximateCreationDateTime() != null) {
+            event.addProperty("changedAt", change.approximateCreationDateTime().toString());
+        }
+        eventHub.publish(userId.s(), "order-status", change.sequenceNumber(), event.toString());
+    }
+
+    private static boolean isReserved(String userId) {
+        for (String prefix : RESERVED_PREFIXES) {
+            if (userId.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @PreDestroy
+    private void close() {
+        readers.shutdownNow();
+    }
+
+    @Gauge(name = "orderStreamShards", unit = MetricUnits.NONE, description = "Order stream shards this pod is reading")
+    public long getShards() {
+        return shards.size();
+    }
+
+    @Gauge(name = "orderStreamRecordsRead", unit = MetricUnits.NONE, description = "Order stream records read")
+    public long getRecordsRead() {
+        return recordsRead.sum();
+    }
+
+    @Gauge(name = "orderStatusChanges", unit = MetricUnits.NONE, description = "Order status changes seen on the order stream")
+    public long getStatusChanges() {
+        return statusChanges.sum();
+    }
+
+    @Gauge(name = "orderStreamLag", unit = MetricUnits.MILLISECONDS, description = "Age of the last status change when it was read from the stream")
+    public long getLag() {
+        return lagMillis;
+    }
+
+    private class ShardReader {
+        private final String shardId;
+        private final ShardIteratorType startType;
+        private String iterator;
+        private String sequenceNumber;
+        private String checkpointed;
+        private long checkpointedAt = System.nanoTime();
+
+        private ShardReader(String shardId, ShardIteratorType startType, String sequenceNumber) {
+            this.shardId = shardId;
+            this.startType = startType;
+            this.sequenceNumber = sequenceNumber;
+            this.checkpointed = sequenceNumber;
+        }
+
+        private void poll() {
+            long delayMs = ordersConfig.getEventsPollIntervalMs();
+            try {
+                DynamoDbStreamsClient streams = clientRegistry.streamsClient();
+                if (iterator == null) {
+                    GetShardIteratorRequest.Builder request = GetShardIteratorRequest.builder()
+                            .streamArn(streamArn)
+                            .shardId(shardId);
+                    if (sequenceNumber != null) {
+                        request.shardIteratorType(ShardIteratorType.AFTER_SEQUENCE_NUMBER).sequenceNumber(sequenceNumber);
+                    } else {
+                        request.shardIteratorType(startType);
+                    }
+                    iterator = streams.getShardIterator(request.build()).shardIterator();
+                }
+                GetRecordsResponse response = streams.getRecords(GetRecordsRequest.builder()
+                        .shardIterator(iterator)
+                        .limit(ordersConfig.getEventsBatchSize())
+                        .build());
+                for (software.amazon.awssdk.services.dynamodb.model.Record record : response.records()) {
+                    handle(record);
+                    sequenceNumber = record.dynamodb().sequenceNumber();
+                }
+                recordsRead.add(response.records().size());
+                iterator = response.nextShardIterator();
+
+                if (iterator == null) {
+                    checkpoint(shardId, sequenceNumber, true);
+                    finishedShards.add(shardId);
+                    shards.remove(shardId);
+                    LOGGER.fine("Order stream shard " + shardId + " finished");
+                    return;
+                }
+                if (sequenceNumber != null && !sequenceNumber.equals(checkpointed)
+                        && System.nanoTime() - checkpointedAt > TimeUnit.SECONDS.toNanos(ordersConfig.getEventsCheckpointIntervalSeconds())) {
+                    checkpoint(shardId, sequenceNumber, false);
+                    checkpointed = sequenceNumber;
+                    checkpointedAt = System.nanoTime();
+                }
+                if (!response.records().isEmpty()) {
+                    delayMs = 0;
+                }
+            } catch (ExpiredIteratorException e) {
+                iterator = null;
+                delayMs = 0;
+            } catch (TrimmedDataAccessException e) {
+                LOGGER.warning("Order stream shard " + shardId + " was trimmed past its checkpoint, continuing at the oldest record");
+                iterator = null;
+                sequenceNumber = null;
+                delayMs = 0;
+            } catch (ResourceNotFoundException e) {
+                LOGGER.warning("Order stream shard " + shardId + " no longer exists");
+                shards.remove(shardId);
+                finishedShards.add(shardId);
+                return;
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Reading order stream shard " + shardId + " failed", e);
+                iterator = null;
+                delayMs = ordersConfig.getEventsErrorBackoffMs();
+            }
+            if (!readers.isShutdown()) {
+                readers.schedule(this::poll, delayMs, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+}
@@ -0,0 +1,214 @@
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Migrates an existing orders table to time-ordered listings:
+ *
+ * <ol>
+ *     <li>Creates the global index on {@code UserId} and {@code TimeStamp}. DynamoDB backfills
+ *     it from the orders already in the table.</li>
+ *     <li>Sets {@code StatusTime} on the orders written before checkout started storing it,
+ *     with a parallel segmented Scan. Each update is conditional on the order's status, so a
+ *     concurrent status change is never overwritten.</li>
+ *     <li>Creates the global index on {@code UserId} and {@code StatusTime}.</li>
+ * </ol>
+ *
+ * <p>DynamoDB builds one index at a time per {@code UpdateTable}, so the job waits for each
+ * index to become ACTIVE. Indexes that already exist, including local indexes defined with a
+ * new table, are left alone. Every step can be re-run. Turn {@code time-index.enabled} on
+ * once the job has finished.
+ */
+@ApplicationScoped
+public class OrderTimeIndexMigration {
+
+    private static final Logger LOGGER = Logger.getLogger(OrderTimeIndexMigration.class.getName());
+    private static final long INDEX_POLL_MS = 30000;
+
+    @Inject
+    private DynamoDbClientRegistry clientRegistry;
+
+    @Inject
+    private OrdersConfigProperties ordersConfig;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong backfilledItems = new AtomicLong();
+
+    /**
+     * Starts the migration in the background.
+     *
+     * @return {@code false} if a migration is already running on this pod
+     */
+    public boolean start() {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        backfilledItems.set(0);
+        Thread job = new Thread(() -> {
+            try {
+                run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.SEVERE, "Time index migration failed", e);
+            } finally {
+                running.set(false);
+            }
+        }, "order-time-index-migration");
+        job.setDaemon(true);
+        job.start();
+        return true;
+    }
+
+    private void run() throws InterruptedException {
+        LOGGER.info("Time index migration started");
+        createIndex(ordersConfig.getTimeIndexName(), "TimeStamp");
+        backfillStatusTime();
+        createIndex(ordersConfig.getTimeIndexStatusName(), OrderRepository.STATUS_TIME);
+        LOGGER.info("Time index migration finished, " + backfilledItems.get() + " orders backfilled");
+    }
+
+    private void createIndex(String indexName, String sortKey) throws InterruptedException {
+        DynamoDbClient client = clientRegistry.backgroundClient();
+        TableDescription table = describe(client);
+        for (LocalSecondaryIndexDescription index : table.localSecondaryIndexes()) {
+            if (index.indexName().equals(indexName)) {
+                return;
+            }
+        }
+        if (findIndex(table, indexName) == null) {
+            CreateGlobalSecondaryIndexAction.Builder create = CreateGlobalSecondaryIndexAction.builder()
+                    .indexName(indexName)
+                    .keySchema(KeySchemaElement.builder().attributeName("UserId").keyType(KeyType.HASH).build(),
+                            KeySchemaElement.builder().attributeName(sortKey).keyType(KeyType.RANGE).build())
+                    .projection(Projection.builder().projectionType(ProjectionType.ALL).build());
+            boolean onDemand = table.billingModeSummary() != null
+                    && table.billingModeSummary().billingMode() == BillingMode.PAY_PER_REQUEST;
+            if (!onDemand) {
+                create.provisionedThroughput(ProvisionedThroughput.builder()
+                        .readCapacityUnits(table.provisionedThroughput().readCapacityUnits())
+                        .writeCapacityUnits(table.provisionedThroughput().writeCapacityUnits())
+                        .build());
+            }
+            client.updateTable(UpdateTableRequest.builder()
+                    .tableName(clientRegistry.tableName())
+                    .attributeDefinitions(
+                            AttributeDefinition.builder().attributeName("UserId").attributeType(ScalarAttributeType.S).build(),
+                            AttributeDefinition.builder().attributeName(sortKey).attributeType(ScalarAttributeType.S).build())
+                    .globalSecondaryIndexUpdates(GlobalSecondaryIndexUpdate.builder().create(create.build()).build())
+                    .build());
+            LOGGER.info("Creating index " + indexName);
+        }
+        while (true) {
+            GlobalSecondaryIndexDescription index = findIndex(describe(client), indexName);
+            if (index != null && index.indexStatus() == IndexStatus.ACTIVE) {
+                LOGGER.info("Index " + indexName + " is active");
+                return;
+            }
+            Thread.sleep(INDEX_POLL_MS);
+        }
+    }
+
+    private TableDescription describe(DynamoDbClient client) {
+        return client.describeTable(DescribeTableRequest.builder().tableName(clientRegistry.tableName()).build()).table();
+    }
+
+    private static GlobalSecondaryIndexDescription findIndex(TableDescription table, String indexName) {
+        for (GlobalSecondaryIndexDescription index : table.globalSecondaryIndexes()) {
+            if (index.indexName().equals(indexName)) {
+                return index;
+            }
+        }
+        return null;
+    }
+
+    private void backfillStatusTime() throws InterruptedException {
+        int segments = ordersConfig.getTimeIndexBackfillSegments();
+        ExecutorService scanners = Executors.newFixedThreadPool(segments);
+        try {
+            List<Future<?>> scans = new ArrayList<>(segments);
+            for (int segment = 0; segment < segments; segment++) {
+                int current = segment;
+                scans.add(scanners.submit(() -> backfillSegment(current, segments)));
+            }
+            for (Future<?> scan : scans) {
+                scan.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("StatusTime backfill failed", e.getCause());
+        } finally {
+            scanners.shutdownNow();
+        }
+    }
+
+    private void backfillSegment(int segment, int totalSegments) {
+        Map<String, String> expressionAttributeNames = new HashMap<>();
+        expressionAttributeNames.put("#T", "TimeStamp");
+        expressionAttributeNames.put("#ST", OrderRepository.STATUS_TIME);
+
+        Map<String, AttributeValue> exclusiveStartKey = null;
+        do {
+            ScanResponse response = clientRegistry.backgroundClient().scan(ScanRequest.builder()
+                    .tableName(clientRegistry.tableName())
+                    .segment(segment)
+                    .totalSegments(totalSegments)
+                    .projectionExpression("UserId, HashKey, #T, OrderStatus")
+                    .filterExpression("attribute_exists(#T) AND attribute_exists(OrderStatus) AND attribute_not_exists(#ST)")
+                    .expressionAttributeNames(expressionAttributeNames)
+                    .exclusiveStartKey(exclusiveStartKey)
+                    .build());
+            for (Map<String, AttributeValue> order : response.items()) {
+                setStatusTime(order);
+            }
+            exclusiveStartKey = response.hasLastEvaluatedKey() ? response.lastEvaluatedKey() : null;
+        } while (exclusiveStartKey != null);
+    }
+
+    private void setStatusTime(Map<String, AttributeValue> order) {
+        Map<String, AttributeValue> key = new HashMap<>();
+        key.put("UserId", order.get("UserId"));
+        key.put("HashKey", order.get("HashKey"));
+
+        Map<String, String> expressionAttributeNames = new HashMap<>();
+        expressionAttributeNames.put("#ST", OrderRepository.STATUS_TIME);
+
+        String status = order.get("OrderStatus").s();
+        Map<String, AttributeValue> expressionAttributeValues = new HashMap<>();
+        expressionAttributeValues.put(":status", AttributeValue.builder().s(status).build());
+        expressionAttributeValues.put(":statusTime", AttributeValue.builder()
+                .s(OrderRepository.statusTime(status, order.get("TimeStamp").s())).build());
+        try {
+            clientRegistry.backgroundClient().updateItem(UpdateItemRequest.builder()
+                    .tableName(clientRegistry.tableName())
+                    .key(key)
+                    .updateExpression("SET #ST = :statusTime")
+                    .conditionExpression("OrderStatus = :status")
+                    .expressionAttributeNames(expressionAttributeNames)
+                    .expressionAttributeValues(expressionAttributeValues)
+                    .build());
+            backfilledItems.incrementAndGet();
+        } catch (ConditionalCheckFailedException e) {
+            // The status changed meanwhile; whoever changed it also set StatusTime
+            LOGGER.fine("Order " + key + " changed status during the StatusTime backfill");
+        }
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    @Gauge(name = "orderTimeIndexBackfilledItems", unit = MetricUnits.NONE, description = "Orders given a StatusTime by the current or last time index migration")
+    public long getBackfilledItems() {
+        return backfilledItems.get();
+    }
+}
@@ -0,0 +1,131 @@
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Per-user version of the order history, which order listings turn into their {@code ETag}.
+ * Checkout, the bulk status update and status changes read from the order stream increment it,
+ * so any change to a user's orders changes every ETag of that user.
+ *
+ * <p>The marker is one small item per user in its own {@code VERSION#<userId>} partition, away
+ * from the orders. Reads are cached in a bounded LRU for {@code etag.version-ttl-ms}, so while
+ * a client polls, revalidation costs no DynamoDB call at all. Increments made on this pod are
+ * visible at once; increments made on another pod show up here within the TTL.
+ */
+@ApplicationScoped
+public class OrderVersionStore {
+
+    static final String PARTITION_PREFIX = "VERSION#";
+    private static final String VERSION_KEY = "VERSION";
+
+    @Inject
+    private OrderRepository orderRepository;
+
+    @Inject
+    private OrdersConfigProperties ordersConfig;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, CachedVersion> versions = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public CompletionStage<Long> current(String userId) {
+        long now = System.nanoTime();
+        lock.lock();
+        try {
+            CachedVersion cached = versions.get(userId);
+            if (cached != null && cached.expiresAt - now > 0) {
+                hits.incrementAndGet();
+                return CompletableFuture.completedFuture(cached.version);
+            }
+        } finally {
+            lock.unlock();
+        }
+        misses.incrementAndGet();
+        return orderRepository.readVersion(key(userId)).thenApply(version -> remember(userId, version));
+    }
+
+    public CompletionStage<Long> increment(String userId) {
+        return orderRepository.incrementVersion(key(userId)).thenApply(version -> remember(userId, version));
+    }
+
+    /**
+     * Increments the version for a change read from the order stream. Every pod reads the
+     * record, but only the first to apply it moves the version; the others drop their cached
+     * version so that their next revalidation reads the new one.
+     *
+     * @param sequence the record's zero-padded stream sequence number
+     */
+    public CompletionStage<Void> incrementForRecord(String userId, String sequence) {
+        return orderRepository.incrementVersion(key(userId), sequence).thenAccept(version -> {
+            if (version != null) {
+                remember(userId, version);
+                return;
+            }
+            lock.lock();
+            try {
+                versions.remove(userId);
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+
+    private long remember(String userId, long version) {
+        long expiresAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ordersConfig.getEtagVersionTtlMs());
+        int maxUsers = ordersConfig.getEtagVersionCacheMaxUsers();
+        lock.lock();
+        try {
+            CachedVersion cached = versions.get(userId);
+            // A slower read must not replace a newer version
+            if (cached == null || cached.version <= version) {
+                versions.put(userId, new CachedVersion(version, expiresAt));
+            }
+            while (versions.size() > maxUsers) {
+                versions.remove(versions.keySet().iterator().next());
+            }
+        } finally {
+            lock.unlock();
+        }
+        return version;
+    }
+
+    private static Map<String, AttributeValue> key(String userId) {
+        Map<String, AttributeValue> key = new HashMap<>();
+        key.put("UserId", AttributeValue.builder().s(PARTITION_PREFIX + userId).build());
+        key.put("HashKey", AttributeValue.builder().s(VERSION_KEY).build());
+        return key;
+    }
+
+    @Gauge(name = "orderVersionCacheHits", unit = MetricUnits.NONE, description = "Order version lookups served from memory")
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Gauge(name = "orderVersionCacheMisses", unit = MetricUnits.NONE, description = "Order version lookups read from DynamoDB")
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private static class CachedVersion {
+        private final long version;
+        private final long expiresAt;
+
+        private CachedVersion(long version, long expiresAt) {
+            this.version = version;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
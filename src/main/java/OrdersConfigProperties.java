@@ -0,0 +1,1177 @@
+import com.kumuluz.ee.configuration.cdi.ConfigBundle;
+import com.kumuluz.ee.configuration.cdi.ConfigValue;
+
+import javax.enterprise.context.ApplicationScoped;
+
+@ApplicationScoped
+@ConfigBundle("orders-config")
+public class OrdersConfigProperties {
+
+    // pagination
+
+    @ConfigValue(value = "page-token-secret", watch = true)
+    private String pageTokenSecret;
+
+    @ConfigValue(value = "max-page-size", watch = true)
+    private Integer maxPageSize = 100;
+
+    @ConfigValue(value = "page-token-secret-required")
+    private Boolean pageTokenSecretRequired = false;
+
+    @ConfigValue(value = "order-list-as-string", watch = true)
+    private Boolean orderListAsString = true;
+
+    // execution
+
+    @ConfigValue(value = "async-io", watch = true)
+    private Boolean asyncIo = false;
+
+    // order history cache
+
+    @ConfigValue(value = "cache.enabled", watch = true)
+    private Boolean cacheEnabled = true;
+
+    @ConfigValue(value = "cache.max-users", watch = true)
+    private Integer cacheMaxUsers = 10000;
+
+    @ConfigValue(value = "cache.max-weight-bytes", watch = true)
+    private Long cacheMaxWeightBytes = 64L * 1024 * 1024;
+
+    @ConfigValue(value = "cache.ttl-seconds", watch = true)
+    private Integer cacheTtlSeconds = 30;
+
+    // group commit
+
+    @ConfigValue(value = "group-commit.enabled")
+    private Boolean groupCommitEnabled = false;
+
+    @ConfigValue(value = "group-commit.max-batch-size", watch = true)
+    private Integer groupCommitMaxBatchSize = 25;
+
+    @ConfigValue(value = "group-commit.linger-ms", watch = true)
+    private Integer groupCommitLingerMs = 5;
+
+    @ConfigValue(value = "group-commit.flush-concurrency")
+    private Integer groupCommitFlushConcurrency = 4;
+
+    @ConfigValue(value = "group-commit.max-attempts", watch = true)
+    private Integer groupCommitMaxAttempts = 8;
+
+    @ConfigValue(value = "group-commit.ack-on-journal", watch = true)
+    private Boolean groupCommitAckOnJournal = false;
+
+    @ConfigValue(value = "group-commit.journal-path")
+    private String groupCommitJournalPath = "/var/lib/orders/group-commit.journal";
+
+    @ConfigValue(value = "group-commit.journal-size-mb")
+    private Integer groupCommitJournalSizeMb = 64;
+
+    @ConfigValue(value = "group-commit.journal-force")
+    private Boolean groupCommitJournalForce = false;
+
+    // idempotent checkout
+
+    @ConfigValue(value = "idempotency.cache-max-keys", watch = true)
+    private Integer idempotencyCacheMaxKeys = 10000;
+
+    @ConfigValue(value = "idempotency.cache-ttl-seconds", watch = true)
+    private Integer idempotencyCacheTtlSeconds = 3600;
+
+    // cart clear outbox
+
+    @ConfigValue(value = "cart-outbox.enabled")
+    private Boolean cartOutboxEnabled = true;
+
+    @ConfigValue(value = "cart-outbox.journal-path")
+    private String cartOutboxJournalPath = "/var/lib/orders/cart-outbox.journal";
+
+    @ConfigValue(value = "cart-outbox.journal-size-mb")
+    private Integer cartOutboxJournalSizeMb = 16;
+
+    @ConfigValue(value = "cart-outbox.concurrency")
+    private Integer cartOutboxConcurrency = 8;
+
+    @ConfigValue(value = "cart-outbox.max-attempts", watch = true)
+    private Integer cartOutboxMaxAttempts = 10;
+
+    @ConfigValue(value = "cart-outbox.backoff-base-ms", watch = true)
+    private Integer cartOutboxBackoffBaseMs = 200;
+
+    @ConfigValue(value = "cart-outbox.backoff-max-ms", watch = true)
+    private Integer cartOutboxBackoffMaxMs = 30000;
+
+    @ConfigValue(value = "cart-outbox.breaker-failure-threshold", watch = true)
+    private Integer cartOutboxBreakerFailureThreshold = 5;
+
+    @ConfigValue(value = "cart-outbox.breaker-open-ms", watch = true)
+    private Integer cartOutboxBreakerOpenMs = 10000;
+
+    // order list storage
+
+    @ConfigValue(value = "order-list-native", watch = true)
+    private Boolean orderListNative = true;
+
+    // order statistics
+
+    @ConfigValue(value = "stats.enabled", watch = true)
+    private Boolean statsEnabled = false;
+
+    @ConfigValue(value = "stats.cache-ttl-seconds", watch = true)
+    private Integer statsCacheTtlSeconds = 60;
+
+    @ConfigValue(value = "stats.cache-max-scopes", watch = true)
+    private Integer statsCacheMaxScopes = 10000;
+
+    @ConfigValue(value = "stats.max-range-days", watch = true)
+    private Integer statsMaxRangeDays = 366;
+
+    @ConfigValue(value = "stats.backfill-segments", watch = true)
+    private Integer statsBackfillSegments = 4;
+
+    @ConfigValue(value = "admin-group", watch = true)
+    private String adminGroup = "admin";
+
+    // export
+
+    @ConfigValue(value = "export.default-segments", watch = true)
+    private Integer exportDefaultSegments = 8;
+
+    @ConfigValue(value = "export.max-segments", watch = true)
+    private Integer exportMaxSegments = 64;
+
+    @ConfigValue(value = "export.max-workers", watch = true)
+    private Integer exportMaxWorkers = 4;
+
+    @ConfigValue(value = "export.page-size", watch = true)
+    private Integer exportPageSize = 500;
+
+    @ConfigValue(value = "export.max-read-units-per-second", watch = true)
+    private Integer exportMaxReadUnitsPerSecond = 200;
+
+    @ConfigValue(value = "export.max-concurrent")
+    private Integer exportMaxConcurrent = 1;
+
+    // execution
+
+    @ConfigValue(value = "execution.mode")
+    private String executionMode = "platform";
+
+    @ConfigValue(value = "execution.pinned-threshold-ms")
+    private Integer executionPinnedThresholdMs = 20;
+
+    // payload logging
+
+    @ConfigValue(value = "payload-logging.sample-rate", watch = true)
+    private Double payloadLogSampleRate = 0.0;
+
+    @ConfigValue(value = "payload-logging.max-chars", watch = true)
+    private Integer payloadLogMaxChars = 2000;
+
+    // concurrency limiter
+
+    @ConfigValue(value = "limiter.read-initial-limit")
+    private Integer limiterReadInitialLimit = 20;
+
+    @ConfigValue(value = "limiter.checkout-initial-limit")
+    private Integer limiterCheckoutInitialLimit = 20;
+
+    @ConfigValue(value = "limiter.min-limit", watch = true)
+    private Integer limiterMinLimit = 4;
+
+    @ConfigValue(value = "limiter.max-limit", watch = true)
+    private Integer limiterMaxLimit = 200;
+
+    @ConfigValue(value = "limiter.backoff-ratio", watch = true)
+    private Double limiterBackoffRatio = 0.7;
+
+    @ConfigValue(value = "limiter.smoothing", watch = true)
+    private Double limiterSmoothing = 0.2;
+
+    @ConfigValue(value = "limiter.retry-after-seconds", watch = true)
+    private Integer limiterRetryAfterSeconds = 1;
+
+    // health
+
+    @ConfigValue(value = "health.describe-interval-seconds")
+    private Integer healthDescribeIntervalSeconds = 60;
+
+    @ConfigValue(value = "health.probe-interval-seconds")
+    private Integer healthProbeIntervalSeconds = 10;
+
+    @ConfigValue(value = "health.max-staleness-seconds", watch = true)
+    private Integer healthMaxStalenessSeconds = 180;
+
+    @ConfigValue(value = "health.max-probe-latency-ms", watch = true)
+    private Integer healthMaxProbeLatencyMs = 1000;
+
+    @ConfigValue(value = "health.liveness-max-stall-seconds", watch = true)
+    private Integer healthLivenessMaxStallSeconds = 300;
+
+    // time index
+
+    @ConfigValue(value = "time-index.enabled", watch = true)
+    private Boolean timeIndexEnabled = false;
+
+    @ConfigValue(value = "time-index.name")
+    private String timeIndexName = "UserId-TimeStamp-index";
+
+    @ConfigValue(value = "time-index.status-name")
+    private String timeIndexStatusName = "UserId-StatusTime-index";
+
+    @ConfigValue(value = "time-index.backfill-segments")
+    private Integer timeIndexBackfillSegments = 4;
+
+    // etag
+
+    @ConfigValue(value = "etag.enabled", watch = true)
+    private Boolean etagEnabled = true;
+
+    @ConfigValue(value = "etag.version-ttl-ms", watch = true)
+    private Long etagVersionTtlMs = 1000L;
+
+    @ConfigValue(value = "etag.version-cache-max-users", watch = true)
+    private Integer etagVersionCacheMaxUsers = 100000;
+
+    // compression
+
+    @ConfigValue(value = "compression.enabled", watch = true)
+    private Boolean compressionEnabled = true;
+
+    @ConfigValue(value = "compression.min-bytes", watch = true)
+    private Integer compressionMinBytes = 1024;
+
+    @ConfigValue(value = "compression.level", watch = true)
+    private Integer compressionLevel = 1;
+
+    // coalescing
+
+    @ConfigValue(value = "coalescing.enabled", watch = true)
+    private Boolean coalescingEnabled = true;
+
+    // hedge
+
+    @ConfigValue(value = "hedge.enabled", watch = true)
+    private Boolean hedgeEnabled = true;
+
+    @ConfigValue(value = "hedge.percentile", watch = true)
+    private Double hedgePercentile = 95.0;
+
+    @ConfigValue(value = "hedge.min-delay-ms", watch = true)
+    private Integer hedgeMinDelayMs = 5;
+
+    @ConfigValue(value = "hedge.max-delay-ms", watch = true)
+    private Integer hedgeMaxDelayMs = 200;
+
+    @ConfigValue(value = "hedge.budget-percent", watch = true)
+    private Double hedgeBudgetPercent = 10.0;
+
+    @ConfigValue(value = "hedge.budget-burst", watch = true)
+    private Double hedgeBudgetBurst = 10.0;
+
+    @ConfigValue(value = "hedge.ewma-alpha", watch = true)
+    private Double hedgeEwmaAlpha = 0.2;
+
+    @ConfigValue(value = "hedge.sticky-after-write-ms", watch = true)
+    private Integer hedgeStickyAfterWriteMs = 5000;
+
+    @ConfigValue(value = "hedge.sticky-max-users", watch = true)
+    private Integer hedgeStickyMaxUsers = 100000;
+
+    // startup
+
+    @ConfigValue(value = "startup.warm-up-enabled")
+    private Boolean startupWarmUpEnabled = true;
+
+    @ConfigValue(value = "startup.warm-up-iterations")
+    private Integer startupWarmUpIterations = 2000;
+
+    @ConfigValue(value = "startup.warm-up-connections")
+    private Integer startupWarmUpConnections = 8;
+
+    @ConfigValue(value = "startup.warm-up-max-seconds")
+    private Integer startupWarmUpMaxSeconds = 60;
+
+    @ConfigValue(value = "startup.first-requests-seconds")
+    private Integer startupFirstRequestsSeconds = 60;
+
+    // events
+
+    @ConfigValue(value = "events.enabled")
+    private Boolean eventsEnabled = false;
+
+    @ConfigValue(value = "events.consumer-name")
+    private String eventsConsumerName = "orders-service";
+
+    @ConfigValue(value = "events.shard-refresh-seconds")
+    private Integer eventsShardRefreshSeconds = 30;
+
+    @ConfigValue(value = "events.poll-interval-ms")
+    private Integer eventsPollIntervalMs = 1000;
+
+    @ConfigValue(value = "events.batch-size")
+    private Integer eventsBatchSize = 1000;
+
+    @ConfigValue(value = "events.checkpoint-interval-seconds")
+    private Integer eventsCheckpointIntervalSeconds = 10;
+
+    @ConfigValue(value = "events.error-backoff-ms")
+    private Integer eventsErrorBackoffMs = 5000;
+
+    @ConfigValue(value = "events.queue-capacity")
+    private Integer eventsQueueCapacity = 100;
+
+    @ConfigValue(value = "events.max-streams-per-user")
+    private Integer eventsMaxStreamsPerUser = 5;
+
+    @ConfigValue(value = "events.sender-threads")
+    private Integer eventsSenderThreads = 8;
+
+    @ConfigValue(value = "events.send-timeout-ms")
+    private Integer eventsSendTimeoutMs = 5000;
+
+    @ConfigValue(value = "events.heartbeat-seconds")
+    private Integer eventsHeartbeatSeconds = 15;
+
+    // bulk-update
+
+    @ConfigValue(value = "bulk-update.chunk-size", watch = true)
+    private Integer bulkUpdateChunkSize = 25;
+
+    @ConfigValue(value = "bulk-update.max-workers", watch = true)
+    private Integer bulkUpdateMaxWorkers = 4;
+
+    @ConfigValue(value = "bulk-update.max-capacity-units-per-second", watch = true)
+    private Integer bulkUpdateMaxCapacityUnitsPerSecond = 200;
+
+    @ConfigValue(value = "bulk-update.max-attempts", watch = true)
+    private Integer bulkUpdateMaxAttempts = 5;
+
+    @ConfigValue(value = "bulk-update.max-reported-items", watch = true)
+    private Integer bulkUpdateMaxReportedItems = 1000;
+
+    // token verification
+
+    @ConfigValue(value = "token.issuer", watch = true)
+    private String tokenIssuer = "https://cognito-idp.us-east-1.amazonaws.com/us-east-1_7pGhc7VeN";
+
+    @ConfigValue(value = "token.jwks-uri", watch = true)
+    private String tokenJwksUri = "";
+
+    // getter and setter methods
+
+    public String getPageTokenSecret() {
+        return pageTokenSecret;
+    }
+
+    public void setPageTokenSecret(String pageTokenSecret) {
+        this.pageTokenSecret = pageTokenSecret;
+    }
+
+    public Boolean getPageTokenSecretRequired() {
+        return pageTokenSecretRequired;
+    }
+
+    public void setPageTokenSecretRequired(Boolean pageTokenSecretRequired) {
+        this.pageTokenSecretRequired = pageTokenSecretRequired;
+    }
+
+    public Integer getMaxPageSize() {
+        return maxPageSize;
+    }
+
+    public void setMaxPageSize(Integer maxPageSize) {
+        this.maxPageSize = maxPageSize;
+    }
+
+    public Boolean getOrderListAsString() {
+        return orderListAsString;
+    }
+
+    public void setOrderListAsString(Boolean orderListAsString) {
+        this.orderListAsString = orderListAsString;
+    }
+
+    public Boolean getAsyncIo() {
+        return asyncIo;
+    }
+
+    public void setAsyncIo(Boolean asyncIo) {
+        this.asyncIo = asyncIo;
+    }
+
+    public Boolean getCacheEnabled() {
+        return cacheEnabled;
+    }
+
+    public void setCacheEnabled(Boolean cacheEnabled) {
+        this.cacheEnabled = cacheEnabled;
+    }
+
+    public Integer getCacheMaxUsers() {
+        return cacheMaxUsers;
+    }
+
+    public void setCacheMaxUsers(Integer cacheMaxUsers) {
+        this.cacheMaxUsers = cacheMaxUsers;
+    }
+
+    public Long getCacheMaxWeightBytes() {
+        return cacheMaxWeightBytes;
+    }
+
+    public void setCacheMaxWeightBytes(Long cacheMaxWeightBytes) {
+        this.cacheMaxWeightBytes = cacheMaxWeightBytes;
+    }
+
+    public Integer getCacheTtlSeconds() {
+        return cacheTtlSeconds;
+    }
+
+    public void setCacheTtlSeconds(Integer cacheTtlSeconds) {
+        this.cacheTtlSeconds = cacheTtlSeconds;
+    }
+
+    public Boolean getGroupCommitEnabled() {
+        return groupCommitEnabled;
+    }
+
+    public void setGroupCommitEnabled(Boolean groupCommitEnabled) {
+        this.groupCommitEnabled = groupCommitEnabled;
+    }
+
+    public Integer getGroupCommitMaxBatchSize() {
+        return groupCommitMaxBatchSize;
+    }
+
+    public void setGroupCommitMaxBatchSize(Integer groupCommitMaxBatchSize) {
+        this.groupCommitMaxBatchSize = groupCommitMaxBatchSize;
+    }
+
+    public Integer getGroupCommitLingerMs() {
+        return groupCommitLingerMs;
+    }
+
+    public void setGroupCommitLingerMs(Integer groupCommitLingerMs) {
+        this.groupCommitLingerMs = groupCommitLingerMs;
+    }
+
+    public Integer getGroupCommitFlushConcurrency() {
+        return groupCommitFlushConcurrency;
+    }
+
+    public void setGroupCommitFlushConcurrency(Integer groupCommitFlushConcurrency) {
+        this.groupCommitFlushConcurrency = groupCommitFlushConcurrency;
+    }
+
+    public Integer getGroupCommitMaxAttempts() {
+        return groupCommitMaxAttempts;
+    }
+
+    public void setGroupCommitMaxAttempts(Integer groupCommitMaxAttempts) {
+        this.groupCommitMaxAttempts = groupCommitMaxAttempts;
+    }
+
+    public Boolean getGroupCommitAckOnJournal() {
+        return groupCommitAckOnJournal;
+    }
+
+    public void setGroupCommitAckOnJournal(Boolean groupCommitAckOnJournal) {
+        this.groupCommitAckOnJournal = groupCommitAckOnJournal;
+    }
+
+    public String getGroupCommitJournalPath() {
+        return groupCommitJournalPath;
+    }
+
+    public void setGroupCommitJournalPath(String groupCommitJournalPath) {
+        this.groupCommitJournalPath = groupCommitJournalPath;
+    }
+
+    public Integer getGroupCommitJournalSizeMb() {
+        return groupCommitJournalSizeMb;
+    }
+
+    public void setGroupCommitJournalSizeMb(Integer groupCommitJournalSizeMb) {
+        this.groupCommitJournalSizeMb = groupCommitJournalSizeMb;
+    }
+
+    public Boolean getGroupCommitJournalForce() {
+        return groupCommitJournalForce;
+    }
+
+    public void setGroupCommitJournalForce(Boolean groupCommitJournalForce) {
+        this.groupCommitJournalForce = groupCommitJournalForce;
+    }
+
+    public Integer getIdempotencyCacheMaxKeys() {
+        return idempotencyCacheMaxKeys;
+    }
+
+    public void setIdempotencyCacheMaxKeys(Integer idempotencyCacheMaxKeys) {
+        this.idempotencyCacheMaxKeys = idempotencyCacheMaxKeys;
+    }
+
+    public Integer getIdempotencyCacheTtlSeconds() {
+        return idempotencyCacheTtlSeconds;
+    }
+
+    public void setIdempotencyCacheTtlSeconds(Integer idempotencyCacheTtlSeconds) {
+        this.idempotencyCacheTtlSeconds = idempotencyCacheTtlSeconds;
+    }
+
+    public Boolean getCartOutboxEnabled() {
+        return cartOutboxEnabled;
+    }
+
+    public void setCartOutboxEnabled(Boolean cartOutboxEnabled) {
+        this.cartOutboxEnabled = cartOutboxEnabled;
+    }
+
+    public String getCartOutboxJournalPath() {
+        return cartOutboxJournalPath;
+    }
+
+    public void setCartOutboxJournalPath(String cartOutboxJournalPath) {
+        this.cartOutboxJournalPath = cartOutboxJournalPath;
+    }
+
+    public Integer getCartOutboxJournalSizeMb() {
+        return cartOutboxJournalSizeMb;
+    }
+
+    public void setCartOutboxJournalSizeMb(Integer cartOutboxJournalSizeMb) {
+        this.cartOutboxJournalSizeMb = cartOutboxJournalSizeMb;
+    }
+
+    public Integer getCartOutboxConcurrency() {
+        return cartOutboxConcurrency;
+    }
+
+    public void setCartOutboxConcurrency(Integer cartOutboxConcurrency) {
+        this.cartOutboxConcurrency = cartOutboxConcurrency;
+    }
+
+    public Integer getCartOutboxMaxAttempts() {
+        return cartOutboxMaxAttempts;
+    }
+
+    public void setCartOutboxMaxAttempts(Integer cartOutboxMaxAttempts) {
+        this.cartOutboxMaxAttempts = cartOutboxMaxAttempts;
+    }
+
+    public Integer getCartOutboxBackoffBaseMs() {
+        return cartOutboxBackoffBaseMs;
+    }
+
+    public void setCartOutboxBackoffBaseMs(Integer cartOutboxBackoffBaseMs) {
+        this.cartOutboxBackoffBaseMs = cartOutboxBackoffBaseMs;
+    }
+
+    public Integer getCartOutboxBackoffMaxMs() {
+        return cartOutboxBackoffMaxMs;
+    }
+
+    public void setCartOutboxBackoffMaxMs(Integer cartOutboxBackoffMaxMs) {
+        this.cartOutboxBackoffMaxMs = cartOutboxBackoffMaxMs;
+    }
+
+    public Integer getCartOutboxBreakerFailureThreshold() {
+        return cartOutboxBreakerFailureThreshold;
+    }
+
+    public void setCartOutboxBreakerFailureThreshold(Integer cartOutboxBreakerFailureThreshold) {
+        this.cartOutboxBreakerFailureThreshold = cartOutboxBreakerFailureThreshold;
+    }
+
+    public Integer getCartOutboxBreakerOpenMs() {
+        return cartOutboxBreakerOpenMs;
+    }
+
+    public void setCartOutboxBreakerOpenMs(Integer cartOutboxBreakerOpenMs) {
+        this.cartOutboxBreakerOpenMs = cartOutboxBreakerOpenMs;
+    }
+
+    public Boolean getOrderListNative() {
+        return orderListNative;
+    }
+
+    public void setOrderListNative(Boolean orderListNative) {
+        this.orderListNative = orderListNative;
+    }
+
+    public Boolean getStatsEnabled() {
+        return statsEnabled;
+    }
+
+    public void setStatsEnabled(Boolean statsEnabled) {
+        this.statsEnabled = statsEnabled;
+    }
+
+    public Integer getStatsCacheTtlSeconds() {
+        return statsCacheTtlSeconds;
+    }
+
+    public void setStatsCacheTtlSeconds(Integer statsCacheTtlSeconds) {
+        this.statsCacheTtlSeconds = statsCacheTtlSeconds;
+    }
+
+    public Integer getStatsCacheMaxScopes() {
+        return statsCacheMaxScopes;
+    }
+
+    public void setStatsCacheMaxScopes(Integer statsCacheMaxScopes) {
+        this.statsCacheMaxScopes = statsCacheMaxScopes;
+    }
+
+    public Integer getStatsMaxRangeDays() {
+        return statsMaxRangeDays;
+    }
+
+    public void setStatsMaxRangeDays(Integer statsMaxRangeDays) {
+        this.statsMaxRangeDays = statsMaxRangeDays;
+    }
+
+    public Integer getStatsBackfillSegments() {
+        return statsBackfillSegments;
+    }
+
+    public void setStatsBackfillSegments(Integer statsBackfillSegments) {
+        this.statsBackfillSegments = statsBackfillSegments;
+    }
+
+    public String getAdminGroup() {
+        return adminGroup;
+    }
+
+    public void setAdminGroup(String adminGroup) {
+        this.adminGroup = adminGroup;
+    }
+
+    public Integer getExportDefaultSegments() {
+        return exportDefaultSegments;
+    }
+
+    public void setExportDefaultSegments(Integer exportDefaultSegments) {
+        this.exportDefaultSegments = exportDefaultSegments;
+    }
+
+    public Integer getExportMaxSegments() {
+        return exportMaxSegments;
+    }
+
+    public void setExportMaxSegments(Integer exportMaxSegments) {
+        this.exportMaxSegments = exportMaxSegments;
+    }
+
+    public Integer getExportMaxWorkers() {
+        return exportMaxWorkers;
+    }
+
+    public void setExportMaxWorkers(Integer exportMaxWorkers) {
+        this.exportMaxWorkers = exportMaxWorkers;
+    }
+
+    public Integer getExportPageSize() {
+        return exportPageSize;
+    }
+
+    public void setExportPageSize(Integer exportPageSize) {
+        this.exportPageSize = exportPageSize;
+    }
+
+    public Integer getExportMaxReadUnitsPerSecond() {
+        return exportMaxReadUnitsPerSecond;
+    }
+
+    public void setExportMaxReadUnitsPerSecond(Integer exportMaxReadUnitsPerSecond) {
+        this.exportMaxReadUnitsPerSecond = exportMaxReadUnitsPerSecond;
+    }
+
+    public Integer getExportMaxConcurrent() {
+        return exportMaxConcurrent;
+    }
+
+    public void setExportMaxConcurrent(Integer exportMaxConcurrent) {
+        this.exportMaxConcurrent = exportMaxConcurrent;
+    }
+
+    public String getExecutionMode() {
+        return executionMode;
+    }
+
+    public void setExecutionMode(String executionMode) {
+        this.executionMode = executionMode;
+    }
+
+    public Integer getExecutionPinnedThresholdMs() {
+        return executionPinnedThresholdMs;
+    }
+
+    public void setExecutionPinnedThresholdMs(Integer executionPinnedThresholdMs) {
+        this.executionPinnedThresholdMs = executionPinnedThresholdMs;
+    }
+
+    public Double getPayloadLogSampleRate() {
+        return payloadLogSampleRate;
+    }
+
+    public void setPayloadLogSampleRate(Double payloadLogSampleRate) {
+        this.payloadLogSampleRate = payloadLogSampleRate;
+    }
+
+    public Integer getPayloadLogMaxChars() {
+        return payloadLogMaxChars;
+    }
+
+    public void setPayloadLogMaxChars(Integer payloadLogMaxChars) {
+        this.payloadLogMaxChars = payloadLogMaxChars;
+    }
+
+    public Integer getLimiterReadInitialLimit() {
+        return limiterReadInitialLimit;
+    }
+
+    public void setLimiterReadInitialLimit(Integer limiterReadInitialLimit) {
+        this.limiterReadInitialLimit = limiterReadInitialLimit;
+    }
+
+    public Integer getLimiterCheckoutInitialLimit() {
+        return limiterCheckoutInitialLimit;
+    }
+
+    public void setLimiterCheckoutInitialLimit(Integer limiterCheckoutInitialLimit) {
+        this.limiterCheckoutInitialLimit = limiterCheckoutInitialLimit;
+    }
+
+    public Integer getLimiterMinLimit() {
+        return limiterMinLimit;
+    }
+
+    public void setLimiterMinLimit(Integer limiterMinLimit) {
+        this.limiterMinLimit = limiterMinLimit;
+    }
+
+    public Integer getLimiterMaxLimit() {
+        return limiterMaxLimit;
+    }
+
+    public void setLimiterMaxLimit(Integer limiterMaxLimit) {
+        this.limiterMaxLimit = limiterMaxLimit;
+    }
+
+    public Double getLimiterBackoffRatio() {
+        return limiterBackoffRatio;
+    }
+
+    public void setLimiterBackoffRatio(Double limiterBackoffRatio) {
+        this.limiterBackoffRatio = limiterBackoffRatio;
+    }
+
+    public Double getLimiterSmoothing() {
+        return limiterSmoothing;
+    }
+
+    public void setLimiterSmoothing(Double limiterSmoothing) {
+        this.limiterSmoothing = limiterSmoothing;
+    }
+
+    public Integer getLimiterRetryAfterSeconds() {
+        return limiterRetryAfterSeconds;
+    }
+
+    public void setLimiterRetryAfterSeconds(Integer limiterRetryAfterSeconds) {
+        this.limiterRetryAfterSeconds = limiterRetryAfterSeconds;
+    }
+
+    public Integer getHealthDescribeIntervalSeconds() {
+        return healthDescribeIntervalSeconds;
+    }
+
+    public void setHealthDescribeIntervalSeconds(Integer healthDescribeIntervalSeconds) {
+        this.healthDescribeIntervalSeconds = healthDescribeIntervalSeconds;
+    }
+
+    public Integer getHealthProbeIntervalSeconds() {
+        return healthProbeIntervalSeconds;
+    }
+
+    public void setHealthProbeIntervalSeconds(Integer healthProbeIntervalSeconds) {
+        this.healthProbeIntervalSeconds = healthProbeIntervalSeconds;
+    }
+
+    public Integer getHealthMaxStalenessSeconds() {
+        return healthMaxStalenessSeconds;
+    }
+
+    public void setHealthMaxStalenessSeconds(Integer healthMaxStalenessSeconds) {
+        this.healthMaxStalenessSeconds = healthMaxStalenessSeconds;
+    }
+
+    public Integer getHealthMaxProbeLatencyMs() {
+        return healthMaxProbeLatencyMs;
+    }
+
+    public void setHealthMaxProbeLatencyMs(Integer healthMaxProbeLatencyMs) {
+        this.healthMaxProbeLatencyMs = healthMaxProbeLatencyMs;
+    }
+
+    public Integer getHealthLivenessMaxStallSeconds() {
+        return healthLivenessMaxStallSeconds;
+    }
+
+    public void setHealthLivenessMaxStallSeconds(Integer healthLivenessMaxStallSeconds) {
+        this.healthLivenessMaxStallSeconds = healthLivenessMaxStallSeconds;
+    }
+
+    public Boolean getTimeIndexEnabled() {
+        return timeIndexEnabled;
+    }
+
+    public void setTimeIndexEnabled(Boolean timeIndexEnabled) {
+        this.timeIndexEnabled = timeIndexEnabled;
+    }
+
+    public String getTimeIndexName() {
+        return timeIndexName;
+    }
+
+    public void setTimeIndexName(String timeIndexName) {
+        this.timeIndexName = timeIndexName;
+    }
+
+    public String getTimeIndexStatusName() {
+        return timeIndexStatusName;
+    }
+
+    public void setTimeIndexStatusName(String timeIndexStatusName) {
+        this.timeIndexStatusName = timeIndexStatusName;
+    }
+
+    public Integer getTimeIndexBackfillSegments() {
+        return timeIndexBackfillSegments;
+    }
+
+    public void setTimeIndexBackfillSegments(Integer timeIndexBackfillSegments) {
+        this.timeIndexBackfillSegments = timeIndexBackfillSegments;
+    }
+
+    public Boolean getEtagEnabled() {
+        return etagEnabled;
+    }
+
+    public void setEtagEnabled(Boolean etagEnabled) {
+        this.etagEnabled = etagEnabled;
+    }
+
+    public Long getEtagVersionTtlMs() {
+        return etagVersionTtlMs;
+    }
+
+    public void setEtagVersionTtlMs(Long etagVersionTtlMs) {
+        this.etagVersionTtlMs = etagVersionTtlMs;
+    }
+
+    public Integer getEtagVersionCacheMaxUsers() {
+        return etagVersionCacheMaxUsers;
+    }
+
+    public void setEtagVersionCacheMaxUsers(Integer etagVersionCacheMaxUsers) {
+        this.etagVersionCacheMaxUsers = etagVersionCacheMaxUsers;
+    }
+
+    public Boolean getCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    public void setCompressionEnabled(Boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+    }
+
+    public Integer getCompressionMinBytes() {
+        return compressionMinBytes;
+    }
+
+    public void setCompressionMinBytes(Integer compressionMinBytes) {
+        this.compressionMinBytes = compressionMinBytes;
+    }
+
+    public Integer getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public void setCompressionLevel(Integer compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    public Boolean getCoalescingEnabled() {
+        return coalescingEnabled;
+    }
+
+    public void setCoalescingEnabled(Boolean coalescingEnabled) {
+        this.coalescingEnabled = coalescingEnabled;
+    }
+
+    public Boolean getHedgeEnabled() {
+        return hedgeEnabled;
+    }
+
+    public void setHedgeEnabled(Boolean hedgeEnabled) {
+        this.hedgeEnabled = hedgeEnabled;
+    }
+
+    public Double getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    public void setHedgePercentile(Double hedgePercentile) {
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    public Integer getHedgeMinDelayMs() {
+        return hedgeMinDelayMs;
+    }
+
+    public void setHedgeMinDelayMs(Integer hedgeMinDelayMs) {
+        this.hedgeMinDelayMs = hedgeMinDelayMs;
+    }
+
+    public Integer getHedgeMaxDelayMs() {
+        return hedgeMaxDelayMs;
+    }
+
+    public void setHedgeMaxDelayMs(Integer hedgeMaxDelayMs) {
+        this.hedgeMaxDelayMs = hedgeMaxDelayMs;
+    }
+
+    public Double getHedgeBudgetPercent() {
+        return hedgeBudgetPercent;
+    }
+
+    public void setHedgeBudgetPercent(Double hedgeBudgetPercent) {
+        this.hedgeBudgetPercent = hedgeBudgetPercent;
+    }
+
+    public Double getHedgeBudgetBurst() {
+        return hedgeBudgetBurst;
+    }
+
+    public void setHedgeBudgetBurst(Double hedgeBudgetBurst) {
+        this.hedgeBudgetBurst = hedgeBudgetBurst;
+    }
+
+    public Double getHedgeEwmaAlpha() {
+        return hedgeEwmaAlpha;
+    }
+
+    public void setHedgeEwmaAlpha(Double hedgeEwmaAlpha) {
+        this.hedgeEwmaAlpha = hedgeEwmaAlpha;
+    }
+
+    public Integer getHedgeStickyAfterWriteMs() {
+        return hedgeStickyAfterWriteMs;
+    }
+
+    public void setHedgeStickyAfterWriteMs(Integer hedgeStickyAfterWriteMs) {
+        this.hedgeStickyAfterWriteMs = hedgeStickyAfterWriteMs;
+    }
+
+    public Integer getHedgeStickyMaxUsers() {
+        return hedgeStickyMaxUsers;
+    }
+
+    public void setHedgeStickyMaxUsers(Integer hedgeStickyMaxUsers) {
+        this.hedgeStickyMaxUsers = hedgeStickyMaxUsers;
+    }
+
+    public Boolean getStartupWarmUpEnabled() {
+        return startupWarmUpEnabled;
+    }
+
+    public void setStartupWarmUpEnabled(Boolean startupWarmUpEnabled) {
+        this.startupWarmUpEnabled = startupWarmUpEnabled;
+    }
+
+    public Integer getStartupWarmUpIterations() {
+        return startupWarmUpIterations;
+    }
+
+    public void setStartupWarmUpIterations(Integer startupWarmUpIterations) {
+        this.startupWarmUpIterations = startupWarmUpIterations;
+    }
+
+    public Integer getStartupWarmUpConnections() {
+        return startupWarmUpConnections;
+    }
+
+    public void setStartupWarmUpConnections(Integer startupWarmUpConnections) {
+        this.startupWarmUpConnections = startupWarmUpConnections;
+    }
+
+    public Integer getStartupWarmUpMaxSeconds() {
+        return startupWarmUpMaxSeconds;
+    }
+
+    public void setStartupWarmUpMaxSeconds(Integer startupWarmUpMaxSeconds) {
+        this.startupWarmUpMaxSeconds = startupWarmUpMaxSeconds;
+    }
+
+    public Integer getStartupFirstRequestsSeconds() {
+        return startupFirstRequestsSeconds;
+    }
+
+    public void setStartupFirstRequestsSeconds(Integer startupFirstRequestsSeconds) {
+        this.startupFirstRequestsSeconds = startupFirstRequestsSeconds;
+    }
+
+    public Boolean getEventsEnabled() {
+        return eventsEnabled;
+    }
+
+    public void setEventsEnabled(Boolean eventsEnabled) {
+        this.eventsEnabled = eventsEnabled;
+    }
+
+    public String getEventsConsumerName() {
+        return eventsConsumerName;
+    }
+
+    public void setEventsConsumerName(String eventsConsumerName) {
+        this.eventsConsumerName = eventsConsumerName;
+    }
+
+    public Integer getEventsShardRefreshSeconds() {
+        return eventsShardRefreshSeconds;
+    }
+
+    public void setEventsShardRefreshSeconds(Integer eventsShardRefreshSeconds) {
+        this.eventsShardRefreshSeconds = eventsShardRefreshSeconds;
+    }
+
+    public Integer getEventsPollIntervalMs() {
+        return eventsPollIntervalMs;
+    }
+
+    public void setEventsPollIntervalMs(Integer eventsPollIntervalMs) {
+        this.eventsPollIntervalMs = eventsPollIntervalMs;
+    }
+
+    public Integer getEventsBatchSize() {
+        return eventsBatchSize;
+    }
+
+    public void setEventsBatchSize(Integer eventsBatchSize) {
+        this.eventsBatchSize = eventsBatchSize;
+    }
+
+    public Integer getEventsCheckpointIntervalSeconds() {
+        return eventsCheckpointIntervalSeconds;
+    }
+
+    public void setEventsCheckpointIntervalSeconds(Integer eventsCheckpointIntervalSeconds) {
+        this.eventsCheckpointIntervalSeconds = eventsCheckpointIntervalSeconds;
+    }
+
+    public Integer getEventsErrorBackoffMs() {
+        return eventsErrorBackoffMs;
+    }
+
+    public void setEventsErrorBackoffMs(Integer eventsErrorBackoffMs) {
+        this.eventsErrorBackoffMs = eventsErrorBackoffMs;
+    }
+
+    public Integer getEventsQueueCapacity() {
+        return eventsQueueCapacity;
+    }
+
+    public void setEventsQueueCapacity(Integer eventsQueueCapacity) {
+        this.eventsQueueCapacity = eventsQueueCapacity;
+    }
+
+    public Integer getEventsMaxStreamsPerUser() {
+        return eventsMaxStreamsPerUser;
+    }
+
+    public void setEventsMaxStreamsPerUser(Integer eventsMaxStreamsPerUser) {
+        this.eventsMaxStreamsPerUser = eventsMaxStreamsPerUser;
+    }
+
+    public Integer getEventsSenderThreads() {
+        return eventsSenderThreads;
+    }
+
+    public void setEventsSenderThreads(Integer eventsSenderThreads) {
+        this.eventsSenderThreads = eventsSenderThreads;
+    }
+
+    public Integer getEventsSendTimeoutMs() {
+        return eventsSendTimeoutMs;
+    }
+
+    public void setEventsSendTimeoutMs(Integer eventsSendTimeoutMs) {
+        this.eventsSendTimeoutMs = eventsSendTimeoutMs;
+    }
+
+    public Integer getEventsHeartbeatSeconds() {
+        return eventsHeartbeatSeconds;
+    }
+
+    public void setEventsHeartbeatSeconds(Integer eventsHeartbeatSeconds) {
+        this.eventsHeartbeatSeconds = eventsHeartbeatSeconds;
+    }
+
+    public Integer getBulkUpdateChunkSize() {
+        return bulkUpdateChunkSize;
+    }
+
+    public void setBulkUpdateChunkSize(Integer bulkUpdateChunkSize) {
+        this.bulkUpdateChunkSize = bulkUpdateChunkSize;
+    }
+
+    public Integer getBulkUpdateMaxWorkers() {
+        return bulkUpdateMaxWorkers;
+    }
+
+    public void setBulkUpdateMaxWorkers(Integer bulkUpdateMaxWorkers) {
+        this.bulkUpdateMaxWorkers = bulkUpdateMaxWorkers;
+    }
+
+    public Integer getBulkUpdateMaxCapacityUnitsPerSecond() {
+        return bulkUpdateMaxCapacityUnitsPerSecond;
+    }
+
+    public void setBulkUpdateMaxCapacityUnitsPerSecond(Integer bulkUpdateMaxCapacityUnitsPerSecond) {
+        this.bulkUpdateMaxCapacityUnitsPerSecond = bulkUpdateMaxCapacityUnitsPerSecond;
+    }
+
+    public Integer getBulkUpdateMaxAttempts() {
+        return bulkUpdateMaxAttempts;
+    }
+
+    public void setBulkUpdateMaxAttempts(Integer bulkUpdateMaxAttempts) {
+        this.bulkUpdateMaxAttempts = bulkUpdateMaxAttempts;
+    }
+
+    public Integer getBulkUpdateMaxReportedItems() {
+        return bulkUpdateMaxReportedItems;
+    }
+
+    public void setBulkUpdateMaxReportedItems(Integer bulkUpdateMaxReportedItems) {
+        this.bulkUpdateMaxReportedItems = bulkUpdateMaxReportedItems;
+    }
+
+    public String getTokenIssuer() {
+        return tokenIssuer;
+    }
+
+    public void setTokenIssuer(String tokenIssuer) {
+        this.tokenIssuer = tokenIssuer;
+    }
+
+    public String getTokenJwksUri() {
+        return tokenJwksUri;
+    }
+
+    public void setTokenJwksUri(String tokenJwksUri) {
+        this.tokenJwksUri = tokenJwksUri;
+    }
+}
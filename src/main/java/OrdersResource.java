@@ -1,17 +1,18 @@
-import com.google.gson.Gson;
+import com.google.gson.JsonObject;
 import com.kumuluz.ee.discovery.annotations.DiscoverService;
 import com.kumuluz.ee.logs.cdi.Log;
 import com.kumuluz.ee.logs.cdi.LogParams;
 import io.opentracing.Span;
 import io.opentracing.Tracer;
-import org.eclipse.microprofile.faulttolerance.*;
 import org.eclipse.microprofile.jwt.Claim;
 import org.eclipse.microprofile.jwt.ClaimValue;
 import org.eclipse.microprofile.jwt.JsonWebToken;
+import org.eclipse.microprofile.metrics.Timer;
 import org.eclipse.microprofile.metrics.annotation.Counted;
 import org.eclipse.microprofile.metrics.annotation.Metered;
 import org.eclipse.microprofile.metrics.annotation.Timed;
 import org.eclipse.microprofile.openapi.annotations.Operation;
+import org.eclipse.microprofile.openapi.annotations.enums.ParameterIn;
 import org.eclipse.microprofile.openapi.annotations.enums.SchemaType;
 import org.eclipse.microprofile.openapi.annotations.media.Content;
 import org.eclipse.microprofile.openapi.annotations.media.Schema;
@@ -22,26 +23,27 @@ import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponses;
 import org.eclipse.microprofile.openapi.annotations.security.SecurityRequirement;
 import org.eclipse.microprofile.opentracing.Traced;
-import org.eclipse.microprofile.rest.client.RestClientBuilder;
-import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.dynamodb.DynamoDbClient;
-import software.amazon.awssdk.services.dynamodb.model.*;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
 
 import javax.enterprise.context.RequestScoped;
 import javax.inject.Inject;
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
-import java.net.MalformedURLException;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.sse.Sse;
+import javax.ws.rs.sse.SseEventSink;
+import java.io.InputStream;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
-import java.time.ZoneId;
-import java.time.format.DateTimeFormatter;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -54,7 +56,40 @@ import java.util.logging.Logger;
 public class OrdersResource {
 
     @Inject
-    private ConfigProperties configProperties;
+    private OrdersConfigProperties ordersConfig;
+
+    @Inject
+    private PageTokenCodec pageTokenCodec;
+
+    @Inject
+    private OrdersService ordersService;
+
+    @Inject
+    private OrderStatsBackfill orderStatsBackfill;
+
+    @Inject
+    private OrderExporter orderExporter;
+
+    @Inject
+    private RequestMetrics requestMetrics;
+
+    @Inject
+    private ConcurrencyLimiter concurrencyLimiter;
+
+    @Inject
+    private TableHealthMonitor tableHealthMonitor;
+
+    @Inject
+    private OrderTimeIndexMigration orderTimeIndexMigration;
+
+    @Inject
+    private StartupWarmup startupWarmup;
+
+    @Inject
+    private OrderEventHub orderEventHub;
+
+    @Inject
+    private OrderStatusBulkUpdater orderStatusBulkUpdater;
 
     @Inject
     private Tracer tracer;
@@ -70,28 +105,8 @@ public class OrdersResource {
     @Claim("sub")
     private ClaimValue<Optional<String>> optSubject;
 
-    private DynamoDbClient dynamoDB;
     private static final Logger LOGGER = Logger.getLogger(OrdersResource.class.getName());
-
-    private volatile String currentRegion;
-    private volatile String currentTableName;
-    private void checkAndUpdateDynamoDbClient() {
-        String newRegion = configProperties.getDynamoRegion();
-        if (!newRegion.equals(currentRegion)) {
-            try {
-                this.dynamoDB = DynamoDbClient.builder()
-                        .region(Region.of(newRegion))
-                        .build();
-                currentRegion = newRegion;
-            } catch (Exception e) {
-                LOGGER.severe("Error while creating DynamoDB client: " + e.getMessage());
-                throw new WebApplicationException("Error while creating DynamoDB client: " + e.getMessage(), e, Response.Status.INTERNAL_SERVER_ERROR);
-            }
-        }
-        currentTableName = configProperties.getTableName();
-    }
-
-    private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+    private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
 
     @Inject
     @DiscoverService(value = "cart-service", environment = "dev", version = "1.0.0")
@@ -110,6 +125,10 @@ public class OrdersResource {
                             mediaType = "application/json"
                     )
             ),
+            @APIResponse(
+                    responseCode = "304",
+                    description = "Orders unchanged since the ETag in If-None-Match"
+            ),
             @APIResponse(
                     responseCode = "401",
                     description = "Unauthorized, invalid token",
@@ -125,34 +144,90 @@ public class OrdersResource {
                             mediaType = "application/json",
                             schema = @Schema(implementation = Error.class)
                     )
+            ),
+            @APIResponse(
+                    responseCode = "503",
+                    description = "Overloaded, retry after the Retry-After delay"
             )
     })
     @Parameters(value = {
             @Parameter(
                     name = "page",
-                    description = "The page number",
+                    description = "The page number (deprecated offset paging)",
                     required = false,
                     schema = @Schema(type = SchemaType.INTEGER, defaultValue = "1")
             ),
             @Parameter(
                     name = "pageSize",
-                    description = "The number of items per page",
+                    description = "The number of items per page (deprecated offset paging)",
                     required = false,
                     schema = @Schema(type = SchemaType.INTEGER, defaultValue = "10")
+            ),
+            @Parameter(
+                    name = "limit",
+                    description = "The number of items per page (cursor paging)",
+                    required = false,
+                    schema = @Schema(type = SchemaType.INTEGER)
+            ),
+            @Parameter(
+                    name = "nextToken",
+                    description = "Continuation token returned by the previous cursor page",
+                    required = false,
+                    schema = @Schema(type = SchemaType.STRING)
+            ),
+            @Parameter(
+                    name = "sort",
+                    description = "key (default) or newest; newest, from, to and status use cursor paging",
+                    required = false,
+                    schema = @Schema(type = SchemaType.STRING, defaultValue = "key")
+            ),
+            @Parameter(
+                    name = "from",
+                    description = "Only orders placed on or after this day (yyyy-MM-dd, UTC), newest first",
+                    required = false,
+                    schema = @Schema(type = SchemaType.STRING)
+            ),
+            @Parameter(
+                    name = "to",
+                    description = "Only orders placed on or before this day (yyyy-MM-dd, UTC), newest first",
+                    required = false,
+                    schema = @Schema(type = SchemaType.STRING)
+            ),
+            @Parameter(
+                    name = "status",
+                    description = "Only orders with this status, newest first",
+                    required = false,
+                    schema = @Schema(type = SchemaType.STRING)
+            ),
+            @Parameter(
+                    name = "fields",
+                    description = "Comma separated order attributes to return, e.g. TimeStamp,TotalPrice,OrderStatus; "
+                            + "defaults to all of Name, Surname, TimeStamp, TotalPrice, OrderStatus, OrderList, Email, Address, TelNumber",
+                    required = false,
+                    schema = @Schema(type = SchemaType.STRING)
             )
     })
     @Produces(MediaType.APPLICATION_JSON)
     @Counted(name = "getOrdersCount", description = "Count of getOrders calls")
     @Timed(name = "getOrdersTime", description = "Time taken to fetch a orders")
     @Metered(name = "getOrdersMetered", description = "Rate of getOrders calls")
-    @Timeout(value = 50, unit = ChronoUnit.SECONDS) // Timeout after 50 seconds
-    @Retry(maxRetries = 3) // Retry up to 3 times
-    @Fallback(fallbackMethod = "getOrdersFallback") // Fallback method if all retries fail
-    @CircuitBreaker(requestVolumeThreshold = 4, failureRatio = 0.5, delay = 2000)
-    @Bulkhead(100) // Limit concurrent calls to 100
     @Traced
-    public Response getOrders(@QueryParam("page") Integer page,
-                              @QueryParam("pageSize") Integer pageSize) {
+    public CompletionStage<Response> getOrders(@QueryParam("page") Integer page,
+                                               @QueryParam("pageSize") Integer pageSize,
+                                               @QueryParam("limit") Integer limit,
+                                               @QueryParam("nextToken") String nextToken,
+                                               @QueryParam("sort") String sort,
+                                               @QueryParam("from") String from,
+                                               @QueryParam("to") String to,
+                                               @QueryParam("status") String status,
+                                               @QueryParam("fields") String fields,
+                                               @HeaderParam("If-None-Match") String ifNoneMatch,
+                                               @HeaderParam("Accept-Encoding") String acceptEncoding) {
+
+        // Time-ordered listings come from the time indexes, which only support cursor paging
+        boolean timeOrdered = "newest".equals(sort) || from != null || to != null || status != null;
+        // Cursor paging is used as soon as the client asks for it, otherwise fall back to page/pageSize
+        boolean cursorPaging = timeOrdered || limit != null || nextToken != null;
 
         // Default values for page and pageSize if they are not provided
         if (page == null) {
@@ -161,17 +236,73 @@ public class OrdersResource {
         if (pageSize == null) {
             pageSize = 10;
         }
+        if (limit == null) {
+            limit = pageSize;
+        }
 
         if (jwt == null) {
             LOGGER.log(Level.SEVERE, "Token verification failed");
-            return Response.status(Response.Status.UNAUTHORIZED)
+            return CompletableFuture.completedFuture(Response.status(Response.Status.UNAUTHORIZED)
                     .header("Access-Control-Allow-Origin", "*")
                     .header("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS")
                     .header("Access-Control-Allow-Headers", "Content-Type,X-Amz-Date,Authorization,X-Api-Key,X-Amz-Security-Token,X-Amz-User-Agent")
                     .entity("Invalid token.")
-                    .build();
+                    .build());
+        }
+        if (page < 1 || pageSize < 1 || limit < 1) {
+            return CompletableFuture.completedFuture(Response.status(Response.Status.BAD_REQUEST)
+                    .header("Access-Control-Allow-Origin", "*")
+                    .header("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS")
+                    .header("Access-Control-Allow-Headers", "Content-Type,X-Amz-Date,Authorization,X-Api-Key,X-Amz-Security-Token,X-Amz-User-Agent")
+                    .entity("page, pageSize and limit must be positive.")
+                    .build());
+        }
+        OrderFieldSet fieldSet;
+        try {
+            fieldSet = OrderFieldSet.parse(fields);
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.completedFuture(status(Response.Status.BAD_REQUEST, e.getMessage()));
+        }
+        if (sort != null && !sort.equals("key") && !sort.equals("newest")) {
+            return CompletableFuture.completedFuture(status(Response.Status.BAD_REQUEST, "sort must be key or newest."));
+        }
+        OrderRepository.TimeFilter timeFilter = null;
+        if (timeOrdered) {
+            if (!ordersConfig.getTimeIndexEnabled()) {
+                return CompletableFuture.completedFuture(status(Response.Status.BAD_REQUEST, "Time-ordered listings are not enabled."));
+            }
+            String indexName = status != null ? ordersConfig.getTimeIndexStatusName() : ordersConfig.getTimeIndexName();
+            if (!tableHealthMonitor.isIndexActive(indexName)) {
+                return CompletableFuture.completedFuture(status(Response.Status.SERVICE_UNAVAILABLE, "Index " + indexName + " is not active."));
+            }
+            try {
+                timeFilter = new OrderRepository.TimeFilter(from != null ? LocalDate.parse(from) : null,
+                        to != null ? LocalDate.parse(to) : null, status);
+            } catch (DateTimeParseException e) {
+                return CompletableFuture.completedFuture(status(Response.Status.BAD_REQUEST, "from and to must be yyyy-MM-dd dates."));
+            }
+            if (timeFilter.getFrom() != null && timeFilter.getTo() != null && timeFilter.getFrom().isAfter(timeFilter.getTo())) {
+                return CompletableFuture.completedFuture(status(Response.Status.BAD_REQUEST, "from must not be after to."));
+            }
+        }
+        pageSize = Math.min(pageSize, ordersConfig.getMaxPageSize());
+        limit = Math.min(limit, ordersConfig.getMaxPageSize());
+        String userId = subject();
+
+        Map<String, AttributeValue> exclusiveStartKey;
+        try {
+            exclusiveStartKey = pageTokenCodec.decode(userId, PageTokenCodec.listing(timeFilter), nextToken);
+            if (exclusiveStartKey != null && !startKeyFits(exclusiveStartKey, timeFilter)) {
+                throw new IllegalArgumentException("Page token does not belong to this listing.");
+            }
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.completedFuture(Response.status(Response.Status.BAD_REQUEST)
+                    .header("Access-Control-Allow-Origin", "*")
+                    .header("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS")
+                    .header("Access-Control-Allow-Headers", "Content-Type,X-Amz-Date,Authorization,X-Api-Key,X-Amz-Security-Token,X-Amz-User-Agent")
+                    .entity(e.getMessage())
+                    .build());
         }
-        String userId = optSubject.getValue().orElse("default_value");
 
         Span span = tracer.buildSpan("getOrders").start();
         span.setTag("userId", userId);
@@ -182,80 +313,23 @@ public class OrdersResource {
         logMap.put("email", jwt.getClaim("email"));
         span.log(logMap);
         LOGGER.info("getOrders method called");
-        checkAndUpdateDynamoDbClient();
-
-        Map<String, AttributeValue> expressionAttributeValues = new HashMap<>();
-        expressionAttributeValues.put(":v_userId", AttributeValue.builder().s(userId).build());
-
-        Map<String, String> expressionAttributeNames = new HashMap<>();
-        expressionAttributeNames.put("#N", "Name");
-        expressionAttributeNames.put("#T", "TimeStamp");
-
-        QueryRequest queryRequest = QueryRequest.builder()
-                .tableName(currentTableName)
-                .keyConditionExpression("UserId = :v_userId")
-                .expressionAttributeValues(expressionAttributeValues)
-                .projectionExpression("#N, Surname, #T, TotalPrice, OrderStatus, OrderList, Email, Address, TelNumber")
-                .expressionAttributeNames(expressionAttributeNames)
-                .build();
-        QueryResponse queryResponse = dynamoDB.query(queryRequest);
-        try {
 
-            List<Map<String, AttributeValue>> items = queryResponse.items();
-            LOGGER.info("Looks like:" + items);
-            int totalPages = (int) Math.ceil((double) items.size() / pageSize);
-
-            int start = (page - 1) * pageSize;
-            int end = Math.min(start + pageSize, items.size());
-            List<Map<String, AttributeValue>> pagedItems = items.subList(start, end);
-
-            List<Map<String, String>> orders = new ArrayList<>();
-            for (Map<String, AttributeValue> item : pagedItems) {
-                orders.add(ResponseTransformer.transformOrderItem(item));
-            }
-
-            orders.forEach(order -> {
-                Instant timestamp = Instant.parse(order.get("TimeStamp"));
-                String formattedTimestamp = formatter.format(timestamp.atZone(ZoneId.systemDefault()).toLocalDate());
-                order.put("TimeStamp", formattedTimestamp);
-            });
-
-            Map<String, Object> responseBody = new HashMap<>();
-            responseBody.put("orders", orders);
-            responseBody.put("totalPages", totalPages);
-            span.setTag("completed", true);
-            LOGGER.log(Level.INFO, "User's orders obtained successfully");
-            return Response.ok()
-                    .header("Access-Control-Allow-Origin", "*")
-                    .header("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS")
-                    .header("Access-Control-Allow-Headers", "Content-Type,X-Amz-Date,Authorization,X-Api-Key,X-Amz-Security-Token,X-Amz-User-Agent")
-                    .entity(new Gson().toJson(responseBody))
-                    .build();
-        } catch (DynamoDbException e) {
-            LOGGER.log(Level.INFO, "Failed to obtain user's orders", e);
-            span.setTag("error", true);
-            throw new WebApplicationException("Failed to obtain user's orders. Please try again later.", e, Response.Status.INTERNAL_SERVER_ERROR);
-        }
-        catch (Exception e){
-            LOGGER.log(Level.INFO, "Failed to obtain user's orders", e);
-            throw new WebApplicationException("Failed to obtain user's orders. Please try again later.", e, Response.Status.INTERNAL_SERVER_ERROR);
-        }
-
-        finally {
+        ConcurrencyLimiter.Permit permit = concurrencyLimiter.tryAcquire(ConcurrencyLimiter.Kind.READ);
+        if (permit == null) {
+            span.setTag("shed", true);
             span.finish();
+            return CompletableFuture.completedFuture(overloaded());
         }
-    }
-    public Response getOrdersFallback(@QueryParam("page") Integer page,
-                                      @QueryParam("pageSize") Integer pageSize) {
-        LOGGER.info("Fallback activated: Unable to fetch orders at the moment for token: " + optSubject.getValue().orElse("default_value"));
-        Map<String, String> response = new HashMap<>();
-        response.put("description", "Unable to fetch orders at the moment. Please try again later.");
-        return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
-                .header("Access-Control-Allow-Origin", "*")
-                .header("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS")
-                .header("Access-Control-Allow-Headers", "Content-Type,X-Amz-Date,Authorization,X-Api-Key,X-Amz-Security-Token,X-Amz-User-Agent")
-                .entity(new Gson().toJson(response))
-                .build();
+        long started = startupWarmup.requestStarted();
+        return ordersService.getOrders(userId, page, pageSize, cursorPaging ? limit : null, exclusiveStartKey, timeFilter, fieldSet,
+                        ifNoneMatch, acceptEncoding)
+                .thenApply(response -> cursorPaging ? response : Response.fromResponse(response).header("Deprecation", "true").build())
+                .whenComplete((response, e) -> {
+                    permit.release();
+                    startupWarmup.requestCompleted(started);
+                    span.setTag(e == null ? "completed" : "error", true);
+                    span.finish();
+                });
     }
 
 
@@ -265,8 +339,10 @@ public class OrdersResource {
             description = "Processes the order and returns payment confirmation.")
     @APIResponses({
             @APIResponse(responseCode = "200", description = "Payment successful"),
+            @APIResponse(responseCode = "400", description = "Invalid Idempotency-Key or order list"),
             @APIResponse(responseCode = "401", description = "Unauthorized access, Invalid token"),
-            @APIResponse(responseCode = "500", description = "Internal Server Error")
+            @APIResponse(responseCode = "500", description = "Internal Server Error"),
+            @APIResponse(responseCode = "503", description = "Overloaded, retry after the Retry-After delay")
     })
     @RequestBody(
             description = "Order object that needs to be processed",
@@ -283,24 +359,46 @@ public class OrdersResource {
     @Counted(name = "addOrderCount", description = "Count of addOrder calls")
     @Timed(name = "addOrderTime", description = "Time taken to add a order")
     @Metered(name = "addOrderMetered", description = "Rate of addOrder calls")
-    @Timeout(value = 50, unit = ChronoUnit.SECONDS) // Timeout after 50 seconds
-    @Retry(maxRetries = 3) // Retry up to 3 times
-    @Fallback(fallbackMethod = "addOrderFallback") // Fallback method if all retries fail
-    @CircuitBreaker(requestVolumeThreshold = 4, failureRatio = 0.5, delay = 2000)
-    @Bulkhead(100) // Lim it concurrent c all s to 100
     @Traced
-    public Response checkoutOrder(Order order) {
+    public CompletionStage<Response> checkoutOrder(
+            @Parameter(description = "Client chosen key that makes resubmissions of the same checkout safe", in = ParameterIn.HEADER)
+            @HeaderParam("Idempotency-Key") String idempotencyKey,
+            Order order) {
 
         if (jwt == null) {
             LOGGER.log(Level.SEVERE, "Token verification failed");
-            return Response.status(Response.Status.UNAUTHORIZED)
+            return CompletableFuture.completedFuture(Response.status(Response.Status.UNAUTHORIZED)
                     .header("Access-Control-Allow-Origin", "*")
                     .header("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS")
                     .header("Access-Control-Allow-Headers", "Content-Type,X-Amz-Date,Authorization,X-Api-Key,X-Amz-Security-Token,X-Amz-User-Agent")
                     .entity("Invalid token.")
-                    .build();
+                    .build());
+        }
+        String userId = subject();
+
+        if (idempotencyKey != null && (idempotencyKey.isEmpty() || idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH)) {
+            return CompletableFuture.completedFuture(Response.status(Response.Status.BAD_REQUEST)
+                    .header("Access-Control-Allow-Origin", "*")
+                    .header("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS")
+                    .header("Access-Control-Allow-Headers", "Content-Type,X-Amz-Date,Authorization,X-Api-Key,X-Amz-Security-Token,X-Amz-User-Agent")
+                    .entity("Idempotency-Key must be between 1 and " + MAX_IDEMPOTENCY_KEY_LENGTH + " characters.")
+                    .build());
+        }
+        List<OrderLine> orderLines;
+        try {
+            orderLines = OrderLine.parseList(order.getOrderListStr());
+        } catch (IllegalArgumentException e) {
+            return CompletableFuture.completedFuture(Response.status(Response.Status.BAD_REQUEST)
+                    .header("Access-Control-Allow-Origin", "*")
+                    .header("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS")
+                    .header("Access-Control-Allow-Headers", "Content-Type,X-Amz-Date,Authorization,X-Api-Key,X-Amz-Security-Token,X-Amz-User-Agent")
+                    .entity(e.getMessage())
+                    .build());
         }
-        String userId = optSubject.getValue().orElse("default_value");
+        // Chosen once here so the service's retries all target the same row
+        String hashKey = idempotencyKey != null
+                ? OrdersService.hashKey(userId + '\0' + idempotencyKey)
+                : OrdersService.hashKey(userId + order.getOrderListStr() + Instant.now().toString());
 
         Span span = tracer.buildSpan("addOrder").start();
         span.setTag("userId", userId);
@@ -311,80 +409,303 @@ public class OrdersResource {
         logMap.put("email", jwt.getClaim("email"));
         span.log(logMap);
         LOGGER.info("addOrder method called");
-        checkAndUpdateDynamoDbClient();
 
+        ConcurrencyLimiter.Permit permit = concurrencyLimiter.tryAcquire(ConcurrencyLimiter.Kind.CHECKOUT);
+        if (permit == null) {
+            span.setTag("shed", true);
+            span.finish();
+            return CompletableFuture.completedFuture(overloaded());
+        }
+        String authHeader = "Bearer " + jwt.getRawToken();
+        long started = startupWarmup.requestStarted();
+        return ordersService.checkoutOrder(userId, hashKey, idempotencyKey != null, authHeader, cartServiceUrl, order, orderLines)
+                .whenComplete((response, e) -> {
+                    permit.release();
+                    startupWarmup.requestCompleted(started);
+                    span.setTag(e == null ? "completed" : "error", true);
+                    span.finish();
+                });
+    }
 
-        String hashKeyInput = userId + order.getOrderListStr() + Instant.now().toString();
-        String hashKey = null;
+    @GET
+    @Path("/events")
+    @Produces(MediaType.SERVER_SENT_EVENTS)
+    @Operation(summary = "Stream order status changes",
+            description = "Server-sent events stream with an order-status event, carrying hashKey, status, "
+                    + "previousStatus, timeStamp and changedAt, whenever the status of one of the caller's orders changes. "
+                    + "A client that does not keep up is disconnected and should reconnect and fetch its orders again.")
+    @APIResponses({
+            @APIResponse(responseCode = "200", description = "Event stream"),
+            @APIResponse(responseCode = "401", description = "Unauthorized access, Invalid token"),
+            @APIResponse(responseCode = "404", description = "Order events are not enabled")
+    })
+    @Counted(name = "streamOrderEventsCount", description = "Count of order event streams opened")
+    public void streamOrderEvents(@Context SseEventSink sink, @Context Sse sse) {
+        if (jwt == null) {
+            LOGGER.log(Level.SEVERE, "Token verification failed");
+            throw new WebApplicationException(status(Response.Status.UNAUTHORIZED, "Invalid token."));
+        }
+        if (!ordersConfig.getEventsEnabled()) {
+            throw new WebApplicationException(status(Response.Status.NOT_FOUND, "Order events are not enabled."));
+        }
+        orderEventHub.subscribe(subject(), sink, sse);
+    }
+
+    @GET
+    @Path("/stats")
+    @Operation(summary = "Fetch order statistics",
+            description = "Order count and revenue between two days, in total, per status and per day. "
+                    + "With scope=global the statistics of all users are returned; this requires the admin group.")
+    @APIResponses({
+            @APIResponse(responseCode = "200", description = "Statistics successfully fetched"),
+            @APIResponse(responseCode = "400", description = "Invalid date range"),
+            @APIResponse(responseCode = "401", description = "Unauthorized access, Invalid token"),
+            @APIResponse(responseCode = "403", description = "Global statistics requested without the admin group"),
+            @APIResponse(responseCode = "500", description = "Internal Server Error")
+    })
+    @Parameters(value = {
+            @Parameter(name = "from", description = "First day (yyyy-MM-dd, UTC), defaults to 30 days before to",
+                    schema = @Schema(type = SchemaType.STRING)),
+            @Parameter(name = "to", description = "Last day (yyyy-MM-dd, UTC), defaults to today",
+                    schema = @Schema(type = SchemaType.STRING)),
+            @Parameter(name = "scope", description = "user (default) or global",
+                    schema = @Schema(type = SchemaType.STRING, defaultValue = "user"))
+    })
+    @Counted(name = "getOrderStatsCount", description = "Count of getOrderStats calls")
+    @Timed(name = "getOrderStatsTime", description = "Time taken to fetch order statistics")
+    @Traced
+    public CompletionStage<Response> getOrderStats(@QueryParam("from") String from,
+                                                   @QueryParam("to") String to,
+                                                   @QueryParam("scope") String scope) {
+        if (jwt == null) {
+            LOGGER.log(Level.SEVERE, "Token verification failed");
+            return CompletableFuture.completedFuture(status(Response.Status.UNAUTHORIZED, "Invalid token."));
+        }
+        boolean global = "global".equals(scope);
+        if (global && !isAdmin()) {
+            return CompletableFuture.completedFuture(status(Response.Status.FORBIDDEN, "Global statistics require the admin group."));
+        }
+        if (!ordersConfig.getStatsEnabled()) {
+            return CompletableFuture.completedFuture(status(Response.Status.NOT_FOUND, "Order statistics are not enabled."));
+        }
+
+        LocalDate toDay;
+        LocalDate fromDay;
         try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            byte[] hash = digest.digest(hashKeyInput.getBytes(StandardCharsets.UTF_8));
-            hashKey = Base64.getEncoder().encodeToString(hash);
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
+            toDay = to != null ? LocalDate.parse(to) : LocalDate.now(ZoneOffset.UTC);
+            fromDay = from != null ? LocalDate.parse(from) : toDay.minusDays(30);
+        } catch (DateTimeParseException e) {
+            return CompletableFuture.completedFuture(status(Response.Status.BAD_REQUEST, "from and to must be yyyy-MM-dd dates."));
+        }
+        if (fromDay.isAfter(toDay) || ChronoUnit.DAYS.between(fromDay, toDay) >= ordersConfig.getStatsMaxRangeDays()) {
+            return CompletableFuture.completedFuture(status(Response.Status.BAD_REQUEST,
+                    "from must not be after to, and the range may span at most " + ordersConfig.getStatsMaxRangeDays() + " days."));
         }
 
+        String userId = subject();
+        LOGGER.info("getOrderStats method called");
+        return ordersService.getOrderStats(global ? null : userId, fromDay, toDay);
+    }
+
+    @POST
+    @Path("/stats/backfill")
+    @Operation(summary = "Rebuild order statistics from existing orders",
+            description = "Starts a background job that scans the orders placed before the given day and overwrites "
+                    + "their statistics buckets. Requires the admin group.")
+    @APIResponses({
+            @APIResponse(responseCode = "202", description = "Backfill started"),
+            @APIResponse(responseCode = "400", description = "Invalid day"),
+            @APIResponse(responseCode = "401", description = "Unauthorized access, Invalid token"),
+            @APIResponse(responseCode = "403", description = "Caller is not in the admin group"),
+            @APIResponse(responseCode = "409", description = "A backfill is already running")
+    })
+    @Parameter(name = "before", description = "Rebuild days before this one (yyyy-MM-dd, UTC); defaults to today",
+            schema = @Schema(type = SchemaType.STRING))
+    @Traced
+    public Response backfillOrderStats(@QueryParam("before") String before) {
+        if (jwt == null) {
+            LOGGER.log(Level.SEVERE, "Token verification failed");
+            return status(Response.Status.UNAUTHORIZED, "Invalid token.");
+        }
+        if (!isAdmin()) {
+            return status(Response.Status.FORBIDDEN, "Backfill requires the admin group.");
+        }
+        LocalDate beforeDay;
         try {
-            String timeStamp = Instant.now().toString();
-
-            Map<String, AttributeValue> itemValues = new HashMap<>();
-            itemValues.put("UserId", AttributeValue.builder().s(userId).build());
-            itemValues.put("HashKey", AttributeValue.builder().s(hashKey).build());
-            itemValues.put("Email", AttributeValue.builder().s(order.getEmail()).build());
-            itemValues.put("Name", AttributeValue.builder().s(order.getName()).build());
-            itemValues.put("Surname", AttributeValue.builder().s(order.getSurname()).build());
-            itemValues.put("Address", AttributeValue.builder().s(order.getAddress()).build());
-            itemValues.put("TelNumber", AttributeValue.builder().s(order.getTelNumber()).build());
-            itemValues.put("OrderList", AttributeValue.builder().s(order.getOrderListStr()).build());
-            itemValues.put("TotalPrice", AttributeValue.builder().n(order.getTotalPrice().toString()).build());
-            itemValues.put("OrderStatus", AttributeValue.builder().s("COMPLETED").build());
-            itemValues.put("TimeStamp", AttributeValue.builder().s(timeStamp).build());
-
-            PutItemRequest putItemRequest = PutItemRequest.builder()
-                    .tableName(currentTableName)
-                    .item(itemValues)
-                    .build();
+            beforeDay = before != null ? LocalDate.parse(before) : LocalDate.now(ZoneOffset.UTC);
+        } catch (DateTimeParseException e) {
+            return status(Response.Status.BAD_REQUEST, "before must be a yyyy-MM-dd date.");
+        }
+        if (!orderStatsBackfill.start(beforeDay)) {
+            return status(Response.Status.CONFLICT, "A backfill is already running.");
+        }
+        return status(Response.Status.ACCEPTED, "Backfill started for days before " + beforeDay + ".");
+    }
 
-            dynamoDB.putItem(putItemRequest);
+    @POST
+    @Path("/time-index/migrate")
+    @Operation(summary = "Prepare the table for time-ordered listings",
+            description = "Starts a background job that creates the time and status indexes and sets StatusTime on "
+                    + "existing orders. Enable time-index.enabled once it has finished. Requires the admin group.")
+    @APIResponses({
+            @APIResponse(responseCode = "202", description = "Migration started"),
+            @APIResponse(responseCode = "401", description = "Unauthorized access, Invalid token"),
+            @APIResponse(responseCode = "403", description = "Caller is not in the admin group"),
+            @APIResponse(responseCode = "409", description = "A migration is already running")
+    })
+    @Traced
+    public Response migrateTimeIndex() {
+        if (jwt == null) {
+            LOGGER.log(Level.SEVERE, "Token verification failed");
+            return status(Response.Status.UNAUTHORIZED, "Invalid token.");
+        }
+        if (!isAdmin()) {
+            return status(Response.Status.FORBIDDEN, "Migration requires the admin group.");
+        }
+        if (!orderTimeIndexMigration.start()) {
+            return status(Response.Status.CONFLICT, "A migration is already running.");
+        }
+        return status(Response.Status.ACCEPTED, "Time index migration started.");
+    }
 
-            Gson gson = new Gson();
-            if (cartServiceUrl.isPresent()) {
-                CartServiceApi api = RestClientBuilder.newBuilder()
-                        .baseUrl(new URL(cartServiceUrl.get().toString()))
-                        .build(CartServiceApi.class);
-                String authHeader = "Bearer " + jwt.getRawToken();
-                Response response = api.deleteCart(authHeader);
+    @POST
+    @Path("/status-updates")
+    @Consumes("application/x-ndjson")
+    @Operation(summary = "Change the status of many orders",
+            description = "Reads one {\"userId\", \"hashKey\", \"status\"} object per line, optionally with "
+                    + "expectedStatus, and applies the changes in parallel conditional transactions. The input is "
+                    + "read as it arrives, so it may be of any size. Returns the count of every outcome and the "
+                    + "lines that were not updated. Requires the admin group.")
+    @APIResponses({
+            @APIResponse(responseCode = "200", description = "Outcome summary"),
+            @APIResponse(responseCode = "401", description = "Unauthorized access, Invalid token"),
+            @APIResponse(responseCode = "403", description = "Caller is not in the admin group"),
+            @APIResponse(responseCode = "409", description = "A bulk status update is already running")
+    })
+    @Traced
+    public Response updateOrderStatuses(InputStream updates) {
+        if (jwt == null) {
+            LOGGER.log(Level.SEVERE, "Token verification failed");
+            return status(Response.Status.UNAUTHORIZED, "Invalid token.");
+        }
+        if (!isAdmin()) {
+            return status(Response.Status.FORBIDDEN, "Bulk status updates require the admin group.");
+        }
+        JsonObject summary = orderStatusBulkUpdater.update(updates);
+        if (summary == null) {
+            return status(Response.Status.CONFLICT, "A bulk status update is already running.");
+        }
+        LOGGER.info("Bulk status update finished: " + summary.get("updated") + " of " + summary.get("total") + " orders updated");
+        return Response.ok(summary.toString(), MediaType.APPLICATION_JSON)
+                .header("Access-Control-Allow-Origin", "*")
+                .header("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS")
+                .header("Access-Control-Allow-Headers", "Content-Type,X-Amz-Date,Authorization,X-Api-Key,X-Amz-Security-Token,X-Amz-User-Agent")
+                .build();
+    }
 
-                if (response.getStatus() != Response.Status.OK.getStatusCode()) {
-                    throw new RuntimeException("Failed : HTTP error code : " + response.getStatus());
-                }
-            }
-            LOGGER.info("Payment successful");
-            span.setTag("completed", true);
-            return Response.status(Response.Status.OK)
+    @GET
+    @Path("/export")
+    @Produces("application/x-ndjson")
+    @Operation(summary = "Export all orders",
+            description = "Streams every order as one JSON object per line, read with a parallel segmented scan. "
+                    + "Checkpoint lines are interleaved; pass the last one as checkpoint to resume an interrupted export. "
+                    + "Compressed with gzip when the client accepts it. Requires the admin group.")
+    @APIResponses({
+            @APIResponse(responseCode = "200", description = "Export stream"),
+            @APIResponse(responseCode = "400", description = "Invalid segments or checkpoint"),
+            @APIResponse(responseCode = "401", description = "Unauthorized access, Invalid token"),
+            @APIResponse(responseCode = "403", description = "Caller is not in the admin group"),
+            @APIResponse(responseCode = "429", description = "Too many exports running")
+    })
+    @Parameters(value = {
+            @Parameter(name = "segments", description = "Number of scan segments of a new export",
+                    schema = @Schema(type = SchemaType.INTEGER)),
+            @Parameter(name = "checkpoint", description = "Checkpoint of an interrupted export to resume",
+                    schema = @Schema(type = SchemaType.STRING))
+    })
+    @Traced
+    public Response exportOrders(@QueryParam("segments") Integer segments,
+                                 @QueryParam("checkpoint") String checkpoint,
+                                 @HeaderParam("Accept-Encoding") String acceptEncoding) {
+        if (jwt == null) {
+            LOGGER.log(Level.SEVERE, "Token verification failed");
+            return status(Response.Status.UNAUTHORIZED, "Invalid token.");
+        }
+        if (!isAdmin()) {
+            return status(Response.Status.FORBIDDEN, "Export requires the admin group.");
+        }
+        OrderExporter.ExportPosition position;
+        try {
+            position = checkpoint != null
+                    ? orderExporter.resume(checkpoint)
+                    : orderExporter.start(segments != null ? segments : ordersConfig.getExportDefaultSegments());
+        } catch (IllegalArgumentException e) {
+            return status(Response.Status.BAD_REQUEST, e.getMessage());
+        }
+        boolean gzip = acceptEncoding != null && acceptEncoding.toLowerCase(Locale.ROOT).contains("gzip");
+        StreamingOutput output = orderExporter.open(position, gzip);
+        if (output == null) {
+            return Response.status(429)
                     .header("Access-Control-Allow-Origin", "*")
-                    .header("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS")
-                    .header("Access-Control-Allow-Headers", "Content-Type,X-Amz-Date,Authorization,X-Api-Key,X-Amz-Security-Token,X-Amz-User-Agent")
-                    .entity(new Gson().toJson("Payment successful"))
+                    .header("Retry-After", "60")
+                    .entity("Too many exports running, try again later.")
                     .build();
-        } catch (DynamoDbException | MalformedURLException e) {
-            LOGGER.log(Level.SEVERE, "Failed to process checkout", e);
-            span.setTag("error", true);
-            throw new WebApplicationException("Failed to process checkout", e, Response.Status.INTERNAL_SERVER_ERROR);
+        }
+        LOGGER.info("Order export started with " + position.getSegments() + " segments");
+        Response.ResponseBuilder response = Response.ok(output, "application/x-ndjson")
+                .header("Access-Control-Allow-Origin", "*")
+                .header("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS")
+                .header("Access-Control-Allow-Headers", "Content-Type,X-Amz-Date,Authorization,X-Api-Key,X-Amz-Security-Token,X-Amz-User-Agent");
+        if (gzip) {
+            response.header("Content-Encoding", "gzip");
+        }
+        return response.build();
+    }
+
+    /**
+     * Resolves the caller from the verified token, timed as the {@code token} stage.
+     */
+    private String subject() {
+        Timer.Context token = requestMetrics.stage("token").time();
+        try {
+            return optSubject.getValue().orElse("default_value");
         } finally {
-            span.finish();
+            token.stop();
+        }
+    }
+
+    private boolean isAdmin() {
+        Set<String> callerGroups = groups.getValue();
+        return callerGroups != null && callerGroups.contains(ordersConfig.getAdminGroup());
+    }
+
+    /**
+     * A start key only fits the index it came from: the table's start keys have just the two
+     * key attributes, the index start keys also carry the index sort key.
+     */
+    private static boolean startKeyFits(Map<String, AttributeValue> startKey, OrderRepository.TimeFilter timeFilter) {
+        if (timeFilter == null) {
+            return startKey.size() == 2;
         }
+        return startKey.containsKey(timeFilter.getStatus() != null ? OrderRepository.STATUS_TIME : "TimeStamp");
     }
-    public Response addOrderFallback(Order order) {
-        LOGGER.info("Fallback activated: Unable to process checkout at the moment.");
-        Map<String, String> response = new HashMap<>();
-        response.put("description", "Unable to process checkout at the moment. Please try again later.");
-        return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+
+    private Response overloaded() {
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
                 .header("Access-Control-Allow-Origin", "*")
                 .header("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS")
                 .header("Access-Control-Allow-Headers", "Content-Type,X-Amz-Date,Authorization,X-Api-Key,X-Amz-Security-Token,X-Amz-User-Agent")
-                .entity(new Gson().toJson(response))
+                .header("Retry-After", String.valueOf(concurrencyLimiter.retryAfterSeconds()))
+                .entity("Too many requests in flight, try again later.")
                 .build();
     }
 
+    private static Response status(Response.Status status, String message) {
+        return Response.status(status)
+                .header("Access-Control-Allow-Origin", "*")
+                .header("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS")
+                .header("Access-Control-Allow-Headers", "Content-Type,X-Amz-Date,Authorization,X-Api-Key,X-Amz-Security-Token,X-Amz-User-Agent")
+                .entity(message)
+                .build();
+    }
 }
@@ -0,0 +1,481 @@
+import com.google.gson.Gson;
+import org.eclipse.microprofile.faulttolerance.*;
+import org.eclipse.microprofile.metrics.Timer;
+import org.eclipse.microprofile.rest.client.RestClientBuilder;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Response;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Order read and checkout pipelines. The methods are {@link Asynchronous}, so the fault
+ * tolerance policies apply to the returned {@link CompletionStage}; the caller identity is
+ * resolved by {@link OrdersResource} beforehand because the request context is not available
+ * on the fault tolerance threads.
+ */
+@ApplicationScoped
+public class OrdersService {
+
+    private static final Logger LOGGER = Logger.getLogger(OrdersService.class.getName());
+
+    @Inject
+    private OrderRepository orderRepository;
+
+    @Inject
+    private OrdersConfigProperties ordersConfig;
+
+    @Inject
+    private PageTokenCodec pageTokenCodec;
+
+    @Inject
+    private OrderHistoryCache orderHistoryCache;
+
+    @Inject
+    private CheckoutDedupeCache checkoutDedupeCache;
+
+    @Inject
+    private CartClearOutbox cartClearOutbox;
+
+    @Inject
+    private OrderStatistics orderStatistics;
+
+    @Inject
+    private BlockingIoExecutor blockingIo;
+
+    @Inject
+    private RequestMetrics requestMetrics;
+
+    @Inject
+    private PayloadLogSampler payloadLogSampler;
+
+    @Inject
+    private OrderVersionStore orderVersionStore;
+
+    @Inject
+    private OrderReadCoalescer orderReadCoalescer;
+
+    @Inject
+    private HedgedReads hedgedReads;
+
+    // Cart service client proxies by URL, built on the first checkout that needs them
+    private final Map<String, CartServiceApi> cartClients = new ConcurrentHashMap<>();
+    private final Map<String, CartServiceAsyncApi> asyncCartClients = new ConcurrentHashMap<>();
+
+    /**
+     * @param limit          cursor page size, or {@code null} to use legacy {@code page}/{@code pageSize} paging
+     * @param timeFilter     list newest first through the time indexes, or {@code null} for key order;
+     *                       needs cursor paging
+     * @param fields         attributes to read and return
+     * @param ifNoneMatch    the request's {@code If-None-Match}; answered with 304 when it holds the
+     *                       current ETag, without reading any order
+     * @param acceptEncoding the request's {@code Accept-Encoding}
+     */
+    @Asynchronous
+    @Timeout(value = 50, unit = ChronoUnit.SECONDS) // Timeout after 50 seconds
+    @Retry(maxRetries = 3) // Retry up to 3 times
+    @Fallback(fallbackMethod = "getOrdersFallback") // Fallback method if all retries fail
+    // Concurrency is bounded by ConcurrencyLimiter in OrdersResource
+    @CircuitBreaker(requestVolumeThreshold = 20, failureRatio = 0.5, delay = 2000)
+    public CompletionStage<Response> getOrders(String userId, int page, int pageSize, Integer limit,
+                                               Map<String, AttributeValue> exclusiveStartKey,
+                                               OrderRepository.TimeFilter timeFilter, OrderFieldSet fields,
+                                               String ifNoneMatch, String acceptEncoding) {
+        String pageKey = limit != null
+                ? "cursor:" + limit + ":" + (exclusiveStartKey == null ? "" : new TreeMap<>(exclusiveStartKey).toString())
+                : "page:" + page + ":" + pageSize;
+        if (timeFilter != null) {
+            pageKey = "time:" + timeFilter + ":" + pageKey;
+        }
+        if (fields != OrderFieldSet.ALL) {
+            pageKey = "fields:" + fields + ":" + pageKey;
+        }
+        String listingKey = pageKey;
+        boolean gzip = ordersConfig.getCompressionEnabled() && ResponseCompression.acceptsGzip(acceptEncoding);
+
+        CompletionStage<Response> response;
+        if (ordersConfig.getEtagEnabled()) {
+            response = orderVersionStore.current(userId).thenCompose(orderVersion -> {
+                EntityTag etag = etag(userId, listingKey, orderVersion);
+                if (matches(ifNoneMatch, etag)) {
+                    LOGGER.log(Level.FINE, "User's orders not modified");
+                    return CompletableFuture.completedFuture(Response.notModified(etag)
+                            .header("Access-Control-Allow-Origin", "*")
+                            .header("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS")
+                            .header("Access-Control-Allow-Headers", "Content-Type,X-Amz-Date,Authorization,X-Api-Key,X-Amz-Security-Token,X-Amz-User-Agent")
+                            .header("Cache-Control", "private, no-cache")
+                            .header("Vary", "Authorization, Accept-Encoding")
+                            .build());
+                }
+                return listOrders(userId, page, pageSize, limit, exclusiveStartKey, timeFilter, fields, listingKey, etag, gzip);
+            });
+        } else {
+            response = listOrders(userId, page, pageSize, limit, exclusiveStartKey, timeFilter, fields, listingKey, null, gzip);
+        }
+        return response.exceptionally(e -> {
+            LOGGER.log(Level.INFO, "Failed to obtain user's orders", e);
+            throw new CompletionException(new WebApplicationException("Failed to obtain user's orders. Please try again later.",
+                    unwrap(e), Response.Status.INTERNAL_SERVER_ERROR));
+        });
+    }
+
+    private CompletionStage<Response> listOrders(String userId, int page, int pageSize, Integer limit,
+                                                 Map<String, AttributeValue> exclusiveStartKey,
+                                                 OrderRepository.TimeFilter timeFilter, OrderFieldSet fields,
+                                                 String pageKey, EntityTag etag, boolean gzip) {
+        boolean cacheEnabled = orderHistoryCache.isEnabled();
+        long cacheVersion = 0;
+        if (cacheEnabled) {
+            byte[] cachedBody = orderHistoryCache.get(userId, pageKey);
+            if (cachedBody != null) {
+                LOGGER.log(Level.FINE, "User's orders served from cache");
+                return CompletableFuture.completedFuture(listingResponse(cachedBody, etag, gzip));
+            }
+            cacheVersion = orderHistoryCache.version(userId);
+        }
+        long version = cacheVersion;
+
+        CompletionStage<OrderListingWriter> listing = orderReadCoalescer.read(userId, pageKey,
+                () -> readListing(userId, page, pageSize, limit, exclusiveStartKey, timeFilter, fields));
+
+        return listing.thenApply(writer -> {
+            LOGGER.log(Level.INFO, "User's orders obtained successfully");
+            if (!cacheEnabled && !gzip) {
+                return listingResponse(requestMetrics.timeSerialization(writer), etag, false);
+            }
+            Timer.Context serialization = requestMetrics.stage("serialization").time();
+            byte[] body = writer.toBytes();
+            serialization.stop();
+            if (cacheEnabled) {
+                orderHistoryCache.put(userId, pageKey, body, version);
+            }
+            return listingResponse(body, etag, gzip);
+        });
+    }
+
+    private CompletionStage<OrderListingWriter> readListing(String userId, int page, int pageSize, Integer limit,
+                                                            Map<String, AttributeValue> exclusiveStartKey,
+                                                            OrderRepository.TimeFilter timeFilter, OrderFieldSet fields) {
+        if (timeFilter != null) {
+            return orderRepository.fetchRecentPage(userId, timeFilter, exclusiveStartKey, limit, fields)
+                    .thenApply(fetched -> render(fetched, null, pageTokenCodec.encode(userId, PageTokenCodec.listing(timeFilter),
+                            fetched.getLastEvaluatedKey()), fields));
+        } else if (limit != null) {
+            return orderRepository.fetchPage(userId, exclusiveStartKey, limit, fields)
+                    .thenApply(fetched -> render(fetched, null, pageTokenCodec.encode(userId, fetched.getLastEvaluatedKey()), fields));
+        } else {
+            return orderRepository.locatePage(userId, (page - 1) * pageSize)
+                    .thenCompose(location -> {
+                        int totalPages = (int) Math.ceil((double) location.getTotalItems() / pageSize);
+                        CompletionStage<OrderRepository.OrderPage> orderPage = location.exists()
+                                ? orderRepository.fetchPage(userId, location.getStartKey(), pageSize, fields)
+                                : CompletableFuture.completedFuture(new OrderRepository.OrderPage(Collections.emptyList(), null));
+                        return orderPage.thenApply(fetched -> render(fetched, totalPages, null, fields));
+                    });
+        }
+    }
+
+    /**
+     * @param gzip whether the client accepts gzip; only bodies of at least
+     *             {@code compression.min-bytes} are compressed
+     */
+    private Response listingResponse(Object entity, EntityTag etag, boolean gzip) {
+        Response.ResponseBuilder response = Response.ok()
+                .header("Access-Control-Allow-Origin", "*")
+                .header("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS")
+                .header("Access-Control-Allow-Headers", "Content-Type,X-Amz-Date,Authorization,X-Api-Key,X-Amz-Security-Token,X-Amz-User-Agent")
+                .header("Vary", "Authorization, Accept-Encoding");
+        if (etag != null) {
+            response.tag(etag).header("Cache-Control", "private, no-cache");
+        }
+        if (gzip && entity instanceof byte[] && ((byte[]) entity).length >= ordersConfig.getCompressionMinBytes()) {
+            Timer.Context compression = requestMetrics.stage("compression").time();
+            entity = ResponseCompression.gzip((byte[]) entity, ordersConfig.getCompressionLevel());
+            compression.stop();
+            response.header("Content-Encoding", "gzip");
+        }
+        return response.entity(entity).build();
+    }
+
+    /**
+     * Weak, because gzip and identity bodies share it. It covers the user, so a tag never
+     * matches another user's listing, and the rendering options.
+     */
+    private EntityTag etag(String userId, String pageKey, long orderVersion) {
+        String digest = hashKey(userId + '\0' + pageKey + '\0' + orderVersion + '\0' + ordersConfig.getOrderListAsString());
+        return new EntityTag(digest.substring(0, 22), true);
+    }
+
+    private static boolean matches(String ifNoneMatch, EntityTag etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.equals("*")) {
+                return true;
+            }
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("\"" + etag.getValue() + "\"")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private OrderListingWriter render(OrderRepository.OrderPage fetched, Integer totalPages, String nextToken,
+                                      OrderFieldSet fields) {
+        Timer.Context transform = requestMetrics.stage("transform").time();
+        try {
+            requestMetrics.recordOrdersPerResponse(fetched.getItems().size());
+            payloadLogSampler.log(LOGGER, "Orders page: ", fetched::getItems);
+            return new OrderListingWriter(fetched.getItems(), totalPages, nextToken, ordersConfig.getOrderListAsString(), fields);
+        } finally {
+            transform.stop();
+        }
+    }
+
+    public CompletionStage<Response> getOrdersFallback(String userId, int page, int pageSize, Integer limit,
+                                                       Map<String, AttributeValue> exclusiveStartKey,
+                                                       OrderRepository.TimeFilter timeFilter, OrderFieldSet fields,
+                                                       String ifNoneMatch, String acceptEncoding) {
+        LOGGER.info("Fallback activated: Unable to fetch orders at the moment for token: " + userId);
+        Map<String, String> response = new HashMap<>();
+        response.put("description", "Unable to fetch orders at the moment. Please try again later.");
+        return CompletableFuture.completedFuture(Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                .header("Access-Control-Allow-Origin", "*")
+                .header("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS")
+                .header("Access-Control-Allow-Headers", "Content-Type,X-Amz-Date,Authorization,X-Api-Key,X-Amz-Security-Token,X-Amz-User-Agent")
+                .entity(new Gson().toJson(response))
+                .build());
+    }
+
+    /**
+     * @param hashKey          order key chosen by the caller once per checkout, so that fault
+     *                         tolerance retries and resubmissions with the same idempotency key
+     *                         write the same row
+     * @param idempotencyKeyed whether {@code hashKey} comes from the client's {@code Idempotency-Key}
+     * @param orderLines       the order's {@code orderListStr}, already parsed and validated
+     */
+    @Asynchronous
+    @Timeout(value = 50, unit = ChronoUnit.SECONDS) // Timeout after 50 seconds
+    @Retry(maxRetries = 3) // Retry up to 3 times
+    @Fallback(fallbackMethod = "addOrderFallback") // Fallback method if all retries fail
+    // Concurrency is bounded by ConcurrencyLimiter in OrdersResource
+    @CircuitBreaker(requestVolumeThreshold = 20, failureRatio = 0.5, delay = 2000)
+    public CompletionStage<Response> checkoutOrder(String userId, String hashKey, boolean idempotencyKeyed, String authHeader,
+                                                   Optional<URL> cartServiceUrl, Order order, List<OrderLine> orderLines) {
+        if (checkoutDedupeCache.isCompleted(userId, hashKey)) {
+            LOGGER.info("Checkout already completed, answering from the idempotency cache");
+            return CompletableFuture.completedFuture(paymentSuccessful());
+        }
+
+        String timeStamp = Instant.now().toString();
+
+        Map<String, AttributeValue> itemValues = orderItem(userId, hashKey, order, orderLines, timeStamp,
+                ordersConfig.getOrderListNative());
+
+        long outboxSeq = recordCartClear(userId, hashKey, authHeader, cartServiceUrl);
+
+        return orderRepository.putOrder(itemValues, idempotencyKeyed)
+                .thenCompose(stored -> {
+                    if (!stored) {
+                        // An earlier attempt stored the order; its cart clearing may not have finished
+                        LOGGER.info("Order " + hashKey + " already stored, skipping the write");
+                        checkoutDedupeCache.recordRejectedWrite();
+                    } else if (orderStatistics.isEnabled()) {
+                        orderStatistics.record(userId, hashKey, timeStamp, "COMPLETED", order.getTotalPrice().toString());
+                    }
+                    // Detach in-flight reads first: a read joining one after the invalidation would
+                    // cache the page it returns under the new cache version
+                    orderReadCoalescer.forget(userId);
+                    orderHistoryCache.invalidate(userId);
+                    hedgedReads.onWrite(userId);
+                    if (ordersConfig.getEtagEnabled()) {
+                        // Also after a duplicate, in case the attempt that stored the order failed before
+                        // this. Best effort: the order is durable whether or not the version moves
+                        orderVersionStore.increment(userId).exceptionally(e -> {
+                            LOGGER.log(Level.WARNING, "Failed to bump the order version after checkout", e);
+                            return null;
+                        });
+                    }
+                    if (outboxSeq > 0) {
+                        cartClearOutbox.release(outboxSeq);
+                        return CompletableFuture.<Void>completedFuture(null);
+                    }
+                    return clearCart(authHeader, cartServiceUrl);
+                })
+                .thenApply(cleared -> {
+                    checkoutDedupeCache.markCompleted(userId, hashKey);
+                    LOGGER.info("Payment successful");
+                    return paymentSuccessful();
+                }).exceptionally(e -> {
+                    if (outboxSeq > 0) {
+                        cartClearOutbox.discard(outboxSeq);
+                    }
+                    LOGGER.log(Level.SEVERE, "Failed to process checkout", e);
+                    throw new CompletionException(new WebApplicationException("Failed to process checkout",
+                            unwrap(e), Response.Status.INTERNAL_SERVER_ERROR));
+                });
+    }
+
+    /**
+     * @param userId the user whose statistics are read, or {@code null} for the global statistics
+     */
+    @Asynchronous
+    @Timeout(value = 50, unit = ChronoUnit.SECONDS) // Timeout after 50 seconds
+    @Retry(maxRetries = 3) // Retry up to 3 times
+    @Fallback(fallbackMethod = "getOrderStatsFallback") // Fallback method if all retries fail
+    @CircuitBreaker(requestVolumeThreshold = 4, failureRatio = 0.5, delay = 2000)
+    @Bulkhead(value = 100, waitingTaskQueue = 100) // Limit concurrent calls to 100
+    public CompletionStage<Response> getOrderStats(String userId, LocalDate from, LocalDate to) {
+        CompletionStage<String> stats = userId != null
+                ? orderStatistics.userStats(userId, from, to)
+                : orderStatistics.globalStats(from, to);
+        return stats.thenApply(body -> Response.ok()
+                .header("Access-Control-Allow-Origin", "*")
+                .header("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS")
+                .header("Access-Control-Allow-Headers", "Content-Type,X-Amz-Date,Authorization,X-Api-Key,X-Amz-Security-Token,X-Amz-User-Agent")
+                .entity(body)
+                .build()
+        ).exceptionally(e -> {
+            LOGGER.log(Level.INFO, "Failed to obtain order statistics", e);
+            throw new CompletionException(new WebApplicationException("Failed to obtain order statistics. Please try again later.",
+                    unwrap(e), Response.Status.INTERNAL_SERVER_ERROR));
+        });
+    }
+
+    public CompletionStage<Response> getOrderStatsFallback(String userId, LocalDate from, LocalDate to) {
+        LOGGER.info("Fallback activated: Unable to fetch order statistics at the moment.");
+        Map<String, String> response = new HashMap<>();
+        response.put("description", "Unable to fetch order statistics at the moment. Please try again later.");
+        return CompletableFuture.completedFuture(Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                .header("Access-Control-Allow-Origin", "*")
+                .header("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS")
+                .header("Access-Control-Allow-Headers", "Content-Type,X-Amz-Date,Authorization,X-Api-Key,X-Amz-Security-Token,X-Amz-User-Agent")
+                .entity(new Gson().toJson(response))
+                .build());
+    }
+
+    private static Response paymentSuccessful() {
+        return Response.status(Response.Status.OK)
+                .header("Access-Control-Allow-Origin", "*")
+                .header("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS")
+                .header("Access-Control-Allow-Headers", "Content-Type,X-Amz-Date,Authorization,X-Api-Key,X-Amz-Security-Token,X-Amz-User-Agent")
+                .entity(new Gson().toJson("Payment successful"))
+                .build();
+    }
+
+    public CompletionStage<Response> addOrderFallback(String userId, String hashKey, boolean idempotencyKeyed, String authHeader,
+                                                      Optional<URL> cartServiceUrl, Order order, List<OrderLine> orderLines) {
+        LOGGER.info("Fallback activated: Unable to process checkout at the moment.");
+        Map<String, String> response = new HashMap<>();
+        response.put("description", "Unable to process checkout at the moment. Please try again later.");
+        return CompletableFuture.completedFuture(Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                .header("Access-Control-Allow-Origin", "*")
+                .header("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS")
+                .header("Access-Control-Allow-Headers", "Content-Type,X-Amz-Date,Authorization,X-Api-Key,X-Amz-Security-Token,X-Amz-User-Agent")
+                .entity(new Gson().toJson(response))
+                .build());
+    }
+
+    /**
+     * Journals the cart clear intent before the order is written.
+     *
+     * @return the outbox sequence number, or 0 when the cart has to be cleared inline
+     */
+    private long recordCartClear(String userId, String hashKey, String authHeader, Optional<URL> cartServiceUrl) {
+        if (!cartClearOutbox.isEnabled() || !cartServiceUrl.isPresent()) {
+            return 0;
+        }
+        try {
+            return cartClearOutbox.record(userId, hashKey, authHeader, cartServiceUrl.get());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Unable to journal cart clear intent, clearing the cart inline", e);
+            return 0;
+        }
+    }
+
+    private CompletionStage<Void> clearCart(String authHeader, Optional<URL> cartServiceUrl) {
+        if (!cartServiceUrl.isPresent()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        URL url = cartServiceUrl.get();
+        Timer.Context clientSetup = requestMetrics.stage("clientSetup").time();
+        if (ordersConfig.getAsyncIo()) {
+            CartServiceAsyncApi api = asyncCartClients.computeIfAbsent(url.toString(),
+                    key -> RestClientBuilder.newBuilder().baseUrl(url).build(CartServiceAsyncApi.class));
+            clientSetup.stop();
+            return requestMetrics.time("cartService", api.deleteCart(authHeader)).thenAccept(OrdersService::checkCartResponse);
+        }
+        CartServiceApi api = cartClients.computeIfAbsent(url.toString(),
+                key -> RestClientBuilder.newBuilder().baseUrl(url).build(CartServiceApi.class));
+        clientSetup.stop();
+        return requestMetrics.time("cartService", blockingIo.supply(() -> api.deleteCart(authHeader)))
+                .thenAccept(OrdersService::checkCartResponse);
+    }
+
+    /**
+     * The orders table item of a completed checkout.
+     */
+    static Map<String, AttributeValue> orderItem(String userId, String hashKey, Order order, List<OrderLine> orderLines,
+                                                 String timeStamp, boolean orderListNative) {
+        Map<String, AttributeValue> itemValues = new HashMap<>();
+        itemValues.put("UserId", AttributeValue.builder().s(userId).build());
+        itemValues.put("HashKey", AttributeValue.builder().s(hashKey).build());
+        itemValues.put("Email", AttributeValue.builder().s(order.getEmail()).build());
+        itemValues.put("Name", AttributeValue.builder().s(order.getName()).build());
+        itemValues.put("Surname", AttributeValue.builder().s(order.getSurname()).build());
+        itemValues.put("Address", AttributeValue.builder().s(order.getAddress()).build());
+        itemValues.put("TelNumber", AttributeValue.builder().s(order.getTelNumber()).build());
+        itemValues.put("OrderList", orderListNative
+                ? OrderLine.toAttributeValue(orderLines)
+                : AttributeValue.builder().s(order.getOrderListStr()).build());
+        itemValues.put("TotalPrice", AttributeValue.builder().n(order.getTotalPrice().toString()).build());
+        itemValues.put("OrderStatus", AttributeValue.builder().s("COMPLETED").build());
+        itemValues.put("TimeStamp", AttributeValue.builder().s(timeStamp).build());
+        itemValues.put(OrderRepository.STATUS_TIME, AttributeValue.builder().s(OrderRepository.statusTime("COMPLETED", timeStamp)).build());
+        return itemValues;
+    }
+
+    public static String hashKey(String hashKeyInput) {
+        String hashKey = null;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(hashKeyInput.getBytes(StandardCharsets.UTF_8));
+            hashKey = Base64.getEncoder().encodeToString(hash);
+        } catch (NoSuchAlgorithmException e) {
+            LOGGER.log(Level.SEVERE, "SHA-256 is not available, unable to derive the order hash key", e);
+        }
+        return hashKey;
+    }
+
+    private static void checkCartResponse(Response response) {
+        if (response.getStatus() != Response.Status.OK.getStatusCode()) {
+            throw new RuntimeException("Failed : HTTP error code : " + response.getStatus());
+        }
+    }
+
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+}
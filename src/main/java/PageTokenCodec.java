@@ -0,0 +1,193 @@
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import javax.annotation.PostConstruct;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Turns a DynamoDB {@code LastEvaluatedKey} into an opaque continuation token and back.
+ * Tokens are HMAC-SHA256 signed and bound to the user and the listing they were issued for,
+ * so a client can neither forge a start key nor replay another user's token, nor use a token
+ * of one time-ordered listing on another, e.g. with a different {@code status}.
+ */
+@ApplicationScoped
+public class PageTokenCodec {
+
+    private static final Logger LOGGER = Logger.getLogger(PageTokenCodec.class.getName());
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    @Inject
+    private OrdersConfigProperties ordersConfig;
+
+    private byte[] fallbackSecret;
+
+    /**
+     * Creates the bean at startup, so a missing secret fails the deployment instead of the
+     * first listing.
+     */
+    private void onStart(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        LOGGER.fine("Page token codec ready");
+    }
+
+    @PostConstruct
+    private void init() {
+        fallbackSecret = new byte[32];
+        new SecureRandom().nextBytes(fallbackSecret);
+        String configuredSecret = ordersConfig.getPageTokenSecret();
+        if (configuredSecret == null || configuredSecret.isEmpty()) {
+            // A per-instance secret makes every token fail on the other replicas
+            if (ordersConfig.getPageTokenSecretRequired()) {
+                throw new IllegalStateException("orders-config.page-token-secret is not set, it has to be shared by all replicas");
+            }
+            LOGGER.warning("No page-token-secret configured, page tokens will only be valid on this instance");
+        }
+    }
+
+    /**
+     * The listing a token is valid for: {@code null} for the table, otherwise the index query
+     * with its day range and status, because a start key is only valid for the query it came from.
+     */
+    public static String listing(OrderRepository.TimeFilter timeFilter) {
+        return timeFilter == null ? null : "index:" + timeFilter;
+    }
+
+    public String encode(String userId, Map<String, AttributeValue> lastEvaluatedKey) {
+        return encode(userId, null, lastEvaluatedKey);
+    }
+
+    /**
+     * @param listing see {@link #listing(OrderRepository.TimeFilter)}
+     */
+    public String encode(String userId, String listing, Map<String, AttributeValue> lastEvaluatedKey) {
+        if (lastEvaluatedKey == null || lastEvaluatedKey.isEmpty()) {
+            return null;
+        }
+        JsonObject key = new JsonObject();
+        for (Map.Entry<String, AttributeValue> entry : lastEvaluatedKey.entrySet()) {
+            JsonObject value = new JsonObject();
+            if (entry.getValue().s() != null) {
+                value.addProperty("S", entry.getValue().s());
+            } else if (entry.getValue().n() != null) {
+                value.addProperty("N", entry.getValue().n());
+            } else {
+                throw new IllegalArgumentException("Unsupported key attribute type for " + entry.getKey());
+            }
+            key.add(entry.getKey(), value);
+        }
+        JsonObject payload = new JsonObject();
+        payload.addProperty("u", userId);
+        if (listing != null) {
+            payload.addProperty("l", listing);
+        }
+        payload.add("k", key);
+        return seal(payload);
+    }
+
+    public Map<String, AttributeValue> decode(String userId, String token) {
+        return decode(userId, null, token);
+    }
+
+    /**
+     * @param listing see {@link #listing(OrderRepository.TimeFilter)}
+     * @throws IllegalArgumentException if the token was tampered with, is malformed, belongs to
+     *                                  another user or was issued for another listing
+     */
+    public Map<String, AttributeValue> decode(String userId, String listing, String token) {
+        if (token == null || token.isEmpty()) {
+            return null;
+        }
+        try {
+            JsonObject payload = open(token);
+            if (!payload.has("u") || !userId.equals(payload.get("u").getAsString())) {
+                throw invalidToken();
+            }
+            String tokenListing = payload.has("l") ? payload.get("l").getAsString() : null;
+            if (listing == null ? tokenListing != null : !listing.equals(tokenListing)) {
+                throw new IllegalArgumentException("Page token does not belong to this listing.");
+            }
+            Map<String, AttributeValue> startKey = new HashMap<>();
+            for (Map.Entry<String, JsonElement> entry : payload.getAsJsonObject("k").entrySet()) {
+                JsonObject value = entry.getValue().getAsJsonObject();
+                if (value.has("S")) {
+                    startKey.put(entry.getKey(), AttributeValue.builder().s(value.get("S").getAsString()).build());
+                } else {
+                    startKey.put(entry.getKey(), AttributeValue.builder().n(value.get("N").getAsString()).build());
+                }
+            }
+            return startKey;
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            LOGGER.info("Rejected malformed page token: " + e.getMessage());
+            throw invalidToken();
+        }
+    }
+
+    /**
+     * Signs an arbitrary JSON payload into an opaque token.
+     */
+    public String seal(JsonObject payload) {
+        byte[] payloadBytes = payload.toString().getBytes(StandardCharsets.UTF_8);
+        Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+        return encoder.encodeToString(payloadBytes) + "." + encoder.encodeToString(sign(payloadBytes));
+    }
+
+    /**
+     * Verifies a token created by {@link #seal(JsonObject)} and returns its payload.
+     *
+     * @throws IllegalArgumentException if the token was tampered with or is malformed
+     */
+    public JsonObject open(String token) {
+        try {
+            int separator = token.indexOf('.');
+            if (separator <= 0) {
+                throw invalidToken();
+            }
+            Base64.Decoder decoder = Base64.getUrlDecoder();
+            byte[] payloadBytes = decoder.decode(token.substring(0, separator));
+            byte[] signature = decoder.decode(token.substring(separator + 1));
+            if (!MessageDigest.isEqual(sign(payloadBytes), signature)) {
+                throw invalidToken();
+            }
+            return JsonParser.parseString(new String(payloadBytes, StandardCharsets.UTF_8)).getAsJsonObject();
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            LOGGER.info("Rejected malformed page token: " + e.getMessage());
+            throw invalidToken();
+        }
+    }
+
+    private byte[] sign(byte[] payload) {
+        String configuredSecret = ordersConfig.getPageTokenSecret();
+        byte[] secret = configuredSecret == null || configuredSecret.isEmpty()
+                ? fallbackSecret
+                : configuredSecret.getBytes(StandardCharsets.UTF_8);
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(new SecretKeySpec(secret, HMAC_ALGORITHM));
+            return mac.doFinal(payload);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to sign page token", e);
+        }
+    }
+
+    private static IllegalArgumentException invalidToken() {
+        return new IllegalArgumentException("Invalid page token.");
+    }
+}
@@ -0,0 +1,32 @@
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Logs response payloads for a sample of requests. The payload is only rendered when the
+ * logger is enabled for {@code FINE} and the request is picked by
+ * {@code orders-config.payload-logging.sample-rate}, so the hot path pays nothing otherwise.
+ */
+@ApplicationScoped
+public class PayloadLogSampler {
+
+    @Inject
+    private OrdersConfigProperties ordersConfig;
+
+    public void log(Logger logger, String message, Supplier<Object> payload) {
+        double sampleRate = ordersConfig.getPayloadLogSampleRate();
+        if (sampleRate <= 0 || !logger.isLoggable(Level.FINE)
+                || (sampleRate < 1 && ThreadLocalRandom.current().nextDouble() >= sampleRate)) {
+            return;
+        }
+        String rendered = String.valueOf(payload.get());
+        int maxChars = ordersConfig.getPayloadLogMaxChars();
+        if (rendered.length() > maxChars) {
+            rendered = rendered.substring(0, maxChars) + "... (" + rendered.length() + " chars)";
+        }
+        logger.fine(message + rendered);
+    }
+}
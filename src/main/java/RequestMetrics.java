@@ -0,0 +1,131 @@
+import org.eclipse.microprofile.metrics.Counter;
+import org.eclipse.microprofile.metrics.Gauge;
+import org.eclipse.microprofile.metrics.Histogram;
+import org.eclipse.microprofile.metrics.Metadata;
+import org.eclipse.microprofile.metrics.MetricRegistry;
+import org.eclipse.microprofile.metrics.MetricType;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.Tag;
+import org.eclipse.microprofile.metrics.Timer;
+import org.eclipse.microprofile.metrics.annotation.Metric;
+import software.amazon.awssdk.services.dynamodb.model.ConsumedCapacity;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.ws.rs.core.StreamingOutput;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Per-stage latency and DynamoDB capacity metrics shared by the request pipelines.
+ *
+ * <ul>
+ *     <li>{@code requestStageTime{stage=...}}: token, clientSetup, dynamodb, transform,
+ *     serialization and cartService.</li>
+ *     <li>{@code dynamoConsumedReadUnits{operation=...}} and
+ *     {@code dynamoConsumedWriteUnits{operation=...}}: capacity reported by
+ *     {@code ReturnConsumedCapacity}.</li>
+ *     <li>{@code dynamoThrottledAttempts{operation=...}}: attempts DynamoDB throttled, including
+ *     the ones the SDK retried successfully.</li>
+ *     <li>{@code ordersPerResponse}: items returned per order listing.</li>
+ * </ul>
+ */
+@ApplicationScoped
+public class RequestMetrics {
+
+    @Inject
+    private MetricRegistry registry;
+
+    @Inject
+    @Metric(name = "ordersPerResponse", description = "Orders returned per listing response")
+    private Histogram ordersPerResponse;
+
+    private final Map<String, Timer> stageTimers = new ConcurrentHashMap<>();
+    private final Map<String, DoubleAdder> readUnits = new ConcurrentHashMap<>();
+    private final Map<String, DoubleAdder> writeUnits = new ConcurrentHashMap<>();
+    private final Map<String, Counter> throttles = new ConcurrentHashMap<>();
+
+    public Timer stage(String stage) {
+        return stageTimers.computeIfAbsent(stage, name -> registry.timer(Metadata.builder()
+                .withName("requestStageTime")
+                .withDescription("Time spent in one stage of a request")
+                .withType(MetricType.TIMER)
+                .withUnit(MetricUnits.NANOSECONDS)
+                .build(), new Tag("stage", name)));
+    }
+
+    /**
+     * Times {@code stage} until the returned stage completes, successfully or not.
+     */
+    public <T> CompletionStage<T> time(String stage, CompletionStage<T> work) {
+        Timer.Context context = stage(stage).time();
+        return work.whenComplete((result, e) -> context.stop());
+    }
+
+    /**
+     * Wraps a response body so the time spent writing it is recorded as {@code serialization}.
+     */
+    public StreamingOutput timeSerialization(StreamingOutput body) {
+        return output -> {
+            Timer.Context context = stage("serialization").time();
+            try {
+                body.write(output);
+            } finally {
+                context.stop();
+            }
+        };
+    }
+
+    public void recordCapacity(String operation, ConsumedCapacity consumedCapacity) {
+        if (consumedCapacity == null) {
+            return;
+        }
+        if (consumedCapacity.readCapacityUnits() != null || consumedCapacity.writeCapacityUnits() != null) {
+            add(readUnits, "dynamoConsumedReadUnits", operation, consumedCapacity.readCapacityUnits());
+            add(writeUnits, "dynamoConsumedWriteUnits", operation, consumedCapacity.writeCapacityUnits());
+        } else if (operation.equals("Query") || operation.equals("Scan") || operation.equals("GetItem")) {
+            // With TOTAL only capacityUnits is reported; reads and writes follow from the operation
+            add(readUnits, "dynamoConsumedReadUnits", operation, consumedCapacity.capacityUnits());
+        } else {
+            add(writeUnits, "dynamoConsumedWriteUnits", operation, consumedCapacity.capacityUnits());
+        }
+    }
+
+    public void recordCapacity(String operation, List<ConsumedCapacity> consumedCapacity) {
+        if (consumedCapacity != null) {
+            for (ConsumedCapacity capacity : consumedCapacity) {
+                recordCapacity(operation, capacity);
+            }
+        }
+    }
+
+    public void recordThrottle(String operation) {
+        throttles.computeIfAbsent(operation, name -> registry.counter(Metadata.builder()
+                .withName("dynamoThrottledAttempts")
+                .withDescription("DynamoDB attempts rejected with a throttling error")
+                .withType(MetricType.COUNTER)
+                .build(), new Tag("operation", name))).inc();
+    }
+
+    public void recordOrdersPerResponse(int items) {
+        ordersPerResponse.update(items);
+    }
+
+    private void add(Map<String, DoubleAdder> units, String metric, String operation, Double value) {
+        if (value == null) {
+            return;
+        }
+        units.computeIfAbsent(operation, name -> {
+            DoubleAdder adder = new DoubleAdder();
+            registry.register(Metadata.builder()
+                    .withName(metric)
+                    .withDescription("Capacity units consumed by DynamoDB " + name + " calls")
+                    .withType(MetricType.GAUGE)
+                    .build(), (Gauge<Double>) adder::sum, new Tag("operation", name));
+            return adder;
+        }).add(value);
+    }
+}
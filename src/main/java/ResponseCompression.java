@@ -0,0 +1,57 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * {@code Accept-Encoding} negotiation and gzip compression of rendered response bodies.
+ */
+public class ResponseCompression {
+
+    /**
+     * Whether the client accepts gzip: listed with a non-zero q-value, or covered by {@code *}.
+     */
+    public static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        Double gzip = null;
+        Double any = null;
+        for (String coding : acceptEncoding.toLowerCase(Locale.ROOT).split(",")) {
+            String[] parts = coding.trim().split(";");
+            double q = 1.0;
+            for (int i = 1; i < parts.length; i++) {
+                String parameter = parts[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            String name = parts[0].trim();
+            if (name.equals("gzip") || name.equals("x-gzip")) {
+                gzip = q;
+            } else if (name.equals("*")) {
+                any = q;
+            }
+        }
+        return gzip != null ? gzip > 0 : any != null && any > 0;
+    }
+
+    public static byte[] gzip(byte[] body, int level) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(body.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(buffer, 8192) {
+            {
+                def.setLevel(Math.max(1, Math.min(9, level)));
+            }
+        }) {
+            gzip.write(body);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return buffer.toByteArray();
+    }
+}
@@ -1,6 +1,9 @@
 import com.google.gson.*;
 import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
 
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -8,6 +11,8 @@ import java.util.Map;
 
 public class ResponseTransformer {
 
+    private static final DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd-MM-yyyy");
+
     public static Map<String, String> transformItem(Map<String, AttributeValue> item) {
         Map<String, String> itemString = new HashMap<>();
         for (Map.Entry<String, AttributeValue> entry : item.entrySet()) {
@@ -64,7 +69,17 @@ public class ResponseTransformer {
     public static Map<String, String> transformOrderItem(Map<String, AttributeValue> item) {
         Map<String, String> itemString = new HashMap<>();
         for (Map.Entry<String, AttributeValue> entry : item.entrySet()) {
-            if (entry.getValue().s() != null) {
+            if (entry.getKey().equals("OrderList") && entry.getValue().hasL()) {
+                // Native order lines are already parsed, only re-shape them
+                List<Map<String, String>> products = new ArrayList<>();
+                for (OrderLine line : OrderLine.read(entry.getValue())) {
+                    Map<String, String> product = new HashMap<>();
+                    product.put("productName", line.getProductName());
+                    product.put("quantity", Integer.toString(line.getQuantity()));
+                    products.add(product);
+                }
+                itemString.put("OrderList", new Gson().toJson(products));
+            } else if (entry.getValue().s() != null) {
                 // If the attribute is "OrderList", parse the JSON string into a list of objects
                 if (entry.getKey().equals("OrderList")) {
                     String orderListStr = entry.getValue().s();
@@ -90,5 +105,13 @@ public class ResponseTransformer {
         return itemString;
     }
 
+    // Rewrites the ISO-8601 TimeStamp of a transformed order as a local dd-MM-yyyy date
+    public static void formatOrderTimestamp(Map<String, String> order) {
+        order.put("TimeStamp", formatTimestamp(order.get("TimeStamp")));
+    }
 
+    public static String formatTimestamp(String isoTimestamp) {
+        Instant timestamp = Instant.parse(isoTimestamp);
+        return formatter.format(timestamp.atZone(ZoneId.systemDefault()).toLocalDate());
+    }
 }
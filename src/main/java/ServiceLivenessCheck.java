@@ -0,0 +1,27 @@
+import org.eclipse.microprofile.health.HealthCheck;
+import org.eclipse.microprofile.health.HealthCheckResponse;
+import org.eclipse.microprofile.health.Liveness;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+/**
+ * Liveness only looks at in-process state: the service is alive while the table health
+ * refresher keeps running. DynamoDB being slow or unreachable makes the pod unready instead
+ * (see {@link DynamoDbHealthCheck}), because restarting it would not help.
+ */
+@ApplicationScoped
+@Liveness
+public class ServiceLivenessCheck implements HealthCheck {
+
+    @Inject
+    private TableHealthMonitor tableHealthMonitor;
+
+    @Override
+    public HealthCheckResponse call() {
+        return HealthCheckResponse.named("Orders liveness check")
+                .withData("lastRefreshAgeMs", System.currentTimeMillis() - tableHealthMonitor.getLastRunMillis())
+                .state(tableHealthMonitor.isRefreshing())
+                .build();
+    }
+}
@@ -0,0 +1,239 @@
+import com.auth0.jwk.JwkException;
+import org.eclipse.microprofile.metrics.MetricUnits;
+import org.eclipse.microprofile.metrics.Timer;
+import org.eclipse.microprofile.metrics.annotation.Gauge;
+import org.eclipse.microprofile.metrics.annotation.Metric;
+import software.amazon.awssdk.services.dynamodb.model.AttributeValue;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.lang.management.ManagementFactory;
+import java.net.MalformedURLException;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Does the one-time work of a new pod before it takes traffic, instead of on the first user
+ * requests:
+ *
+ * <ol>
+ *     <li>Builds the DynamoDB clients and opens {@code startup.warm-up-connections} pooled
+ *     connections (TLS included) with queries of an empty {@code WARMUP#} partition, and
+ *     fetches the signing keys of {@code token.issuer} into {@link TokenVerifier}'s JWKS
+ *     cache.</li>
+ *     <li>Runs the CPU side of getOrders and checkoutOrder {@code startup.warm-up-iterations}
+ *     times on synthetic orders standing in for DynamoDB: order line parsing, item building,
+ *     listing rendering, page tokens, ETags and gzip. This loads and links the classes and
+ *     gets the hot methods JIT compiled.</li>
+ * </ol>
+ *
+ * <p>{@link WarmupHealthCheck} keeps the pod unready until both are done, or until
+ * {@code startup.warm-up-max-seconds} passed. With {@code -Dorders.startup.training-run=true}
+ * only the second step runs and the JVM exits afterwards, with status 1 if it failed; the
+ * Dockerfile uses this, with {@code src/main/docker/training-config.yaml}, to record the
+ * classes for the class-data sharing archive.
+ *
+ * <p>Also reports how long the pod took to become ready and to see its first request, and the
+ * latency of the requests of its first {@code startup.first-requests-seconds}.
+ */
+@ApplicationScoped
+public class StartupWarmup {
+
+    private static final Logger LOGGER = Logger.getLogger(StartupWarmup.class.getName());
+    private static final String PARTITION_PREFIX = "WARMUP#";
+    private static final int LISTING_SIZE = 20;
+
+    @Inject
+    private DynamoDbClientRegistry clientRegistry;
+
+    @Inject
+    private OrderRepository orderRepository;
+
+    @Inject
+    private PageTokenCodec pageTokenCodec;
+
+    @Inject
+    private OrdersConfigProperties ordersConfig;
+
+    @Inject
+    @Metric(name = "firstRequestsTime", description = "Latency of the requests a pod served right after it became ready")
+    private Timer firstRequestsTime;
+
+    private final long jvmStartMillis = ManagementFactory.getRuntimeMXBean().getStartTime();
+    private volatile boolean warm;
+    private volatile long readyAtNanos;
+    private volatile long timeToReadyMillis = -1;
+    private volatile long warmupMillis = -1;
+    private final AtomicLong timeToFirstRequestMillis = new AtomicLong(-1);
+
+    private void onStart(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        boolean trainingRun = Boolean.getBoolean("orders.startup.training-run");
+        if (!ordersConfig.getStartupWarmUpEnabled() && !trainingRun) {
+            ready();
+            return;
+        }
+        Thread warmup = new Thread(() -> {
+            long start = System.nanoTime();
+            long deadline = start + TimeUnit.SECONDS.toNanos(ordersConfig.getStartupWarmUpMaxSeconds());
+            boolean failed = false;
+            try {
+                if (!trainingRun) {
+                    openConnections(deadline);
+                    fetchSigningKeys();
+                }
+                exerciseCodePaths(ordersConfig.getStartupWarmUpIterations(), deadline);
+            } catch (RuntimeException e) {
+                failed = true;
+                LOGGER.log(Level.WARNING, "Warm-up failed, taking traffic cold", e);
+            } finally {
+                warmupMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                ready();
+            }
+            if (trainingRun) {
+                // A failed run would archive the classes of a partial warm-up, so fail the build
+                LOGGER.info("Training run finished" + (failed ? " with a failed warm-up" : "") + ", exiting");
+                System.exit(failed ? 1 : 0);
+            }
+        }, "startup-warmup");
+        warmup.setDaemon(true);
+        warmup.start();
+    }
+
+    private void openConnections(long deadline) {
+        clientRegistry.client();
+        if (ordersConfig.getAsyncIo()) {
+            clientRegistry.asyncClient();
+        }
+        clientRegistry.readReplicas();
+        int connections = ordersConfig.getStartupWarmUpConnections();
+        CompletableFuture<?>[] reads = new CompletableFuture<?>[connections];
+        for (int i = 0; i < connections; i++) {
+            // Concurrent, so that each read needs a connection of its own
+            reads[i] = orderRepository.fetchPage(PARTITION_PREFIX + i, null, 1, OrderFieldSet.ALL).toCompletableFuture();
+        }
+        try {
+            CompletableFuture.allOf(reads).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            LOGGER.warning("Warm-up reads did not finish in time");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Warm-up reads failed", e);
+        }
+    }
+
+    private void fetchSigningKeys() {
+        try {
+            TokenVerifier.prefetch(ordersConfig.getTokenIssuer(), ordersConfig.getTokenJwksUri());
+        } catch (JwkException | MalformedURLException e) {
+            LOGGER.log(Level.WARNING, "Unable to fetch the token signing keys, the first request will fetch them", e);
+        }
+    }
+
+    private void exerciseCodePaths(int iterations, long deadline) {
+        String userId = PARTITION_PREFIX + "user";
+        List<Map<String, AttributeValue>> listing = syntheticListing();
+        Order order = syntheticOrder();
+        long checksum = 0;
+        for (int i = 0; i < iterations && System.nanoTime() - deadline < 0; i++) {
+            // checkoutOrder
+            List<OrderLine> orderLines = OrderLine.parseList(order.getOrderListStr());
+            String hashKey = OrdersService.hashKey(userId + '\0' + i);
+            Map<String, AttributeValue> item = OrdersService.orderItem(userId, hashKey, order, orderLines,
+                    Instant.now().toString(), ordersConfig.getOrderListNative());
+
+            // getOrders
+            Map<String, AttributeValue> lastKey = new HashMap<>();
+            lastKey.put("UserId", item.get("UserId"));
+            lastKey.put("HashKey", item.get("HashKey"));
+            String nextToken = pageTokenCodec.encode(userId, lastKey);
+            pageTokenCodec.decode(userId, nextToken);
+            byte[] body = new OrderListingWriter(listing, null, nextToken, ordersConfig.getOrderListAsString(),
+                    OrderFieldSet.ALL).toBytes();
+            checksum += OrdersService.hashKey(userId + '\0' + i + '\0' + body.length).length();
+            if (ordersConfig.getCompressionEnabled()) {
+                checksum += ResponseCompression.gzip(body, ordersConfig.getCompressionLevel()).length;
+            }
+        }
+        LOGGER.fine("Warm-up checksum " + checksum);
+    }
+
+    private static List<Map<String, AttributeValue>> syntheticListing() {
+        Instant base = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+        List<Map<String, AttributeValue>> items = new ArrayList<>(LISTING_SIZE);
+        for (int i = 0; i < LISTING_SIZE; i++) {
+            Order order = syntheticOrder();
+            String timeStamp = base.minus(i, ChronoUnit.HOURS).toString();
+            Map<String, AttributeValue> item = OrdersService.orderItem(PARTITION_PREFIX + "user", "warmup" + i, order,
+                    OrderLine.parseList(order.getOrderListStr()), timeStamp, i % 2 == 0);
+            items.add(item);
+        }
+        return items;
+    }
+
+    private static Order syntheticOrder() {
+        Order order = new Order();
+        order.setEmail("warmup@example.com");
+        order.setName("Warm");
+        order.setSurname("Up");
+        order.setAddress("1 Main St, Springfield");
+        order.setTelNumber("600000000");
+        order.setOrderListStr("[{\"productName\":\"USB-C Hub\",\"quantity\":\"2\"},{\"productName\":\"Desk Lamp\",\"quantity\":\"1\"}]");
+        order.setTotalPrice(59.98);
+        return order;
+    }
+
+    private void ready() {
+        readyAtNanos = System.nanoTime();
+        timeToReadyMillis = System.currentTimeMillis() - jvmStartMillis;
+        warm = true;
+        LOGGER.info("Ready " + timeToReadyMillis + " ms after JVM start");
+    }
+
+    public boolean isWarm() {
+        return warm;
+    }
+
+    /**
+     * @return the start time to hand to {@link #requestCompleted(long)}
+     */
+    public long requestStarted() {
+        if (timeToFirstRequestMillis.get() < 0) {
+            timeToFirstRequestMillis.compareAndSet(-1, System.currentTimeMillis() - jvmStartMillis);
+        }
+        return System.nanoTime();
+    }
+
+    public void requestCompleted(long startNanos) {
+        if (warm && startNanos - readyAtNanos < TimeUnit.SECONDS.toNanos(ordersConfig.getStartupFirstRequestsSeconds())) {
+            firstRequestsTime.update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    @Gauge(name = "startupTimeToReady", unit = MetricUnits.MILLISECONDS, description = "Time from JVM start until the warm-up finished")
+    public long getTimeToReady() {
+        return timeToReadyMillis;
+    }
+
+    @Gauge(name = "startupWarmupTime", unit = MetricUnits.MILLISECONDS, description = "Time the warm-up took")
+    public long getWarmupTime() {
+        return warmupMillis;
+    }
+
+    @Gauge(name = "startupTimeToFirstRequest", unit = MetricUnits.MILLISECONDS, description = "Time from JVM start until the first orders request")
+    public long getTimeToFirstRequest() {
+        return timeToFirstRequestMillis.get();
+    }
+}
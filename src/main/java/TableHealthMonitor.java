@@ -0,0 +1,167 @@
+import software.amazon.awssdk.services.dynamodb.model.*;
+
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
+import javax.inject.Inject;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Refreshes the orders table status in the background so that health probes never call
+ * DynamoDB themselves.
+ *
+ * <ul>
+ *     <li>{@code DescribeTable} is a control-plane API with low rate limits. It runs every
+ *     {@code health.describe-interval-seconds}, with a random start offset so the replicas do
+ *     not call it in lockstep. A failed call keeps the last good description, which the
+ *     readiness check accepts until it is {@code health.max-staleness-seconds} old.</li>
+ *     <li>A consistent {@code GetItem} of a key that never exists measures data-plane latency
+ *     every {@code health.probe-interval-seconds}.</li>
+ * </ul>
+ */
+@ApplicationScoped
+public class TableHealthMonitor {
+
+    private static final Logger LOGGER = Logger.getLogger(TableHealthMonitor.class.getName());
+    private static final String PROBE_PARTITION = "HEALTH#probe";
+
+    @Inject
+    private DynamoDbClientRegistry clientRegistry;
+
+    @Inject
+    private OrdersConfigProperties ordersConfig;
+
+    private final ScheduledExecutorService refresher = Executors.newScheduledThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "table-health-refresh");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile TableDescription table;
+    private volatile long describedAtMillis;
+    private volatile String describeError;
+
+    private volatile long probeLatencyMillis = -1;
+    private volatile long probedAtMillis;
+    private volatile String probeError;
+
+    private volatile long lastRunMillis = System.currentTimeMillis();
+
+    private void onStart(@Observes @Initialized(ApplicationScoped.class) Object init) {
+        long describeInterval = ordersConfig.getHealthDescribeIntervalSeconds();
+        long probeInterval = ordersConfig.getHealthProbeIntervalSeconds();
+        refresher.execute(this::describe);
+        refresher.scheduleWithFixedDelay(this::describe,
+                ThreadLocalRandom.current().nextLong(1, describeInterval + 1), describeInterval, TimeUnit.SECONDS);
+        refresher.scheduleWithFixedDelay(this::probe, 0, probeInterval, TimeUnit.SECONDS);
+    }
+
+    private void describe() {
+        lastRunMillis = System.currentTimeMillis();
+        try {
+            table = clientRegistry.backgroundClient().describeTable(DescribeTableRequest.builder()
+                    .tableName(clientRegistry.tableName())
+                    .build()).table();
+            describedAtMillis = System.currentTimeMillis();
+            describeError = null;
+        } catch (RuntimeException e) {
+            describeError = e.getClass().getSimpleName() + ": " + e.getMessage();
+            LOGGER.log(Level.FINE, "DescribeTable failed, keeping the previous table status", e);
+        }
+    }
+
+    private void probe() {
+        lastRunMillis = System.currentTimeMillis();
+        Map<String, AttributeValue> key = new HashMap<>();
+        key.put("UserId", AttributeValue.builder().s(PROBE_PARTITION).build());
+        key.put("HashKey", AttributeValue.builder().s(PROBE_PARTITION).build());
+        long start = System.nanoTime();
+        try {
+            clientRegistry.backgroundClient().getItem(GetItemRequest.builder()
+                    .tableName(clientRegistry.tableName())
+                    .key(key)
+                    .consistentRead(true)
+                    .build());
+            probeLatencyMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            probeError = null;
+        } catch (RuntimeException e) {
+            probeError = e.getClass().getSimpleName() + ": " + e.getMessage();
+            LOGGER.log(Level.FINE, "Data-plane health probe failed", e);
+        }
+        probedAtMillis = System.currentTimeMillis();
+    }
+
+    /**
+     * Whether the refresh tasks are still being scheduled. Only reads in-process state.
+     */
+    public boolean isRefreshing() {
+        long maxStallMillis = TimeUnit.SECONDS.toMillis(ordersConfig.getHealthLivenessMaxStallSeconds());
+        return !refresher.isShutdown() && System.currentTimeMillis() - lastRunMillis <= maxStallMillis;
+    }
+
+    public long getLastRunMillis() {
+        return lastRunMillis;
+    }
+
+    /**
+     * The last good {@code DescribeTable} result, or {@code null} if none succeeded yet.
+     */
+    public TableDescription getTable() {
+        return table;
+    }
+
+    /**
+     * Whether the last good description lists {@code indexName} as a local index or as an
+     * ACTIVE global index.
+     */
+    public boolean isIndexActive(String indexName) {
+        TableDescription description = table;
+        if (description == null) {
+            return false;
+        }
+        for (LocalSecondaryIndexDescription index : description.localSecondaryIndexes()) {
+            if (index.indexName().equals(indexName)) {
+                return true;
+            }
+        }
+        for (GlobalSecondaryIndexDescription index : description.globalSecondaryIndexes()) {
+            if (index.indexName().equals(indexName)) {
+                return index.indexStatus() == IndexStatus.ACTIVE;
+            }
+        }
+        return false;
+    }
+
+    public long getDescribedAtMillis() {
+        return describedAtMillis;
+    }
+
+    public String getDescribeError() {
+        return describeError;
+    }
+
+    public long getProbeLatencyMillis() {
+        return probeLatencyMillis;
+    }
+
+    public long getProbedAtMillis() {
+        return probedAtMillis;
+    }
+
+    public String getProbeError() {
+        return probeError;
+    }
+
+    @PreDestroy
+    private void close() {
+        refresher.shutdownNow();
+    }
+}
@@ -1,7 +1,4 @@
-import com.auth0.jwk.Jwk;
 import com.auth0.jwk.JwkException;
-import com.auth0.jwk.JwkProvider;
-import com.auth0.jwk.UrlJwkProvider;
 import com.auth0.jwt.JWT;
 import com.auth0.jwt.algorithms.Algorithm;
 import com.auth0.jwt.exceptions.JWTVerificationException;
@@ -9,38 +6,177 @@ import com.auth0.jwt.interfaces.DecodedJWT;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.interfaces.RSAPublicKey;
+import java.util.Base64;
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class TokenVerifier {
 
-    public static String verifyToken(String token, String issuer) throws JWTVerificationException, JwkException, MalformedURLException {
-        DecodedJWT decodedJWT = JWT.decode(token);
+    private static final int MAX_VERIFIED_TOKENS = 10000;
 
-        // Verify token signature
-        JwkProvider provider = new UrlJwkProvider(new URL(issuer + "/.well-known/jwks.json"));
-        Jwk jwk = provider.get(decodedJWT.getKeyId());
-        Algorithm algorithm = Algorithm.RSA256((RSAPublicKey) jwk.getPublicKey(), null);
-        JWT.require(algorithm)
-                .withIssuer(issuer)
-                .build()
-                .verify(token);
+    // One key cache per issuer and JWKS location, shared by every verification; a changed
+    // location gets a cache of its own
+    private static final Map<String, JwksKeyCache> KEY_CACHES = new ConcurrentHashMap<>();
 
-        return decodedJWT.getClaim("sub").asString();
+    // Tokens that already passed verification, keyed by a digest of issuer and token, evicted in LRU order
+    private static final ReentrantLock VERIFIED_LOCK = new ReentrantLock();
+    private static final Map<String, VerifiedToken> VERIFIED = new LinkedHashMap<String, VerifiedToken>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, VerifiedToken> eldest) {
+            return size() > MAX_VERIFIED_TOKENS;
+        }
+    };
+
+    public static String verifyToken(String token, String issuer) throws JWTVerificationException, JwkException, MalformedURLException {
+        return verify(token, issuer).getSubject();
     }
 
     public static List<String> getGroups(String token, String issuer) throws JWTVerificationException, JwkException, MalformedURLException {
+        return verify(token, issuer).getGroups();
+    }
+
+    /**
+     * Verifies the token once and returns both subject and groups. A token that was verified
+     * before is answered from memory until its {@code exp}.
+     */
+    public static VerifiedToken verify(String token, String issuer) throws JWTVerificationException, JwkException, MalformedURLException {
+        return verify(token, issuer, null);
+    }
+
+    /**
+     * Same as {@link #verify(String, String)}, with the issuer's keys loaded from
+     * {@code jwksUri} instead of its {@code /.well-known/jwks.json}, unless that is empty.
+     */
+    public static VerifiedToken verify(String token, String issuer, String jwksUri) throws JWTVerificationException, JwkException, MalformedURLException {
+        String digest = digest(issuer, token);
+        VerifiedToken cached;
+        VERIFIED_LOCK.lock();
+        try {
+            cached = VERIFIED.get(digest);
+        } finally {
+            VERIFIED_LOCK.unlock();
+        }
+        if (cached != null && cached.getExpiresAt() > System.currentTimeMillis()) {
+            return cached;
+        }
+
         DecodedJWT decodedJWT = JWT.decode(token);
 
         // Verify token signature
-        JwkProvider provider = new UrlJwkProvider(new URL(issuer + "/.well-known/jwks.json"));
-        Jwk jwk = provider.get(decodedJWT.getKeyId());
-        Algorithm algorithm = Algorithm.RSA256((RSAPublicKey) jwk.getPublicKey(), null);
+        RSAPublicKey publicKey = keyCache(issuer, jwksUri).get(decodedJWT.getKeyId());
+        Algorithm algorithm = Algorithm.RSA256(publicKey, null);
         JWT.require(algorithm)
                 .withIssuer(issuer)
                 .build()
                 .verify(token);
 
-        return decodedJWT.getClaim("cognito:groups").asList(String.class);
+        Date expiresAt = decodedJWT.getExpiresAt();
+        VerifiedToken verified = new VerifiedToken(decodedJWT.getClaim("sub").asString(),
+                decodedJWT.getClaim("cognito:groups").asList(String.class),
+                decodedJWT.getClaim("email").asString(),
+                expiresAt == null ? 0 : expiresAt.getTime());
+        if (expiresAt != null) {
+            VERIFIED_LOCK.lock();
+            try {
+                VERIFIED.put(digest, verified);
+            } finally {
+                VERIFIED_LOCK.unlock();
+            }
+        }
+        return verified;
+    }
+
+    /**
+     * Loads the signing keys of {@code issuer} ahead of its first token.
+     *
+     * @param jwksUri as for {@link #verify(String, String, String)}
+     */
+    public static void prefetch(String issuer, String jwksUri) throws JwkException, MalformedURLException {
+        keyCache(issuer, jwksUri).prefetch();
+    }
+
+    /**
+     * Verifies the tokens of {@code issuer} with the given keys, e.g. an offline JWKS stand-in,
+     * where they would be loaded from its {@code /.well-known/jwks.json}.
+     */
+    static void useKeys(String issuer, JwksKeyCache keyCache) {
+        KEY_CACHES.put(keyCacheKey(issuer, jwksUrl(issuer, null)), keyCache);
+        VERIFIED_LOCK.lock();
+        try {
+            VERIFIED.clear();
+        } finally {
+            VERIFIED_LOCK.unlock();
+        }
+    }
+
+    private static JwksKeyCache keyCache(String issuer, String jwksUri) throws MalformedURLException {
+        String jwksUrl = jwksUrl(issuer, jwksUri);
+        String key = keyCacheKey(issuer, jwksUrl);
+        JwksKeyCache keyCache = KEY_CACHES.get(key);
+        if (keyCache == null) {
+            JwksKeyCache created = new JwksKeyCache(new URL(jwksUrl));
+            keyCache = KEY_CACHES.putIfAbsent(key, created);
+            if (keyCache == null) {
+                keyCache = created;
+            }
+        }
+        return keyCache;
+    }
+
+    private static String jwksUrl(String issuer, String jwksUri) {
+        return jwksUri == null || jwksUri.isEmpty() ? issuer + "/.well-known/jwks.json" : jwksUri;
+    }
+
+    private static String keyCacheKey(String issuer, String jwksUrl) {
+        return issuer + '\0' + jwksUrl;
+    }
+
+    private static String digest(String issuer, String token) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(issuer.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            return Base64.getEncoder().encodeToString(digest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static class VerifiedToken {
+        private final String subject;
+        private final List<String> groups;
+        private final String email;
+        private final long expiresAt;
+
+        public VerifiedToken(String subject, List<String> groups, String email, long expiresAt) {
+            this.subject = subject;
+            this.groups = groups;
+            this.email = email;
+            this.expiresAt = expiresAt;
+        }
+
+        public String getSubject() {
+            return subject;
+        }
+
+        public List<String> getGroups() {
+            return groups;
+        }
+
+        public String getEmail() {
+            return email;
+        }
+
+        public long getExpiresAt() {
+            return expiresAt;
+        }
     }
 }
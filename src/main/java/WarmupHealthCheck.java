@@ -0,0 +1,25 @@
+import org.eclipse.microprofile.health.HealthCheck;
+import org.eclipse.microprofile.health.HealthCheckResponse;
+import org.eclipse.microprofile.health.Readiness;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+
+/**
+ * Keeps a new pod out of the service until {@link StartupWarmup} has finished.
+ */
+@ApplicationScoped
+@Readiness
+public class WarmupHealthCheck implements HealthCheck {
+
+    @Inject
+    private StartupWarmup startupWarmup;
+
+    @Override
+    public HealthCheckResponse call() {
+        return HealthCheckResponse.named("Warm-up check")
+                .withData("timeToReadyMs", startupWarmup.getTimeToReady())
+                .state(startupWarmup.isWarm())
+                .build();
+    }
+}
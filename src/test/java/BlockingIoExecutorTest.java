@@ -0,0 +1,92 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * The virtual execution mode on the JVM it runs on; CI runs it on the runtime image's JDK.
+ */
+public class BlockingIoExecutorTest {
+
+    private final OrdersConfigProperties ordersConfig = new OrdersConfigProperties();
+    private final BlockingIoExecutor blockingIo = new BlockingIoExecutor();
+
+    @Before
+    public void setUp() throws Exception {
+        Field field = BlockingIoExecutor.class.getDeclaredField("ordersConfig");
+        field.setAccessible(true);
+        field.set(blockingIo, ordersConfig);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        invoke("close");
+    }
+
+    @Test
+    public void platformModeRunsInline() throws Exception {
+        invoke("init");
+
+        Thread caller = Thread.currentThread();
+        assertFalse(blockingIo.isVirtual());
+        assertEquals(caller, blockingIo.supply(Thread::currentThread).toCompletableFuture().getNow(null));
+    }
+
+    @Test
+    public void virtualModeRunsOnVirtualThreads() throws Exception {
+        assumeTrue("needs a JVM with virtual threads", BlockingIoExecutor.newVirtualThreadPerTaskExecutor() != null);
+        ordersConfig.setExecutionMode(BlockingIoExecutor.MODE_VIRTUAL);
+        invoke("init");
+
+        Thread worker = blockingIo.supply(Thread::currentThread).toCompletableFuture().get(5, TimeUnit.SECONDS);
+
+        assertTrue(blockingIo.isVirtual());
+        assertTrue((Boolean) Thread.class.getMethod("isVirtual").invoke(worker));
+    }
+
+    @Test
+    public void pinnedVirtualThreadsAreReported() throws Exception {
+        assumeTrue("needs a JVM with virtual threads", BlockingIoExecutor.newVirtualThreadPerTaskExecutor() != null);
+        // JEP 491: from JDK 24 on, monitors no longer pin the carrier thread
+        assumeTrue(Integer.parseInt(System.getProperty("java.specification.version")) < 24);
+        ordersConfig.setExecutionMode(BlockingIoExecutor.MODE_VIRTUAL);
+        invoke("init");
+
+        Object monitor = new Object();
+        blockingIo.supply(() -> {
+            synchronized (monitor) {
+                sleep(200);
+            }
+            return null;
+        }).toCompletableFuture().get(5, TimeUnit.SECONDS);
+
+        // The JFR stream delivers its events about once a second
+        long deadline = System.currentTimeMillis() + 10000;
+        while (blockingIo.getPinnedEvents() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertTrue(blockingIo.getPinnedEvents() > 0);
+    }
+
+    private void invoke(String name) throws ReflectiveOperationException {
+        Method method = BlockingIoExecutor.class.getDeclaredMethod(name);
+        method.setAccessible(true);
+        method.invoke(blockingIo);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,212 @@
+import org.eclipse.microprofile.metrics.Gauge;
+import org.junit.Before;
+import org.junit.Test;
+import software.amazon.awssdk.services.dynamodb.DynamoDbAsyncClient;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Hedged reads against two replicas whose answers are injected per test: slow, failing or fast.
+ */
+public class HedgedReadsTest {
+
+    private static final String HOME = "eu-west-1";
+    private static final String REMOTE = "us-east-1";
+    private static final String USER = "user-1";
+
+    private final Map<String, Supplier<CompletableFuture<String>>> replies = new ConcurrentHashMap<>();
+    private final List<String> calls = new CopyOnWriteArrayList<>();
+
+    private OrdersConfigProperties ordersConfig;
+    private volatile List<DynamoDbClientRegistry.ReadReplica> replicas;
+    private HedgedReads hedgedReads;
+
+    @Before
+    public void setUp() throws Exception {
+        ConfigProperties configProperties = new ConfigProperties();
+        configProperties.setDynamoRegion(HOME);
+        configProperties.setSocketTimeoutMs(1000);
+        ordersConfig = new OrdersConfigProperties();
+        ordersConfig.setHedgeMaxDelayMs(20);
+        // Every read pays for one hedge
+        ordersConfig.setHedgeBudgetPercent(100.0);
+
+        replicas = Arrays.asList(replica(HOME), replica(REMOTE));
+        DynamoDbClientRegistry clientRegistry = new DynamoDbClientRegistry() {
+            @Override
+            public List<ReadReplica> readReplicas() {
+                return replicas;
+            }
+        };
+        hedgedReads = new HedgedReads() {
+            @Override
+            void registerLatencyGauge(String replica, Gauge<Double> latencyMs) {
+            }
+        };
+        inject("clientRegistry", clientRegistry);
+        inject("configProperties", configProperties);
+        inject("ordersConfig", ordersConfig);
+    }
+
+    @Test
+    public void fastAnswerIsNotHedged() throws Exception {
+        replies.put(HOME, () -> CompletableFuture.completedFuture(HOME));
+
+        assertEquals(HOME, await(hedgedReads.read(USER, this::call)));
+        Thread.sleep(100);
+
+        assertEquals(Collections.singletonList(HOME), calls);
+        assertEquals(0, hedgedReads.getHedgesSent());
+    }
+
+    @Test
+    public void slowReplicaIsHedgedAndTheFasterAnswerWins() throws Exception {
+        CompletableFuture<String> hanging = new CompletableFuture<>();
+        replies.put(HOME, () -> hanging);
+        replies.put(REMOTE, () -> CompletableFuture.completedFuture(REMOTE));
+
+        assertEquals(REMOTE, await(hedgedReads.read(USER, this::call)));
+
+        assertEquals(Arrays.asList(HOME, REMOTE), calls);
+        assertEquals(1, hedgedReads.getHedgesSent());
+        // The loser is cancelled and the win counted just after the result completes
+        long deadline = System.currentTimeMillis() + 2000;
+        while ((!hanging.isCancelled() || hedgedReads.getHedgesWon() == 0) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue("the losing call is cancelled", hanging.isCancelled());
+        assertEquals(1, hedgedReads.getHedgesWon());
+    }
+
+    @Test
+    public void failedReplicaIsAvoidedByTheNextRead() throws Exception {
+        replies.put(HOME, () -> failed("home down"));
+        replies.put(REMOTE, () -> CompletableFuture.completedFuture(REMOTE));
+        try {
+            await(hedgedReads.read(USER, this::call));
+            fail("Read succeeded although its only attempt failed");
+        } catch (ExecutionException e) {
+            assertEquals("home down", e.getCause().getMessage());
+        }
+        calls.clear();
+
+        assertEquals(REMOTE, await(hedgedReads.read(USER, this::call)));
+        assertEquals(Collections.singletonList(REMOTE), calls);
+    }
+
+    @Test
+    public void readFailsOnlyOnceEveryAttemptFailed() throws Exception {
+        CompletableFuture<String> slowFailure = new CompletableFuture<>();
+        CountDownLatch hedged = new CountDownLatch(1);
+        replies.put(HOME, () -> slowFailure);
+        replies.put(REMOTE, () -> {
+            hedged.countDown();
+            return failed("remote down");
+        });
+
+        CompletionStage<String> read = hedgedReads.read(USER, this::call);
+        assertTrue(hedged.await(2, TimeUnit.SECONDS));
+        assertFalse(read.toCompletableFuture().isDone());
+
+        slowFailure.completeExceptionally(new IllegalStateException("home down"));
+        try {
+            await(read);
+            fail("Read succeeded although both attempts failed");
+        } catch (ExecutionException e) {
+            // Either failure may be the last one to land
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+
+    @Test
+    public void spentBudgetDeniesTheHedge() throws Exception {
+        ordersConfig.setHedgeBudgetPercent(0.0);
+        CompletableFuture<String> slow = new CompletableFuture<>();
+        replies.put(HOME, () -> slow);
+        replies.put(REMOTE, () -> CompletableFuture.completedFuture(REMOTE));
+
+        CompletionStage<String> read = hedgedReads.read(USER, this::call);
+        long deadline = System.currentTimeMillis() + 2000;
+        while (hedgedReads.getHedgesDenied() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        slow.complete(HOME);
+
+        assertEquals(HOME, await(read));
+        assertEquals(1, hedgedReads.getHedgesDenied());
+        assertEquals(Collections.singletonList(HOME), calls);
+    }
+
+    @Test
+    public void recentWriterReadsFromTheHomeRegion() throws Exception {
+        // Without a recent write the first replica of the list is tried first
+        replicas = Arrays.asList(replica(REMOTE), replica(HOME));
+        replies.put(HOME, () -> CompletableFuture.completedFuture(HOME));
+        replies.put(REMOTE, () -> CompletableFuture.completedFuture(REMOTE));
+
+        hedgedReads.onWrite(USER);
+
+        assertEquals(HOME, await(hedgedReads.read(USER, this::call)));
+        assertEquals(REMOTE, await(hedgedReads.read("user-2", this::call)));
+        assertEquals(Arrays.asList(HOME, REMOTE), calls);
+    }
+
+    private CompletableFuture<String> call(DynamoDbAsyncClient client) {
+        calls.add(client.toString());
+        return replies.get(client.toString()).get();
+    }
+
+    private static String await(CompletionStage<String> read) throws Exception {
+        return read.toCompletableFuture().get(2, TimeUnit.SECONDS);
+    }
+
+    private static CompletableFuture<String> failed(String message) {
+        CompletableFuture<String> future = new CompletableFuture<>();
+        future.completeExceptionally(new IllegalStateException(message));
+        return future;
+    }
+
+    /**
+     * A replica whose client only knows its region; the replies come from {@link #replies}.
+     */
+    private static DynamoDbClientRegistry.ReadReplica replica(String region) {
+        DynamoDbAsyncClient client = (DynamoDbAsyncClient) Proxy.newProxyInstance(DynamoDbAsyncClient.class.getClassLoader(),
+                new Class<?>[]{DynamoDbAsyncClient.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "toString":
+                            return region;
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        return new DynamoDbClientRegistry.ReadReplica(region, region, client);
+    }
+
+    private void inject(String name, Object value) throws ReflectiveOperationException {
+        Field field = HedgedReads.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(hedgedReads, value);
+    }
+}
@@ -0,0 +1,114 @@
+import com.auth0.jwk.Jwk;
+import com.auth0.jwk.SigningKeyNotFoundException;
+import com.auth0.jwk.UrlJwkProvider;
+import com.auth0.jwt.algorithms.Algorithm;
+
+import java.math.BigInteger;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Offline stand-in for an issuer's JWKS endpoint: serves the public halves of the key pairs it
+ * generated, counts the fetches and can be made to fail like an unreachable issuer.
+ */
+public class OfflineJwks extends UrlJwkProvider {
+
+    private final Map<String, KeyPair> keyPairs = new ConcurrentHashMap<>();
+    private final AtomicInteger fetches = new AtomicInteger();
+    private volatile boolean failing;
+
+    public OfflineJwks() throws MalformedURLException {
+        super(new URL("http://jwks.invalid/.well-known/jwks.json"));
+    }
+
+    public static KeyPair generateKeyPair() {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            return generator.generateKeyPair();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static Algorithm signer(KeyPair keyPair) {
+        return Algorithm.RSA256((RSAPublicKey) keyPair.getPublic(), (RSAPrivateKey) keyPair.getPrivate());
+    }
+
+    /**
+     * Publishes a new key pair under {@code keyId}.
+     */
+    public KeyPair addKey(String keyId) {
+        KeyPair keyPair = generateKeyPair();
+        keyPairs.put(keyId, keyPair);
+        return keyPair;
+    }
+
+    public int getFetches() {
+        return fetches.get();
+    }
+
+    public void setFailing(boolean failing) {
+        this.failing = failing;
+    }
+
+    @Override
+    public List<Jwk> getAll() throws SigningKeyNotFoundException {
+        fetches.incrementAndGet();
+        if (failing) {
+            throw new SigningKeyNotFoundException("JWKS endpoint unavailable", null);
+        }
+        List<Jwk> jwks = new ArrayList<>();
+        for (Map.Entry<String, KeyPair> entry : keyPairs.entrySet()) {
+            RSAPublicKey publicKey = (RSAPublicKey) entry.getValue().getPublic();
+            Map<String, Object> values = new HashMap<>();
+            values.put("kid", entry.getKey());
+            values.put("kty", "RSA");
+            values.put("alg", "RS256");
+            values.put("use", "sig");
+            values.put("n", base64Url(publicKey.getModulus()));
+            values.put("e", base64Url(publicKey.getPublicExponent()));
+            jwks.add(Jwk.fromValues(values));
+        }
+        return jwks;
+    }
+
+    /**
+     * The JWKS document of the published keys, as the issuer's endpoint would serve it.
+     */
+    public String document() {
+        StringBuilder document = new StringBuilder("{\"keys\":[");
+        for (Map.Entry<String, KeyPair> entry : keyPairs.entrySet()) {
+            RSAPublicKey publicKey = (RSAPublicKey) entry.getValue().getPublic();
+            if (document.charAt(document.length() - 1) != '[') {
+                document.append(',');
+            }
+            document.append("{\"kid\":\"").append(entry.getKey())
+                    .append("\",\"kty\":\"RSA\",\"alg\":\"RS256\",\"use\":\"sig\",\"n\":\"")
+                    .append(base64Url(publicKey.getModulus()))
+                    .append("\",\"e\":\"").append(base64Url(publicKey.getPublicExponent())).append("\"}");
+        }
+        return document.append("]}").toString();
+    }
+
+    private static String base64Url(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        if (bytes.length > 1 && bytes[0] == 0) {
+            bytes = Arrays.copyOfRange(bytes, 1, bytes.length);
+        }
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
@@ -0,0 +1,145 @@
+import com.auth0.jwk.JwkException;
+import com.auth0.jwk.SigningKeyNotFoundException;
+import com.auth0.jwt.JWT;
+import com.auth0.jwt.exceptions.IncorrectClaimException;
+import com.auth0.jwt.exceptions.SignatureVerificationException;
+import com.auth0.jwt.exceptions.TokenExpiredException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class TokenVerifierTest {
+
+    private static final AtomicInteger ISSUERS = new AtomicInteger();
+
+    private String issuer;
+    private OfflineJwks jwks;
+    private KeyPair signingKey;
+
+    @Before
+    public void setUp() throws Exception {
+        // TokenVerifier caches keys per issuer, so every test gets an issuer of its own
+        issuer = "https://issuer.invalid/pool-" + ISSUERS.incrementAndGet();
+        jwks = new OfflineJwks();
+        signingKey = jwks.addKey("key-1");
+        TokenVerifier.useKeys(issuer, new JwksKeyCache(jwks));
+    }
+
+    private String token(String issuer, String keyId, KeyPair keyPair, long expiresInMs) {
+        return JWT.create()
+                .withIssuer(issuer)
+                .withKeyId(keyId)
+                .withSubject("user-1")
+                .withClaim("email", "user-1@example.com")
+                .withClaim("cognito:groups", Arrays.asList("admin", "customers"))
+                .withExpiresAt(new Date(System.currentTimeMillis() + expiresInMs))
+                .sign(OfflineJwks.signer(keyPair));
+    }
+
+    @Test
+    public void verifiesTokenAgainstTheIssuerKeys() throws Exception {
+        TokenVerifier.VerifiedToken verified = TokenVerifier.verify(
+                token(issuer, "key-1", signingKey, TimeUnit.MINUTES.toMillis(5)), issuer);
+
+        assertEquals("user-1", verified.getSubject());
+        assertEquals("user-1@example.com", verified.getEmail());
+        assertEquals(Arrays.asList("admin", "customers"), verified.getGroups());
+    }
+
+    @Test
+    public void answersRepeatedTokensFromMemory() throws Exception {
+        String token = token(issuer, "key-1", signingKey, TimeUnit.MINUTES.toMillis(5));
+
+        TokenVerifier.VerifiedToken first = TokenVerifier.verify(token, issuer);
+        TokenVerifier.VerifiedToken second = TokenVerifier.verify(token, issuer);
+
+        assertSame(first, second);
+        assertEquals(1, jwks.getFetches());
+    }
+
+    @Test(expected = SignatureVerificationException.class)
+    public void rejectsTokenWithTamperedClaims() throws Exception {
+        String[] parts = token(issuer, "key-1", signingKey, TimeUnit.MINUTES.toMillis(5)).split("\\.");
+        String otherClaims = token(issuer, "key-1", OfflineJwks.generateKeyPair(), TimeUnit.MINUTES.toMillis(10)).split("\\.")[1];
+
+        TokenVerifier.verify(parts[0] + "." + otherClaims + "." + parts[2], issuer);
+    }
+
+    @Test(expected = IncorrectClaimException.class)
+    public void rejectsTokenOfAnotherIssuer() throws Exception {
+        TokenVerifier.verify(token("https://other.invalid/pool", "key-1", signingKey, TimeUnit.MINUTES.toMillis(5)), issuer);
+    }
+
+    @Test(expected = TokenExpiredException.class)
+    public void rejectsExpiredToken() throws Exception {
+        TokenVerifier.verify(token(issuer, "key-1", signingKey, -TimeUnit.MINUTES.toMillis(5)), issuer);
+    }
+
+    @Test
+    public void unknownKeyIdsDoNotRefetchWithinTheMinimumInterval() throws Exception {
+        TokenVerifier.verify(token(issuer, "key-1", signingKey, TimeUnit.MINUTES.toMillis(5)), issuer);
+        for (int i = 0; i < 10; i++) {
+            String madeUp = token(issuer, "made-up-" + i, OfflineJwks.generateKeyPair(), TimeUnit.MINUTES.toMillis(5));
+            try {
+                TokenVerifier.verify(madeUp, issuer);
+                fail("Token with an unknown key id was accepted");
+            } catch (SigningKeyNotFoundException expected) {
+                // the key set was fetched moments ago
+            }
+        }
+
+        assertEquals(1, jwks.getFetches());
+    }
+
+    @Test
+    public void changedJwksUriGetsItsOwnKeys() throws Exception {
+        OfflineJwks first = new OfflineJwks();
+        KeyPair firstKey = first.addKey("first");
+        OfflineJwks second = new OfflineJwks();
+        KeyPair secondKey = second.addKey("second");
+        String firstUri = jwksFile(first);
+        String secondUri = jwksFile(second);
+
+        TokenVerifier.verify(token(issuer, "first", firstKey, TimeUnit.MINUTES.toMillis(5)), issuer, firstUri);
+        TokenVerifier.VerifiedToken verified = TokenVerifier.verify(
+                token(issuer, "second", secondKey, TimeUnit.MINUTES.toMillis(5)), issuer, secondUri);
+
+        assertEquals("user-1", verified.getSubject());
+    }
+
+    private static String jwksFile(OfflineJwks jwks) throws IOException {
+        Path file = Files.createTempFile("jwks", ".json");
+        file.toFile().deleteOnExit();
+        Files.write(file, jwks.document().getBytes(StandardCharsets.UTF_8));
+        return file.toUri().toString();
+    }
+
+    @Test
+    public void backsOffAfterAFailedFetch() throws Exception {
+        jwks.setFailing(true);
+        String token = token(issuer, "key-1", signingKey, TimeUnit.MINUTES.toMillis(5));
+        for (int i = 0; i < 5; i++) {
+            try {
+                TokenVerifier.verify(token, issuer);
+                fail("Token was accepted without keys");
+            } catch (JwkException expected) {
+                // no keys were ever loaded
+            }
+        }
+
+        assertEquals(1, jwks.getFetches());
+    }
+}